@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the interpreted {@link FusedKernel} with the kernel generated by the {@link KernelCompiler}
+ * for typical preprocessing chains.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+
+	@Param({"affine", "clip_affine", "clip_binarize", "affine_sigmoid"})
+	public String chain;
+
+	@Param({"1048576"})
+	public int size;
+
+	private float[] source;
+	private float[] data;
+	private PointwiseOperation interpreted;
+	private PointwiseOperation generated;
+
+	@Setup
+	public void setup() {
+		PointwiseOperation[] operations;
+		switch (chain) {
+			case "affine":
+				operations = new PointwiseOperation[]{new AffineOperation(1 / 255., 0)};
+				break;
+			case "clip_affine":
+				operations = new PointwiseOperation[]{new ClipOperation(10, 200), new AffineOperation(0.5, -3), new AffineOperation(2, 1)};
+				break;
+			case "clip_binarize":
+				operations = new PointwiseOperation[]{new AffineOperation(0.01, 0), new ClipOperation(0, 1), new BinarizeOperation(0.5)};
+				break;
+			default:
+				operations = new PointwiseOperation[]{new AffineOperation(0.1, -5), new SigmoidOperation()};
+		}
+		interpreted = new FusedKernel(operations);
+		generated = KernelCompiler.compile(operations);
+		Random random = new Random(1);
+		source = new float[size];
+		for (int i = 0; i < size; i++) source[i] = random.nextFloat() * 255;
+		data = new float[size];
+	}
+
+	@Benchmark
+	public float[] interpreted() {
+		System.arraycopy(source, 0, data, 0, size);
+		interpreted.apply(data, 0, size);
+		return data;
+	}
+
+	@Benchmark
+	public float[] generated() {
+		System.arraycopy(source, 0, data, 0, size);
+		generated.apply(data, 0, size);
+		return data;
+	}
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar kernels of the {@link KernelCompiler} with the SIMD kernels of {@link VectorKernels}
+ * on float32 and uint16 input. The SIMD kernels are only used if the benchmark runs on Java 17+ with the
+ * packaged multi-release JAR on the class path and {@code --add-modules jdk.incubator.vector}, see the
+ * {@code benchmark} profile of the POM; otherwise the benchmark refuses to run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorKernelBenchmark {
+
+	@Param({"scale_linear", "clip_binarize", "normalize_clip"})
+	public String chain;
+
+	@Param({"1048576"})
+	public int size;
+
+	private float[] floats;
+	private short[] uint16;
+	private float[] data;
+	private PointwiseOperation scalar;
+	private PointwiseOperation vector;
+
+	@Setup
+	public void setup() {
+		if (!VectorKernels.isSupported()) {
+			throw new IllegalStateException("SIMD kernels are not available, run the benchmark on Java 17+ against the multi-release JAR");
+		}
+		List<PointwiseOperation> operations;
+		switch (chain) {
+			case "scale_linear":
+				operations = Arrays.asList(new AffineOperation(1 / 65535., 0));
+				break;
+			case "clip_binarize":
+				operations = Arrays.asList(new ClipOperation(100, 60000), new BinarizeOperation(30000));
+				break;
+			default:
+				operations = Arrays.asList(new AffineOperation(1 / 1200., -25), new ClipOperation(-3, 3));
+		}
+		scalar = KernelCompiler.compile(operations);
+		vector = VectorKernels.compile(operations);
+		Random random = new Random(1);
+		floats = new float[size];
+		uint16 = new short[size];
+		for (int i = 0; i < size; i++) {
+			uint16[i] = (short) random.nextInt(1 << 16);
+			floats[i] = uint16[i] & 0xffff;
+		}
+		data = new float[size];
+	}
+
+	@Benchmark
+	public float[] float32Scalar() {
+		System.arraycopy(floats, 0, data, 0, size);
+		scalar.apply(data, 0, size);
+		return data;
+	}
+
+	@Benchmark
+	public float[] float32Vector() {
+		System.arraycopy(floats, 0, data, 0, size);
+		vector.apply(data, 0, size);
+		return data;
+	}
+
+	@Benchmark
+	public float[] uint16Scalar() {
+		for (int i = 0; i < size; i++) data[i] = uint16[i] & 0xffff;
+		scalar.apply(data, 0, size);
+		return data;
+	}
+
+	@Benchmark
+	public float[] uint16Vector() {
+		VectorKernels.uint16ToFloat(uint16, 0, data, 0, size);
+		vector.apply(data, 0, size);
+		return data;
+	}
+}
@@ -29,7 +29,7 @@
 package io.bioimage.specification.io;
 
 import io.bioimage.specification.*;
-import io.bioimage.specification.transformation.*;
+import io.bioimage.specification.transformation.TransformationRegistry;
 import io.bioimage.specification.weights.TensorFlowSavedModelBundleSpecification;
 
 import java.io.IOException;
@@ -99,36 +99,8 @@ class SpecificationReaderWriterV3 {
 
     private final static String idTransformationName = "name";
     private final static String idTransformationKwargs = "kwargs";
-    private final static String idTransformationMode = "mode";
-    private final static String idTransformationModeFixed = "fixed";
-    private final static String idTransformationModePerDataset = "per_dataset";
-    private final static String idTransformationModePerSample = "per_sample";
-
-    private final static String idTransformationScaleLinear = "scale_linear";
-    private final static String idTransformationScaleLinearGain = "gain";
-    private final static String idTransformationScaleLinearOffset = "offset";
-
-    private final static String idTransformationZeroMean = "zero_mean_unit_variance";
-    private final static String idTransformationZeroMeanMean = "mean";
-    private final static String idTransformationZeroMeanStd = "std";
     private final static String idWeightsTensorFlowSavedModelBundle = "tensorflow_saved_model_bundle";
 
-    private final static String idTransformationScaleMinMax = "scale_min_max";
-    private final static String idTransformationScaleMinMaxReferenceInput = "reference_input";
-    private final static String idTransformationScaleMinMaxMinPercentile = "min_percentile";
-    private final static String idTransformationScaleMinMaxMaxPercentile = "max_percentile";
-
-    private final static String idTransformationPercentile = "percentile";
-    private final static String idTransformationPercentileMinPercentile = "min_percentile";
-    private final static String idTransformationPercentileMaxPercentile = "max_percentile";
-
-    private final static String idTransformationBinarize = "binarize";
-    private final static String idTransformationBinarizeThreshold = "threshold";
-
-    private final static String idTransformationClip = "clip";
-    private final static String idTransformationClipMin = "min";
-    private final static String idTransformationClipMax = "max";
-
     private final static String idConfig = "config";
 
     private final static String idExecutionModel = "execution_model";
@@ -281,71 +253,7 @@ class SpecificationReaderWriterV3 {
         Map<String, Object> kwargs = asMap(data.get(idTransformationKwargs));
         Object transformation = data.get(idTransformationName);
         if (transformation == null) throw new IOException("Can't find name of transformation " + data);
-        switch ((String) transformation) {
-            case idTransformationBinarize:
-                BinarizeTransformation binarize = new BinarizeTransformation();
-                binarize.setMode(toMode(kwargs.get(idTransformationMode)));
-                binarize.setThreshold(toNumber(kwargs.get(idTransformationBinarizeThreshold)));
-                return binarize;
-            case idTransformationScaleLinear:
-                ScaleLinearTransformation scaleLinear = new ScaleLinearTransformation();
-                scaleLinear.setMode(toMode(kwargs.get(idTransformationMode)));
-                scaleLinear.setGain(toNumber(kwargs.get(idTransformationScaleLinearGain)));
-                scaleLinear.setOffset(toNumber(kwargs.get(idTransformationScaleLinearOffset)));
-                return scaleLinear;
-            case idTransformationZeroMean:
-                ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
-                zeroMean.setMode(toMode(kwargs.get(idTransformationMode)));
-                zeroMean.setMean(toNumber(kwargs.get(idTransformationZeroMeanMean)));
-                zeroMean.setStd(toNumber(kwargs.get(idTransformationZeroMeanStd)));
-                return zeroMean;
-            case idTransformationScaleMinMax:
-                ScaleMinMaxTransformation scaleMinMax = new ScaleMinMaxTransformation();
-                scaleMinMax.setMode(toMode(kwargs.get(idTransformationMode)));
-                scaleMinMax.setReferenceInput((String) kwargs.get(idTransformationScaleMinMaxReferenceInput));
-                scaleMinMax.setMinPercentile(toNumber(kwargs.get(idTransformationScaleMinMaxMinPercentile)));
-                scaleMinMax.setMaxPercentile(toNumber(kwargs.get(idTransformationScaleMinMaxMaxPercentile)));
-                return scaleMinMax;
-            case idTransformationPercentile:
-                PercentileTransformation percentile = new PercentileTransformation();
-                percentile.setMode(toMode(kwargs.get(idTransformationMode)));
-                percentile.setMinPercentile(toNumber(kwargs.get(idTransformationPercentileMinPercentile)));
-                percentile.setMaxPercentile(toNumber(kwargs.get(idTransformationPercentileMaxPercentile)));
-                return percentile;
-            case idTransformationClip:
-                ClipTransformation clip = new ClipTransformation();
-                clip.setMode(toMode(kwargs.get(idTransformationMode)));
-                clip.setMin(toNumber(kwargs.get(idTransformationClipMin)));
-                clip.setMax(toNumber(kwargs.get(idTransformationClipMax)));
-                return clip;
-        }
-        throw new IOException("Could not process transformation " + transformation);
-    }
-
-    private static ImageTransformation.Mode toMode(Object obj) {
-        if (obj == null) return null;
-        String mode = (String) obj;
-        if (mode.equals(idTransformationModeFixed)) {
-            return ImageTransformation.Mode.FIXED;
-        }
-        if (mode.equals(idTransformationModePerDataset)) {
-            return ImageTransformation.Mode.PER_DATASET;
-        }
-        if (mode.equals(idTransformationModePerSample)) {
-            return ImageTransformation.Mode.PER_SAMPLE;
-        }
-        return null;
-    }
-
-    private static Number toNumber(Object obj) {
-        if (obj == null) return null;
-        if (Number.class.isAssignableFrom(obj.getClass())) {
-            return (Number) obj;
-        }
-        if (List.class.isAssignableFrom(obj.getClass())) {
-            return toNumber(((List) obj).get(0));
-        }
-        throw new ClassCastException("Cannot convert " + obj + " to number.");
+        return TransformationRegistry.getInstance().read((String) transformation, kwargs);
     }
 
     private static OutputNodeSpecification readOutputNode(Map data) throws IOException {
@@ -554,56 +462,11 @@ class SpecificationReaderWriterV3 {
 
     private static Map<String, Object> writeTransformation(TransformationSpecification transformation) {
         Map<String, Object> res = new LinkedHashMap<>();
-        Map<String, Object> kwargs = new LinkedHashMap<>();
-        if (transformation instanceof ScaleLinearTransformation) {
-            res.put(idTransformationName, idTransformationScaleLinear);
-            ScaleLinearTransformation scaleLinear = (ScaleLinearTransformation) transformation;
-            kwargs.put(idTransformationMode, writeMode(scaleLinear.getMode()));
-            kwargs.put(idTransformationScaleLinearGain, Collections.singletonList(scaleLinear.getGain()));
-            kwargs.put(idTransformationScaleLinearOffset, Collections.singletonList(scaleLinear.getOffset()));
-        } else if (transformation instanceof ZeroMeanUnitVarianceTransformation) {
-            res.put(idTransformationName, idTransformationZeroMean);
-            ZeroMeanUnitVarianceTransformation zeroMean = (ZeroMeanUnitVarianceTransformation) transformation;
-            kwargs.put(idTransformationMode, writeMode(zeroMean.getMode()));
-            kwargs.put(idTransformationZeroMeanMean, Collections.singletonList(zeroMean.getMean()));
-            kwargs.put(idTransformationZeroMeanStd, Collections.singletonList(zeroMean.getStd()));
-        } else if (transformation instanceof BinarizeTransformation) {
-            res.put(idTransformationName, idTransformationBinarize);
-            BinarizeTransformation binarize = (BinarizeTransformation) transformation;
-            kwargs.put(idTransformationMode, writeMode(binarize.getMode()));
-            kwargs.put(idTransformationBinarizeThreshold, Collections.singletonList(binarize.getThreshold()));
-        } else if (transformation instanceof ScaleMinMaxTransformation) {
-            res.put(idTransformationName, idTransformationScaleMinMax);
-            ScaleMinMaxTransformation scaleMinMax = (ScaleMinMaxTransformation) transformation;
-            kwargs.put(idTransformationMode, writeMode(scaleMinMax.getMode()));
-            kwargs.put(idTransformationScaleMinMaxMinPercentile, scaleMinMax.getMinPercentile());
-            kwargs.put(idTransformationScaleMinMaxMaxPercentile, scaleMinMax.getMaxPercentile());
-            kwargs.put(idTransformationScaleMinMaxReferenceInput, scaleMinMax.getReferenceInput());
-        } else if (transformation instanceof PercentileTransformation) {
-            res.put(idTransformationName, idTransformationPercentile);
-            PercentileTransformation percentile = (PercentileTransformation) transformation;
-            kwargs.put(idTransformationMode, writeMode(percentile.getMode()));
-            kwargs.put(idTransformationPercentileMinPercentile, percentile.getMinPercentile());
-            kwargs.put(idTransformationPercentileMaxPercentile, percentile.getMaxPercentile());
-        } else if (transformation instanceof ClipTransformation) {
-            res.put(idTransformationName, idTransformationClip);
-            ClipTransformation clip = (ClipTransformation) transformation;
-            kwargs.put(idTransformationMode, writeMode(clip.getMode()));
-            kwargs.put(idTransformationClipMin, clip.getMin());
-            kwargs.put(idTransformationClipMax, clip.getMax());
-        }
-        res.put(idTransformationKwargs, kwargs);
+        res.put(idTransformationName, transformation.getName());
+        res.put(idTransformationKwargs, TransformationRegistry.getInstance().write(transformation));
         return res;
     }
 
-    private static String writeMode(ImageTransformation.Mode mode) {
-        if (mode == null) return null;
-        if (mode.equals(ImageTransformation.Mode.FIXED)) return idTransformationModeFixed;
-        if (mode.equals(ImageTransformation.Mode.PER_DATASET)) return idTransformationModePerDataset;
-        if (mode.equals(ImageTransformation.Mode.PER_SAMPLE)) return idTransformationModePerSample;
-        return null;
-    }
-
     private static Map<String, Object> writeCitation(CitationSpecification citation) {
         Map<String, Object> res = new LinkedHashMap<>();
         res.put(idCiteText, citation.getCitationText());
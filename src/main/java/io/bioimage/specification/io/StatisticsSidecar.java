@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.io;
+
+import io.bioimage.specification.statistics.Moments;
+import io.bioimage.specification.statistics.NodeStatistics;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.bioimage.specification.util.SpecificationUtil.asMap;
+import static io.bioimage.specification.util.SpecificationUtil.getOrAppendMap;
+
+/**
+ * Reads and writes precomputed node statistics stored next to the model specification,
+ * keyed by node name and the axes the statistics were reduced over.
+ */
+public class StatisticsSidecar {
+
+	public final static String statisticsFileName = "rdf.statistics.yaml";
+
+	private final static String idFormatVersion = "format_version";
+	private final static String idStatistics = "statistics";
+	private final static String idCount = "count";
+	private final static String idMean = "mean";
+	private final static String idStd = "std";
+	private final static String idMin = "min";
+	private final static String idMax = "max";
+	private final static String idPercentiles = "percentiles";
+	private final static String formatVersion = "0.1.0";
+
+	public static List<NodeStatistics> read(File modelDirectory) throws IOException {
+		File file = new File(modelDirectory, statisticsFileName);
+		if (!file.exists()) return new ArrayList<>();
+		try (InputStream stream = new FileInputStream(file)) {
+			return read(stream);
+		}
+	}
+
+	public static List<NodeStatistics> read(InputStream stream) throws IOException {
+		List<NodeStatistics> res = new ArrayList<>();
+		Map<String, Object> obj = new Yaml().load(stream);
+		if (obj == null) return res;
+		Map<String, Object> nodes = asMap(obj.get(idStatistics));
+		if (nodes == null) return res;
+		for (Map.Entry<String, Object> node : nodes.entrySet()) {
+			Map<String, Object> axesEntries = asMap(node.getValue());
+			if (axesEntries == null) throw new IOException("Invalid statistics of node " + node.getKey());
+			for (Map.Entry<String, Object> axes : axesEntries.entrySet()) {
+				res.add(readStatistics(node.getKey(), axes.getKey(), asMap(axes.getValue())));
+			}
+		}
+		return res;
+	}
+
+	private static NodeStatistics readStatistics(String nodeName, String axes, Map<String, Object> data) throws IOException {
+		if (data == null) throw new IOException("Invalid statistics of node " + nodeName + " and axes " + axes);
+		List<Number> count = toList(data.get(idCount));
+		List<Number> mean = toList(data.get(idMean));
+		List<Number> std = toList(data.get(idStd));
+		List<Number> min = toList(data.get(idMin));
+		List<Number> max = toList(data.get(idMax));
+		Moments[] moments = new Moments[count.size()];
+		for (int i = 0; i < moments.length; i++) {
+			long n = count.get(i).longValue();
+			double s = std.get(i).doubleValue();
+			moments[i] = new Moments(n, mean.get(i).doubleValue(), s * s * n,
+					min.get(i).doubleValue(), max.get(i).doubleValue());
+		}
+		NodeStatistics statistics = new NodeStatistics(nodeName, axes, moments);
+		Map<String, Object> percentiles = asMap(data.get(idPercentiles));
+		if (percentiles != null) {
+			for (Map.Entry<?, Object> percentile : ((Map<?, Object>) percentiles).entrySet()) {
+				List<Number> values = toList(percentile.getValue());
+				double[] res = new double[values.size()];
+				for (int i = 0; i < res.length; i++) {
+					res[i] = values.get(i).doubleValue();
+				}
+				statistics.setPercentile(Double.parseDouble(percentile.getKey().toString()), res);
+			}
+		}
+		return statistics;
+	}
+
+	private static List<Number> toList(Object obj) throws IOException {
+		if (obj == null) throw new IOException("Missing value in statistics file");
+		if (List.class.isAssignableFrom(obj.getClass())) return (List<Number>) obj;
+		if (Number.class.isAssignableFrom(obj.getClass())) {
+			List<Number> res = new ArrayList<>();
+			res.add((Number) obj);
+			return res;
+		}
+		throw new IOException("Cannot convert " + obj + " to list of numbers.");
+	}
+
+	public static void write(Collection<NodeStatistics> statistics, File modelDirectory) throws IOException {
+		try (Writer writer = new FileWriter(new File(modelDirectory, statisticsFileName))) {
+			new Yaml().dump(write(statistics), writer);
+		}
+	}
+
+	public static Map<String, Object> write(Collection<NodeStatistics> statistics) {
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put(idFormatVersion, formatVersion);
+		Map<String, Object> nodes = new LinkedHashMap<>();
+		for (NodeStatistics node : statistics) {
+			Map<String, Object> axes = getOrAppendMap(nodes, node.getNodeName());
+			axes.put(node.getAxes(), writeStatistics(node));
+		}
+		data.put(idStatistics, nodes);
+		return data;
+	}
+
+	private static Map<String, Object> writeStatistics(NodeStatistics statistics) {
+		Map<String, Object> res = new LinkedHashMap<>();
+		List<Long> count = new ArrayList<>();
+		List<Double> mean = new ArrayList<>();
+		List<Double> std = new ArrayList<>();
+		List<Double> min = new ArrayList<>();
+		List<Double> max = new ArrayList<>();
+		for (Moments moments : statistics.getMoments()) {
+			count.add(moments.getCount());
+			mean.add(moments.getMean());
+			std.add(moments.getStd());
+			min.add(moments.getMin());
+			max.add(moments.getMax());
+		}
+		res.put(idCount, count);
+		res.put(idMean, mean);
+		res.put(idStd, std);
+		res.put(idMin, min);
+		res.put(idMax, max);
+		if (!statistics.getPercentiles().isEmpty()) {
+			Map<Double, Object> percentiles = new LinkedHashMap<>();
+			for (Map.Entry<Double, double[]> percentile : statistics.getPercentiles().entrySet()) {
+				List<Double> values = new ArrayList<>();
+				for (double value : percentile.getValue()) values.add(value);
+				percentiles.put(percentile.getKey(), values);
+			}
+			res.put(idPercentiles, percentiles);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,67 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+public class AffineOperation implements PointwiseOperation {
+
+	private final float gain;
+	private final float offset;
+
+	public AffineOperation(double gain, double offset) {
+		this.gain = (float) gain;
+		this.offset = (float) offset;
+	}
+
+	public float getGain() {
+		return gain;
+	}
+
+	public float getOffset() {
+		return offset;
+	}
+
+	@Override
+	public float apply(float value) {
+		return value * gain + offset;
+	}
+
+	@Override
+	public void apply(float[] data, int offset, int length) {
+		float gain = this.gain;
+		float add = this.offset;
+		for (int i = offset; i < offset + length; i++) {
+			data[i] = data[i] * gain + add;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "affine(" + gain + ", " + offset + ")";
+	}
+}
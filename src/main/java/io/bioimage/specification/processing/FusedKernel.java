@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Applies a chain of {@link PointwiseOperation}s in a single pass over memory.
+ * The data is processed in small chunks which stay in the L1 cache while each
+ * operation runs its own tight loop over the chunk.
+ */
+public class FusedKernel implements PointwiseOperation {
+
+	static final int chunkLength = 1024;
+
+	private final PointwiseOperation[] operations;
+
+	public FusedKernel(PointwiseOperation... operations) {
+		this.operations = operations.clone();
+	}
+
+	public FusedKernel(List<? extends PointwiseOperation> operations) {
+		this.operations = operations.toArray(new PointwiseOperation[0]);
+	}
+
+	public List<PointwiseOperation> getOperations() {
+		return Collections.unmodifiableList(Arrays.asList(operations));
+	}
+
+	@Override
+	public float apply(float value) {
+		for (PointwiseOperation operation : operations) {
+			value = operation.apply(value);
+		}
+		return value;
+	}
+
+	@Override
+	public void apply(float[] data, int offset, int length) {
+		for (int start = offset; start < offset + length; start += chunkLength) {
+			int chunk = Math.min(chunkLength, offset + length - start);
+			for (PointwiseOperation operation : operations) {
+				operation.apply(data, start, chunk);
+			}
+		}
+	}
+
+	public void apply(float[] source, int sourceOffset, float[] target, int targetOffset, int length) {
+		for (int start = 0; start < length; start += chunkLength) {
+			int chunk = Math.min(chunkLength, length - start);
+			System.arraycopy(source, sourceOffset + start, target, targetOffset + start, chunk);
+			for (PointwiseOperation operation : operations) {
+				operation.apply(target, targetOffset + start, chunk);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(operations);
+	}
+}
@@ -0,0 +1,440 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates a class per distinct chain of {@link AffineOperation}, {@link ClipOperation},
+ * {@link BinarizeOperation}, {@link SigmoidOperation} and {@link QuantizeOperation}. The generated
+ * {@link PointwiseOperation#apply(float[], int, int)} is a single loop with all constants
+ * inlined, so the JIT sees one monomorphic loop body instead of a call per operation.
+ * <p>
+ * Each class is defined by its own class loader, the Java 8 equivalent of a hidden class.
+ * The most recently used kernels are cached by the fingerprint of the chain. Chains containing other operations
+ * fall back to a {@link FusedKernel}. The results are identical to the {@link FusedKernel}
+ * of the same chain.
+ */
+public class KernelCompiler {
+
+	/**
+	 * The number of kernels kept; the least recently used kernel is evicted beyond, so its class loader
+	 * can be collected once no caller holds the kernel any more.
+	 */
+	static final int cacheCapacity = 256;
+
+	private static final Map<String, PointwiseOperation> cache = new LinkedHashMap<String, PointwiseOperation>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PointwiseOperation> eldest) {
+			return size() > cacheCapacity;
+		}
+	};
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private static final String packagePath = KernelCompiler.class.getPackage().getName().replace('.', '/');
+	private static final String operationType = PointwiseOperation.class.getName().replace('.', '/');
+
+	public static PointwiseOperation compile(PointwiseOperation... operations) {
+		List<PointwiseOperation> list = new ArrayList<>();
+		Collections.addAll(list, operations);
+		return compile(list);
+	}
+
+	/**
+	 * @return a generated kernel for the chain, or a {@link FusedKernel} if any operation is not supported
+	 */
+	public static PointwiseOperation compile(List<? extends PointwiseOperation> operations) {
+		List<PointwiseOperation> flat = flatten(operations);
+		String fingerprint = fingerprint(flat);
+		if (fingerprint == null) return new FusedKernel(operations);
+		synchronized (cache) {
+			PointwiseOperation cached = cache.get(fingerprint);
+			if (cached != null) return cached;
+		}
+		// generated outside the lock; a kernel generated twice concurrently is only cached once
+		PointwiseOperation kernel = generate(flat, fingerprint);
+		synchronized (cache) {
+			PointwiseOperation cached = cache.putIfAbsent(fingerprint, kernel);
+			return cached != null ? cached : kernel;
+		}
+	}
+
+	/**
+	 * @return a key identifying the chain by its operations and the exact bits of their constants,
+	 * or null if the chain cannot be compiled
+	 */
+	public static String fingerprint(List<? extends PointwiseOperation> operations) {
+		StringBuilder res = new StringBuilder();
+		for (PointwiseOperation operation : flatten(operations)) {
+			if (operation instanceof AffineOperation) {
+				AffineOperation affine = (AffineOperation) operation;
+				res.append("a").append(bits(affine.getGain())).append(",").append(bits(affine.getOffset()));
+			} else if (operation instanceof ClipOperation) {
+				ClipOperation clip = (ClipOperation) operation;
+				res.append("c").append(bits(clip.getMin())).append(",").append(bits(clip.getMax()));
+			} else if (operation instanceof BinarizeOperation) {
+				res.append("b").append(bits(((BinarizeOperation) operation).getThreshold()));
+			} else if (operation instanceof SigmoidOperation) {
+				res.append("s");
+			} else if (operation instanceof QuantizeOperation) {
+				QuantizeOperation quantize = (QuantizeOperation) operation;
+				res.append("q").append(bits(quantize.getMin())).append(",").append(bits(quantize.getMax()));
+			} else {
+				return null;
+			}
+			res.append(";");
+		}
+		return res.toString();
+	}
+
+	/**
+	 * @return the number of classes generated so far
+	 */
+	static int generatedCount() {
+		return counter.get();
+	}
+
+	static int cacheSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	private static String bits(float value) {
+		return Integer.toHexString(Float.floatToRawIntBits(value));
+	}
+
+	private static List<PointwiseOperation> flatten(List<? extends PointwiseOperation> operations) {
+		List<PointwiseOperation> res = new ArrayList<>();
+		for (PointwiseOperation operation : operations) {
+			if (operation instanceof FusedKernel) res.addAll(flatten(((FusedKernel) operation).getOperations()));
+			else res.add(operation);
+		}
+		return res;
+	}
+
+	private static PointwiseOperation generate(List<PointwiseOperation> operations, String fingerprint) {
+		String name = packagePath + "/GeneratedKernel$" + counter.incrementAndGet();
+		byte[] bytes = new ClassFile(name, operations).toBytes();
+		try {
+			Class<?> type = new KernelLoader(KernelCompiler.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+			return (PointwiseOperation) type.getConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			throw new IllegalStateException("Could not generate kernel for " + operations + " (" + fingerprint + ")", e);
+		}
+	}
+
+	private static class KernelLoader extends ClassLoader {
+
+		KernelLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * Minimal class file writer. Version 49 class files are verified by type inference,
+	 * so no stack map frames need to be emitted for the branches.
+	 */
+	private static class ClassFile {
+
+		private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ILOAD_2 = 0x1c, ILOAD_3 = 0x1d, FLOAD_1 = 0x23;
+		private static final int ILOAD = 0x15, ISTORE = 0x36, IINC = 0x84, IADD = 0x60;
+		private static final int FALOAD = 0x30, FASTORE = 0x51, FCONST_0 = 0x0b, FCONST_1 = 0x0c, DCONST_1 = 0x0f;
+		private static final int FMUL = 0x6a, FADD = 0x62, FCMPL = 0x95, F2D = 0x8d, D2F = 0x90;
+		private static final int DNEG = 0x77, DADD = 0x63, DDIV = 0x6f, DUP2_X2 = 0x5e, POP2 = 0x58;
+		private static final int LDC = 0x12, LDC_W = 0x13, IFLE = 0x9e, IF_ICMPGE = 0xa2, GOTO = 0xa7;
+		private static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+		private static final int RETURN = 0xb1, FRETURN = 0xae, ARETURN = 0xb0;
+
+		private final String name;
+		private final List<PointwiseOperation> operations;
+		private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		private final DataOutputStream poolOut = new DataOutputStream(pool);
+		private final Map<String, Integer> constants = new HashMap<>();
+		private int poolSize = 1;
+
+		ClassFile(String name, List<PointwiseOperation> operations) {
+			this.name = name;
+			this.operations = operations;
+		}
+
+		byte[] toBytes() {
+			try {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(body);
+				out.writeShort(0x0031); // public final super
+				out.writeShort(classRef(name));
+				out.writeShort(classRef("java/lang/Object"));
+				out.writeShort(1);
+				out.writeShort(classRef(operationType));
+				out.writeShort(0);
+				out.writeShort(4);
+				writeMethod(out, "<init>", "()V", 1, 1, constructor());
+				writeMethod(out, "apply", "(F)F", 8, 2, applyValue());
+				writeMethod(out, "apply", "([FII)V", 10, 5, applyArray());
+				writeMethod(out, "toString", "()Ljava/lang/String;", 1, 1, describe());
+				out.writeShort(0);
+
+				ByteArrayOutputStream res = new ByteArrayOutputStream();
+				DataOutputStream resOut = new DataOutputStream(res);
+				resOut.writeInt(0xCAFEBABE);
+				resOut.writeShort(0);
+				resOut.writeShort(49);
+				resOut.writeShort(poolSize);
+				pool.writeTo(resOut);
+				body.writeTo(resOut);
+				return res.toByteArray();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private Code constructor() {
+			Code code = new Code();
+			code.op(ALOAD_0);
+			code.op(INVOKESPECIAL).u2(methodRef("java/lang/Object", "<init>", "()V"));
+			code.op(RETURN);
+			return code;
+		}
+
+		private Code applyValue() {
+			Code code = new Code();
+			code.op(FLOAD_1);
+			emitOperations(code);
+			code.op(FRETURN);
+			return code;
+		}
+
+		/**
+		 * {@code for (int i = offset, end = offset + length; i < end; i++) data[i] = f(data[i]);}
+		 */
+		private Code applyArray() {
+			Code code = new Code();
+			code.op(ILOAD_2).op(ILOAD_3).op(IADD).op(ISTORE).u1(4);
+			int loop = code.size();
+			code.op(ILOAD_2).op(ILOAD).u1(4);
+			int exit = code.branch(IF_ICMPGE);
+			code.op(ALOAD_1).op(ILOAD_2).op(ALOAD_1).op(ILOAD_2).op(FALOAD);
+			emitOperations(code);
+			code.op(FASTORE);
+			code.op(IINC).u1(2).u1(1);
+			code.patch(code.branch(GOTO), loop);
+			code.patch(exit, code.size());
+			code.op(RETURN);
+			return code;
+		}
+
+		private Code describe() {
+			Code code = new Code();
+			code.ldc(stringRef("generated" + operations));
+			code.op(ARETURN);
+			return code;
+		}
+
+		/**
+		 * Emits the chain, consuming and producing the float on top of the stack.
+		 */
+		private void emitOperations(Code code) {
+			for (PointwiseOperation operation : operations) {
+				if (operation instanceof AffineOperation) {
+					AffineOperation affine = (AffineOperation) operation;
+					code.ldc(floatRef(affine.getGain())).op(FMUL);
+					code.ldc(floatRef(affine.getOffset())).op(FADD);
+				} else if (operation instanceof ClipOperation) {
+					ClipOperation clip = (ClipOperation) operation;
+					// Math.min(max, Math.max(min, value)) as in ClipOperation
+					code.ldc(floatRef(clip.getMin())).op(INVOKESTATIC).u2(methodRef("java/lang/Math", "max", "(FF)F"));
+					code.ldc(floatRef(clip.getMax())).op(INVOKESTATIC).u2(methodRef("java/lang/Math", "min", "(FF)F"));
+				} else if (operation instanceof BinarizeOperation) {
+					code.ldc(floatRef(((BinarizeOperation) operation).getThreshold())).op(FCMPL);
+					int zero = code.branch(IFLE);
+					code.op(FCONST_1);
+					int end = code.branch(GOTO);
+					code.patch(zero, code.size());
+					code.op(FCONST_0);
+					code.patch(end, code.size());
+				} else if (operation instanceof SigmoidOperation) {
+					// (float) (1. / (1. + Math.exp(-value)))
+					code.op(F2D).op(DNEG).op(INVOKESTATIC).u2(methodRef("java/lang/Math", "exp", "(D)D"));
+					code.op(DCONST_1).op(DADD).op(DCONST_1).op(DUP2_X2).op(POP2).op(DDIV).op(D2F);
+				} else if (operation instanceof QuantizeOperation) {
+					QuantizeOperation quantize = (QuantizeOperation) operation;
+					code.ldc(floatRef(quantize.getMin())).ldc(floatRef(quantize.getMax()));
+					code.op(INVOKESTATIC).u2(methodRef(QuantizeOperation.class.getName().replace('.', '/'), "quantize", "(FFF)F"));
+				} else {
+					throw new IllegalArgumentException("Cannot generate code for " + operation);
+				}
+			}
+		}
+
+		private void writeMethod(DataOutputStream out, String methodName, String descriptor, int maxStack, int maxLocals, Code code) throws IOException {
+			byte[] bytes = code.toBytes();
+			out.writeShort(0x0001); // public
+			out.writeShort(utf8(methodName));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(1);
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + bytes.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeShort(0);
+			out.writeShort(0);
+		}
+
+		private int utf8(String value) {
+			return constant("utf8 " + value, out -> {
+				out.writeByte(1);
+				out.writeUTF(value);
+			});
+		}
+
+		private int classRef(String className) {
+			int nameIndex = utf8(className);
+			return constant("class " + className, out -> {
+				out.writeByte(7);
+				out.writeShort(nameIndex);
+			});
+		}
+
+		private int stringRef(String value) {
+			int valueIndex = utf8(value);
+			return constant("string " + value, out -> {
+				out.writeByte(8);
+				out.writeShort(valueIndex);
+			});
+		}
+
+		private int floatRef(float value) {
+			int bits = Float.floatToRawIntBits(value);
+			return constant("float " + bits, out -> {
+				out.writeByte(4);
+				out.writeInt(bits);
+			});
+		}
+
+		private int methodRef(String owner, String methodName, String descriptor) {
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(methodName);
+			int descriptorIndex = utf8(descriptor);
+			int nameAndType = constant("nat " + methodName + descriptor, out -> {
+				out.writeByte(12);
+				out.writeShort(nameIndex);
+				out.writeShort(descriptorIndex);
+			});
+			return constant("method " + owner + "." + methodName + descriptor, out -> {
+				out.writeByte(10);
+				out.writeShort(ownerIndex);
+				out.writeShort(nameAndType);
+			});
+		}
+
+		private interface Entry {
+			void write(DataOutputStream out) throws IOException;
+		}
+
+		private int constant(String key, Entry entry) {
+			Integer index = constants.get(key);
+			if (index != null) return index;
+			try {
+				entry.write(poolOut);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			constants.put(key, poolSize);
+			return poolSize++;
+		}
+	}
+
+	private static class Code {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final List<int[]> patches = new ArrayList<>();
+
+		Code op(int opcode) {
+			bytes.write(opcode);
+			return this;
+		}
+
+		Code u1(int value) {
+			bytes.write(value);
+			return this;
+		}
+
+		Code u2(int value) {
+			bytes.write(value >> 8);
+			bytes.write(value);
+			return this;
+		}
+
+		Code ldc(int index) {
+			return index < 256 ? op(ClassFile.LDC).u1(index) : op(ClassFile.LDC_W).u2(index);
+		}
+
+		int size() {
+			return bytes.size();
+		}
+
+		/**
+		 * @return the position of the branch instruction, to be passed to {@link #patch(int, int)}
+		 */
+		int branch(int opcode) {
+			int position = size();
+			op(opcode).u2(0);
+			return position;
+		}
+
+		void patch(int branch, int target) {
+			patches.add(new int[]{branch, target - branch});
+		}
+
+		byte[] toBytes() {
+			byte[] res = bytes.toByteArray();
+			for (int[] patch : patches) {
+				res[patch[0] + 1] = (byte) (patch[1] >> 8);
+				res[patch[0] + 2] = (byte) patch[1];
+			}
+			return res;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.statistics.NodeStatistics;
+
+import java.util.List;
+
+/**
+ * A whole pointwise preprocessing chain, evaluated once for every possible value of a small integer
+ * input type. Applying it is a single gather per element, independent of the length of the chain.
+ * The table holds exactly the values the {@link FusedKernel} would compute for the same input.
+ */
+public class LookupTable {
+
+	private final float[] table;
+
+	private LookupTable(float[] table) {
+		this.table = table;
+	}
+
+	public static LookupTable uint8(PointwiseOperation operation) {
+		return create(operation, 1 << 8);
+	}
+
+	public static LookupTable uint16(PointwiseOperation operation) {
+		return create(operation, 1 << 16);
+	}
+
+	private static LookupTable create(PointwiseOperation operation, int size) {
+		float[] table = new float[size];
+		for (int i = 0; i < size; i++) {
+			table[i] = operation.apply((float) i);
+		}
+		return new LookupTable(table);
+	}
+
+	/**
+	 * @return a table for the preprocessing of the node, or null if its data type is not an 8 or 16 bit
+	 * unsigned integer type or if any step of the preprocessing depends on the sample
+	 */
+	public static LookupTable compile(InputNodeSpecification node, NodeStatistics datasetStatistics) {
+		String dataType = node.getDataType();
+		if (!"uint8".equals(dataType) && !"uint16".equals(dataType)) return null;
+		List<PointwiseOperation> operations = new TransformationCompiler(datasetStatistics).compile(node.getPreprocessing());
+		if (operations == null) return null;
+		FusedKernel kernel = new FusedKernel(operations);
+		return "uint8".equals(dataType) ? uint8(kernel) : uint16(kernel);
+	}
+
+	public int size() {
+		return table.length;
+	}
+
+	public float get(int value) {
+		return table[value];
+	}
+
+	/**
+	 * Maps unsigned 8 bit values.
+	 */
+	public void apply(byte[] source, int sourceOffset, float[] target, int targetOffset, int length) {
+		checkSize(1 << 8);
+		float[] table = this.table;
+		for (int i = 0; i < length; i++) {
+			target[targetOffset + i] = table[source[sourceOffset + i] & 0xff];
+		}
+	}
+
+	/**
+	 * Maps unsigned 16 bit values.
+	 */
+	public void apply(short[] source, int sourceOffset, float[] target, int targetOffset, int length) {
+		checkSize(1 << 16);
+		float[] table = this.table;
+		for (int i = 0; i < length; i++) {
+			target[targetOffset + i] = table[source[sourceOffset + i] & 0xffff];
+		}
+	}
+
+	private void checkSize(int size) {
+		if (table.length != size) {
+			throw new IllegalArgumentException("Lookup table of size " + table.length + " cannot map values of range " + size);
+		}
+	}
+}
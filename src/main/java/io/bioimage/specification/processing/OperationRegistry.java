@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.transformation.BinarizeTransformation;
+import io.bioimage.specification.transformation.ClipTransformation;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.PercentileTransformation;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import io.bioimage.specification.transformation.ScaleMinMaxTransformation;
+import io.bioimage.specification.transformation.ScaleRangeTransformation;
+import io.bioimage.specification.transformation.SigmoidTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import static io.bioimage.specification.processing.TransformationCompiler.percentile;
+import static io.bioimage.specification.processing.TransformationCompiler.value;
+
+/**
+ * Maps the types of processing steps to the {@link OperationFactory}s executing them.
+ * The shared instance knows all built-in steps and all factories found via {@link ServiceLoader}.
+ */
+public class OperationRegistry {
+
+	private static OperationRegistry instance;
+
+	private final Map<Class<?>, OperationFactory<?>> factories = new ConcurrentHashMap<>();
+
+	public static synchronized OperationRegistry getInstance() {
+		if (instance == null) {
+			OperationRegistry registry = new OperationRegistry();
+			registry.registerDefaults();
+			for (OperationFactory<?> factory : ServiceLoader.load(OperationFactory.class)) {
+				registry.register(factory);
+			}
+			instance = registry;
+		}
+		return instance;
+	}
+
+	public void registerDefaults() {
+		register(BinarizeTransformation.class, (binarize, statistics) -> new BinarizeOperation(value(binarize.getThreshold(), 0)));
+		register(ClipTransformation.class, (clip, statistics) -> new ClipOperation(
+				value(clip.getMin(), Double.NEGATIVE_INFINITY), value(clip.getMax(), Double.POSITIVE_INFINITY)));
+		register(PercentileTransformation.class, (percentile, statistics) ->
+				percentile(percentile.getMode(), percentile.getMinPercentile(), percentile.getMaxPercentile(), statistics));
+		register(ScaleLinearTransformation.class, (scaleLinear, statistics) -> new AffineOperation(
+				value(scaleLinear.getGain(), 1), value(scaleLinear.getOffset(), 0)));
+		register(ScaleMinMaxTransformation.class, (scaleMinMax, statistics) -> {
+			if (!references(scaleMinMax.getReferenceInput(), statistics)) return null;
+			return percentile(scaleMinMax.getMode(), scaleMinMax.getMinPercentile(), scaleMinMax.getMaxPercentile(), statistics);
+		});
+		register(ScaleRangeTransformation.class, (scaleRange, statistics) -> {
+			if (!references(scaleRange.getReferenceTensor(), statistics)) return null;
+			return percentile(scaleRange.getMode(), scaleRange.getMinPercentile(), scaleRange.getMaxPercentile(), statistics);
+		});
+		register(SigmoidTransformation.class, (sigmoid, statistics) -> new SigmoidOperation());
+		register(ZeroMeanUnitVarianceTransformation.class, (zeroMean, statistics) -> {
+			if (zeroMean.getMode() == ImageTransformation.Mode.FIXED && zeroMean.getMean() != null && zeroMean.getStd() != null) {
+				return StridedNormalization.zeroMeanUnitVariance(zeroMean.getMean().doubleValue(), zeroMean.getStd().doubleValue());
+			}
+			if (zeroMean.getMode() == ImageTransformation.Mode.PER_DATASET && statistics != null) {
+				return StridedNormalization.zeroMeanUnitVariance(statistics.getMean(0), statistics.getStd(0));
+			}
+			return null;
+		});
+	}
+
+	public void register(OperationFactory<?> factory) {
+		factories.put(factory.getType(), factory);
+	}
+
+	public <T extends TransformationSpecification> void register(Class<T> type, BiFunction<T, NodeStatistics, PointwiseOperation> factory) {
+		register(new OperationFactory<T>() {
+			@Override
+			public Class<T> getType() {
+				return type;
+			}
+
+			@Override
+			public PointwiseOperation create(T transformation, NodeStatistics datasetStatistics) {
+				return factory.apply(transformation, datasetStatistics);
+			}
+		});
+	}
+
+	/**
+	 * @return the factory of the type of the step or of its closest registered superclass, or null
+	 */
+	public OperationFactory<?> get(Class<?> type) {
+		for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+			OperationFactory<?> factory = factories.get(current);
+			if (factory != null) return factory;
+		}
+		return null;
+	}
+
+	/**
+	 * @see OperationFactory#create(TransformationSpecification, NodeStatistics)
+	 */
+	public PointwiseOperation create(TransformationSpecification transformation, NodeStatistics datasetStatistics) {
+		OperationFactory<?> factory = get(transformation.getClass());
+		return factory != null ? create(factory, transformation, datasetStatistics) : null;
+	}
+
+	private static <T extends TransformationSpecification> PointwiseOperation create(OperationFactory<T> factory, TransformationSpecification transformation, NodeStatistics datasetStatistics) {
+		return factory.create(factory.getType().cast(transformation), datasetStatistics);
+	}
+
+	/**
+	 * @return false if the step refers to the statistics of another tensor than the dataset statistics describe
+	 */
+	private static boolean references(String reference, NodeStatistics statistics) {
+		return reference == null || statistics == null || reference.equals(statistics.getNodeName());
+	}
+}
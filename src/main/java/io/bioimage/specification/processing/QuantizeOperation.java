@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+/**
+ * Clamps values to {@code [min, max]} and rounds them to the nearest integer, so converting
+ * the result to an integer type saturates instead of overflowing. NaN is mapped to 0.
+ */
+public class QuantizeOperation implements PointwiseOperation {
+
+	private final float min;
+	private final float max;
+
+	public QuantizeOperation(double min, double max) {
+		// round the bounds inwards, e.g. the maximum of uint32 is not representable as float
+		this.min = (float) min < min ? Math.nextUp((float) min) : (float) min;
+		this.max = (float) max > max ? Math.nextDown((float) max) : (float) max;
+	}
+
+	public float getMin() {
+		return min;
+	}
+
+	public float getMax() {
+		return max;
+	}
+
+	@Override
+	public float apply(float value) {
+		return quantize(value, min, max);
+	}
+
+	@Override
+	public void apply(float[] data, int offset, int length) {
+		float min = this.min;
+		float max = this.max;
+		for (int i = offset; i < offset + length; i++) {
+			data[i] = quantize(data[i], min, max);
+		}
+	}
+
+	/**
+	 * Called by the kernels generated by the {@link KernelCompiler}.
+	 */
+	public static float quantize(float value, float min, float max) {
+		return value != value ? 0 : (float) Math.rint(Math.min(max, Math.max(min, value)));
+	}
+
+	@Override
+	public String toString() {
+		return "quantize(" + min + ", " + max + ")";
+	}
+}
@@ -0,0 +1,225 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.NodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.statistics.AxisPlan;
+import io.bioimage.specification.statistics.Histogram;
+import io.bioimage.specification.statistics.Moments;
+import io.bioimage.specification.statistics.StridedReduction;
+import io.bioimage.specification.tensor.TensorBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The statistics of named tensors which transformations of other nodes reference, e.g. an output scaled
+ * with the percentiles of an input through {@code reference_tensor} or {@code reference_input}.
+ * The requirements are derived once from the model; per model invocation each of them is computed exactly
+ * once, in parallel as soon as its tensor is available, and shared by every step referencing it.
+ */
+public class StatisticsGraph {
+
+	/**
+	 * Statistics of one tensor, reduced over all axes but the kept batch and channel axes.
+	 */
+	public static class Requirement {
+
+		private final String node;
+		private final String keptAxes;
+
+		public Requirement(String node, String keptAxes) {
+			this.node = node;
+			this.keptAxes = keptAxes;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public String getKeptAxes() {
+			return keptAxes;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Requirement)) return false;
+			Requirement that = (Requirement) o;
+			return node.equals(that.node) && keptAxes.equals(that.keptAxes);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(node, keptAxes);
+		}
+
+		@Override
+		public String toString() {
+			return node + "[" + keptAxes + "]";
+		}
+	}
+
+	private final Map<String, String> axes = new HashMap<>();
+	private final Set<Requirement> requirements = new LinkedHashSet<>();
+
+	public StatisticsGraph(ModelSpecification model) {
+		List<NodeSpecification> nodes = new ArrayList<>();
+		if (model.getInputs() != null) nodes.addAll(model.getInputs());
+		if (model.getOutputs() != null) nodes.addAll(model.getOutputs());
+		for (NodeSpecification node : nodes) axes.put(node.getName(), node.getAxes());
+		if (model.getInputs() != null) model.getInputs().forEach(node -> addRequirements(node, node.getPreprocessing()));
+		if (model.getOutputs() != null) model.getOutputs().forEach(node -> addRequirements(node, node.getPostprocessing()));
+	}
+
+	private void addRequirements(NodeSpecification node, List<TransformationSpecification> steps) {
+		if (steps == null) return;
+		for (TransformationSpecification step : steps) {
+			String reference = TransformationChain.reference(step);
+			if (reference == null || reference.equals(node.getName()) || !TransformationChain.isPerSample(step)) continue;
+			String referenceAxes = axes.get(reference);
+			if (referenceAxes == null) {
+				throw new IllegalArgumentException("Node " + node.getName() + " references unknown tensor " + reference);
+			}
+			requirements.add(new Requirement(reference, keptAxes(node.getAxes(), referenceAxes)));
+		}
+	}
+
+	/**
+	 * @return the batch and channel axes of the consumer which the reference tensor has as well, in the order of the reference
+	 */
+	static String keptAxes(String consumerAxes, String referenceAxes) {
+		StringBuilder res = new StringBuilder();
+		for (char axis : referenceAxes.toCharArray()) {
+			if ((axis == 'b' || axis == 'c') && consumerAxes.indexOf(axis) >= 0) res.append(axis);
+		}
+		return res.toString();
+	}
+
+	public Set<Requirement> getRequirements() {
+		return Collections.unmodifiableSet(requirements);
+	}
+
+	/**
+	 * Starts an invocation and schedules the statistics of the given tensors, e.g. the raw model inputs.
+	 */
+	public Invocation start(Map<String, TensorBuffer> tensors) {
+		Invocation res = new Invocation();
+		tensors.forEach(res::put);
+		return res;
+	}
+
+	/**
+	 * The statistics of one model invocation.
+	 */
+	public class Invocation {
+
+		private final Map<String, TensorBuffer> tensors = new ConcurrentHashMap<>();
+		private final Map<Requirement, CompletableFuture<Histogram[]>> results = new ConcurrentHashMap<>();
+
+		private Invocation() {
+		}
+
+		/**
+		 * Makes a tensor available, e.g. the raw prediction of an output, and starts computing the statistics referencing it.
+		 */
+		public void put(String node, TensorBuffer tensor) {
+			tensors.put(node, tensor);
+			for (Requirement requirement : requirements) {
+				if (requirement.getNode().equals(node)) schedule(requirement);
+			}
+		}
+
+		private CompletableFuture<Histogram[]> schedule(Requirement requirement) {
+			return results.computeIfAbsent(requirement, key -> {
+				TensorBuffer tensor = tensors.get(key.getNode());
+				if (tensor == null) throw new IllegalStateException("Tensor " + key.getNode() + " is not available");
+				return CompletableFuture.supplyAsync(() -> compute(tensor, key.getKeptAxes()));
+			});
+		}
+
+		/**
+		 * @return the histograms of the requirement with one entry per kept index, waiting for the computation if needed
+		 */
+		public Histogram[] get(Requirement requirement) {
+			return schedule(requirement).join();
+		}
+
+		/**
+		 * @return the histograms of the reference tensor for every per sample kept index of the consumer;
+		 * reference axes of size 1 are broadcast
+		 */
+		public Histogram[] histograms(String reference, String consumerAxes, int[] consumerShape) {
+			String referenceAxes = tensors.containsKey(reference) ? tensors.get(reference).getAxes() : axes.get(reference);
+			if (referenceAxes == null) throw new IllegalStateException("Tensor " + reference + " is not available");
+			Requirement requirement = new Requirement(reference, keptAxes(consumerAxes, referenceAxes));
+			Histogram[] histograms = get(requirement);
+			TensorBuffer tensor = tensors.get(reference);
+			AxisPlan consumerPlan = new AxisPlan(consumerAxes, consumerShape, StridedReduction.perSampleAxes(consumerAxes));
+			String consumerKept = consumerPlan.getKeptAxes();
+			int[] consumerKeptShape = consumerPlan.getKeptShape();
+			Histogram[] res = new Histogram[consumerPlan.getKeptSize()];
+			int[] position = new int[consumerKept.length()];
+			for (int i = 0; i < res.length; i++) {
+				int index = 0;
+				for (char axis : requirement.getKeptAxes().toCharArray()) {
+					int dim = tensor.getShape(axis);
+					int p = position[consumerKept.indexOf(axis)];
+					if (dim != 1 && dim != consumerKeptShape[consumerKept.indexOf(axis)]) {
+						throw new IllegalArgumentException("Axis " + axis + " of " + reference + " has size " + dim + " which does not match " + consumerKeptShape[consumerKept.indexOf(axis)]);
+					}
+					index = index * dim + (dim == 1 ? 0 : p);
+				}
+				res[i] = histograms[index];
+				for (int d = position.length - 1; d >= 0 && ++position[d] == consumerKeptShape[d]; d--) position[d] = 0;
+			}
+			return res;
+		}
+	}
+
+	private static Histogram[] compute(TensorBuffer tensor, String keptAxes) {
+		StringBuilder reduced = new StringBuilder();
+		for (char axis : tensor.getAxes().toCharArray()) {
+			if (keptAxes.indexOf(axis) < 0) reduced.append(axis);
+		}
+		StridedReduction reduction = new StridedReduction(tensor.getAxes(), tensor.getShape(), reduced.toString());
+		Moments[] moments = reduction.moments(tensor);
+		return reduction.histograms(tensor, moments, TransformationChain.histogramBins);
+	}
+}
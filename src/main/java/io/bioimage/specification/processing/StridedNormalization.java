@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.statistics.AxisPlan;
+import io.bioimage.specification.statistics.Moments;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.statistics.StridedReduction;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+
+import java.util.stream.IntStream;
+
+/**
+ * Applies one kernel per kept index of an {@link AxisPlan}, e.g. per batch and channel,
+ * in place and in parallel over a flat buffer or a {@link TensorBuffer} of any size.
+ */
+public class StridedNormalization {
+
+	/**
+	 * Added to the standard deviation to avoid division by zero, as in the python implementation.
+	 */
+	public static final double eps = 1e-6;
+
+	static final int chunkLength = 1 << 16;
+
+	public static void apply(AxisPlan plan, float[] data, PointwiseOperation[] kernels) {
+		apply(plan, kernels, (from, to, visitor) -> plan.visit(data, (int) from, (int) to, true, visitor));
+	}
+
+	/**
+	 * @param data a tensor with the axes and shape of the plan
+	 */
+	public static void apply(AxisPlan plan, TensorBuffer data, PointwiseOperation[] kernels) {
+		apply(plan, kernels, (from, to, visitor) -> plan.visit(data, from, to, true, visitor));
+	}
+
+	/**
+	 * Applies the kernels to the values of {@code source} and stores the results in {@code target},
+	 * converting from and to the data types of the tensors in the same pass.
+	 */
+	public static void apply(AxisPlan plan, TensorBuffer source, TensorBuffer target, PointwiseOperation[] kernels) {
+		apply(plan, kernels, (from, to, visitor) -> plan.visit(source, target, from, to, visitor));
+	}
+
+	private interface Blocks {
+		void visit(long fromBlock, long toBlock, AxisPlan.Visitor visitor);
+	}
+
+	private static void apply(AxisPlan plan, PointwiseOperation[] kernels, Blocks blocks) {
+		if (kernels.length != plan.getKeptSize()) {
+			throw new IllegalArgumentException("Expected " + plan.getKeptSize() + " kernels, got " + kernels.length);
+		}
+		long blocksPerChunk = Math.max(1, chunkLength / Math.max(1, plan.getBlockLength()));
+		long blockCount = plan.getBlockCount();
+		int chunks = (int) ((blockCount + blocksPerChunk - 1) / blocksPerChunk);
+		IntStream.range(0, chunks).parallel().forEach(chunk ->
+				blocks.visit(chunk * blocksPerChunk, Math.min(blockCount, (chunk + 1) * blocksPerChunk),
+						(kept, values, offset, length) -> kernels[kept].apply(values, offset, length)));
+	}
+
+	public static void zeroMeanUnitVariance(float[] data, int[] shape, String axes, ZeroMeanUnitVarianceTransformation transformation) {
+		zeroMeanUnitVariance(data, shape, axes, transformation, null);
+	}
+
+	/**
+	 * @param datasetStatistics the statistics used in {@link ImageTransformation.Mode#PER_DATASET} mode,
+	 *                          reduced over the axes the data should be normalized over
+	 */
+	public static void zeroMeanUnitVariance(float[] data, int[] shape, String axes, ZeroMeanUnitVarianceTransformation transformation, NodeStatistics datasetStatistics) {
+		zeroMeanUnitVariance(axes, shape, transformation, datasetStatistics, new Target() {
+			@Override
+			public void apply(AxisPlan plan, PointwiseOperation[] kernels) {
+				StridedNormalization.apply(plan, data, kernels);
+			}
+
+			@Override
+			public Moments[] moments(StridedReduction reduction) {
+				return reduction.moments(data);
+			}
+		});
+	}
+
+	/**
+	 * Normalizes the tensor in place; it has to be of type {@code float32} or {@code float64} to hold the result.
+	 */
+	public static void zeroMeanUnitVariance(TensorBuffer data, ZeroMeanUnitVarianceTransformation transformation, NodeStatistics datasetStatistics) {
+		zeroMeanUnitVariance(data.getAxes(), data.getShape(), transformation, datasetStatistics, new Target() {
+			@Override
+			public void apply(AxisPlan plan, PointwiseOperation[] kernels) {
+				StridedNormalization.apply(plan, data, kernels);
+			}
+
+			@Override
+			public Moments[] moments(StridedReduction reduction) {
+				return reduction.moments(data);
+			}
+		});
+	}
+
+	private interface Target {
+		void apply(AxisPlan plan, PointwiseOperation[] kernels);
+
+		Moments[] moments(StridedReduction reduction);
+	}
+
+	private static void zeroMeanUnitVariance(String axes, int[] shape, ZeroMeanUnitVarianceTransformation transformation, NodeStatistics datasetStatistics, Target target) {
+		ImageTransformation.Mode mode = transformation.getMode() != null ? transformation.getMode() : ImageTransformation.Mode.PER_SAMPLE;
+		switch (mode) {
+			case FIXED:
+				target.apply(new AxisPlan(axes, shape, axes), new PointwiseOperation[]{
+						zeroMeanUnitVariance(transformation.getMean().doubleValue(), transformation.getStd().doubleValue())});
+				return;
+			case PER_DATASET:
+				if (datasetStatistics == null) throw new IllegalArgumentException("Dataset statistics are required in mode " + mode.getName());
+				AxisPlan datasetPlan = new AxisPlan(axes, shape, datasetStatistics.getAxes());
+				target.apply(datasetPlan, zeroMeanUnitVariance(datasetStatistics.getMoments()));
+				return;
+			case PER_SAMPLE:
+				StridedReduction reduction = new StridedReduction(axes, shape, StridedReduction.perSampleAxes(axes));
+				target.apply(reduction.getPlan(), zeroMeanUnitVariance(target.moments(reduction)));
+		}
+	}
+
+	public static PointwiseOperation[] zeroMeanUnitVariance(Moments[] moments) {
+		PointwiseOperation[] res = new PointwiseOperation[moments.length];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = zeroMeanUnitVariance(moments[i].getMean(), moments[i].getStd());
+		}
+		return res;
+	}
+
+	public static PointwiseOperation zeroMeanUnitVariance(double mean, double std) {
+		double gain = 1. / (std + eps);
+		return new AffineOperation(gain, -mean * gain);
+	}
+}
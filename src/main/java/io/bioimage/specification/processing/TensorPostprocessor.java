@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.statistics.Sampling;
+import io.bioimage.specification.tensor.BitMask;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the postprocessing of an output node on the prediction of the model and writes the result
+ * in the data type declared by the node, e.g. {@code uint8} for masks. The result is clamped to the
+ * {@code data_range} of the node and to the range of the data type; integer types are rounded, so
+ * values saturate instead of overflowing. Clamping and quantization are fused with the last step.
+ */
+public class TensorPostprocessor {
+
+	private final OutputNodeSpecification node;
+	private final DataType outputType;
+	private final PointwiseOperation sink;
+	private final TransformationChain chain;
+	private final TransformationChain maskChain;
+	private final float maskThreshold;
+
+	public TensorPostprocessor(OutputNodeSpecification node) {
+		this(node, null);
+	}
+
+	/**
+	 * @param datasetStatistics global statistics of the node, used by {@link ImageTransformation.Mode#PER_DATASET} steps
+	 */
+	public TensorPostprocessor(OutputNodeSpecification node, NodeStatistics datasetStatistics) {
+		this.node = node;
+		this.outputType = node.getDataType() != null ? DataType.of(node) : DataType.FLOAT32;
+		this.sink = sink(outputType, node.getDataRange());
+		TransformationCompiler compiler = new TransformationCompiler(datasetStatistics);
+		this.chain = new TransformationChain(node.getName(), node.getPostprocessing(), compiler);
+		List<TransformationSpecification> steps = node.getPostprocessing();
+		PointwiseOperation last = steps == null || steps.isEmpty() ? null : compiler.compile(steps.get(steps.size() - 1));
+		if (last instanceof BinarizeOperation) {
+			this.maskChain = new TransformationChain(node.getName(), steps.subList(0, steps.size() - 1), compiler);
+			this.maskThreshold = ((BinarizeOperation) last).getThreshold();
+		} else {
+			this.maskChain = null;
+			this.maskThreshold = Float.NaN;
+		}
+	}
+
+	/**
+	 * @return the operation clamping to the data range and, for integer types, quantizing;
+	 * null if a floating point type without a finite data range is declared
+	 */
+	public static PointwiseOperation sink(DataType type, List<?> dataRange) {
+		double[] range = TransformationOptimizer.dataRange(dataRange);
+		double min = Math.max(range[0], type.getMin());
+		double max = Math.min(range[1], type.getMax());
+		if (!type.isFloatingPoint()) return new QuantizeOperation(Math.ceil(min), Math.floor(max));
+		if (Double.isInfinite(range[0]) && Double.isInfinite(range[1])) return null;
+		return new ClipOperation(min, max);
+	}
+
+	public DataType getOutputType() {
+		return outputType;
+	}
+
+	/**
+	 * @return true if a step needs statistics of the prediction itself, so postprocessing parts of a prediction,
+	 * e.g. tiles, gives other results than postprocessing the whole prediction
+	 */
+	public boolean isPerSample() {
+		return chain.isPerSample();
+	}
+
+	/**
+	 * @return true if the postprocessing ends with {@code binarize}, so {@link #applyMask(TensorBuffer)} can be used
+	 */
+	public boolean isMask() {
+		return maskChain != null;
+	}
+
+	/**
+	 * Runs the postprocessing and packs the binarized result into a {@link BitMask}, using one bit instead of
+	 * one element of the output type per value. The threshold comparison is fused with the preceding steps.
+	 */
+	public BitMask applyMask(TensorBuffer prediction) {
+		return applyMask(prediction, null);
+	}
+
+	/**
+	 * @param references statistics of the invocation, used by steps referencing other tensors
+	 */
+	public BitMask applyMask(TensorBuffer prediction, StatisticsGraph.Invocation references) {
+		if (maskChain == null) {
+			throw new IllegalStateException("Postprocessing of node " + node.getName() + " does not end with binarize");
+		}
+		BitMask mask = new BitMask(prediction.getAxes(), prediction.getShape());
+		maskChain.apply(prediction, mask, maskThreshold, references);
+		return mask;
+	}
+
+	/**
+	 * Estimates per sample statistics from a subsample of each batch and channel instead of all values,
+	 * bounding the time spent on statistics for very large tensors.
+	 *
+	 * @param sampling the sample budget and strategy, or null for exact statistics
+	 */
+	public void setSampling(Sampling sampling) {
+		chain.setSampling(sampling);
+		if (maskChain != null) maskChain.setSampling(sampling);
+	}
+
+	public TensorBuffer apply(TensorBuffer prediction) {
+		TensorBuffer output = TensorBuffer.allocate(outputType, prediction.getAxes(), prediction.getShape());
+		apply(prediction, output);
+		return output;
+	}
+
+	/**
+	 * @param output a tensor of the declared data type with the axes and shape of the prediction
+	 */
+	public void apply(TensorBuffer prediction, TensorBuffer output) {
+		apply(prediction, output, null);
+	}
+
+	/**
+	 * @param references statistics of the invocation, used by steps referencing other tensors, e.g. an input
+	 */
+	public void apply(TensorBuffer prediction, TensorBuffer output, StatisticsGraph.Invocation references) {
+		if (output.getDataType() != outputType) {
+			throw new IllegalArgumentException("Output of type " + output.getDataType() + " does not match " + outputType + " of node " + node.getName());
+		}
+		if (!prediction.getAxes().equals(output.getAxes()) || !Arrays.equals(prediction.getShape(), output.getShape())) {
+			throw new IllegalArgumentException("Output " + output + " does not match prediction " + prediction);
+		}
+		chain.apply(prediction, output, sink, references);
+	}
+}
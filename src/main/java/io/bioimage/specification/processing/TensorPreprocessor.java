@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.statistics.Sampling;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+
+import java.util.Arrays;
+
+/**
+ * Runs the preprocessing of an input node on a tensor of the data type declared by the node, e.g. {@code uint16},
+ * and writes the result to a {@code float32} tensor. The conversion to float happens in the same pass as the
+ * first transformations, so no intermediate float copy of the input is allocated and the peak memory is
+ * the input plus the output tensor.
+ */
+public class TensorPreprocessor {
+
+	private final InputNodeSpecification node;
+	private final TransformationChain chain;
+
+	public TensorPreprocessor(InputNodeSpecification node) {
+		this(node, null);
+	}
+
+	/**
+	 * @param datasetStatistics global statistics of the node, used by {@link ImageTransformation.Mode#PER_DATASET} steps
+	 */
+	public TensorPreprocessor(InputNodeSpecification node, NodeStatistics datasetStatistics) {
+		this.node = node;
+		this.chain = new TransformationChain(node.getName(), node.getPreprocessing(), new TransformationCompiler(datasetStatistics));
+	}
+
+	/**
+	 * @return true if a step needs statistics of the input itself, so preprocessing parts of an input,
+	 * e.g. slices, gives other results than preprocessing the whole input
+	 */
+	public boolean isPerSample() {
+		return chain.isPerSample();
+	}
+
+	/**
+	 * Estimates per sample statistics from a subsample of each batch and channel instead of all values,
+	 * bounding the time spent on statistics for very large tensors.
+	 *
+	 * @param sampling the sample budget and strategy, or null for exact statistics
+	 */
+	public void setSampling(Sampling sampling) {
+		chain.setSampling(sampling);
+	}
+
+	public TensorBuffer apply(TensorBuffer input) {
+		TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, input.getAxes(), input.getShape());
+		apply(input, output);
+		return output;
+	}
+
+	/**
+	 * @return a lazy view of the preprocessed input which transforms only the regions which are read,
+	 * e.g. the tiles passed to the model
+	 */
+	public TransformedTensor view(TensorBuffer input) {
+		checkInput(input);
+		return chain.view(input, null);
+	}
+
+	/**
+	 * @param shape the shape of the view, e.g. the next valid shape of the node; the input is padded at the end of every axis
+	 * @return a lazy view of the preprocessed input enlarged to the shape, with the statistics computed on the unpadded input
+	 */
+	public TransformedTensor view(TensorBuffer input, int[] shape, Padding padding) {
+		return view(input).padded(new int[shape.length], shape, padding, 0);
+	}
+
+	/**
+	 * @param output a {@code float32} tensor with the axes and shape of the input; the axes may be ordered
+	 *               differently, e.g. the axes of the node for an image in {@code xyczt} order
+	 */
+	public void apply(TensorBuffer input, TensorBuffer output) {
+		apply(input, output, null);
+	}
+
+	/**
+	 * @param references statistics of the invocation, used by steps referencing other tensors
+	 */
+	public void apply(TensorBuffer input, TensorBuffer output, StatisticsGraph.Invocation references) {
+		checkTensors(input, output);
+		if (input.getAxes().equals(output.getAxes())) chain.apply(input, output, null, references);
+		else chain.view(input, references).copyTo(output);
+	}
+
+	private void checkInput(TensorBuffer input) {
+		if (node.getDataType() != null && DataType.of(node) != input.getDataType()) {
+			throw new IllegalArgumentException("Input of type " + input.getDataType() + " does not match " + node.getDataType() + " of node " + node.getName());
+		}
+	}
+
+	private void checkTensors(TensorBuffer input, TensorBuffer output) {
+		checkInput(input);
+		if (output.getDataType() != DataType.FLOAT32) {
+			throw new IllegalArgumentException("Output of preprocessing has to be float32, got " + output.getDataType());
+		}
+		if (input.getAxes().equals(output.getAxes()) && !Arrays.equals(input.getShape(), output.getShape())) {
+			throw new IllegalArgumentException("Output " + output + " does not match input " + input);
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.statistics.AxisPlan;
+import io.bioimage.specification.statistics.Histogram;
+import io.bioimage.specification.statistics.Moments;
+import io.bioimage.specification.statistics.Sampling;
+import io.bioimage.specification.statistics.StridedReduction;
+import io.bioimage.specification.tensor.BitMask;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.PercentileTransformation;
+import io.bioimage.specification.transformation.ScaleMinMaxTransformation;
+import io.bioimage.specification.transformation.ScaleRangeTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Executes transformation steps from an input tensor of any data type to an output tensor of any data type.
+ * Steps which can be compiled to {@link PointwiseOperation}s are fused into one kernel per batch and channel,
+ * converting from the input type and to the output type in the same pass. Only chains of fixed and per dataset steps
+ * are compiled to generated classes; chains with per sample constants are fused without generating a class per sample.
+ * Per sample statistics are computed on the input if the step comes first; otherwise the pending steps
+ * are written to a float tensor first and the statistics are computed there. This is the output itself
+ * if it is {@code float32}, so no extra memory is needed in that case.
+ */
+class TransformationChain {
+
+	static final int histogramBins = 1 << 16;
+	private static final int packChunk = 1 << 14;
+
+	private final String nodeName;
+	private final List<TransformationSpecification> steps;
+	private final TransformationCompiler compiler;
+	private Sampling sampling;
+
+	TransformationChain(String nodeName, List<TransformationSpecification> steps, TransformationCompiler compiler) {
+		this.nodeName = nodeName;
+		this.steps = steps != null ? steps : new ArrayList<>();
+		this.compiler = compiler;
+	}
+
+	void setSampling(Sampling sampling) {
+		this.sampling = sampling;
+	}
+
+	/**
+	 * @return true if a step needs statistics of the tensor it is applied to
+	 */
+	boolean isPerSample() {
+		for (TransformationSpecification step : steps) {
+			if (compiler.compile(step) == null) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param sink applied after the last step, e.g. to quantize the result, or null
+	 * @param references statistics of other tensors of the invocation, or null
+	 */
+	void apply(TensorBuffer input, TensorBuffer output, PointwiseOperation sink, StatisticsGraph.Invocation references) {
+		if (input.getSize() == 0) return;
+		Pass pass = run(input, output, references);
+		if (sink != null) {
+			for (List<PointwiseOperation> chain : pass.pending) chain.add(sink);
+		}
+		if (pass.source != output || !pass.pending.get(0).isEmpty()) flush(pass.perSample, pass.uniform, pass.source, output, pass.pending);
+	}
+
+	/**
+	 * Applies the steps and sets the elements of the mask which are above the threshold.
+	 * If the steps do not need per sample statistics, they are fused with the packing into one pass over the input.
+	 */
+	void apply(TensorBuffer input, BitMask mask, float threshold, StatisticsGraph.Invocation references) {
+		if (input.getSize() == 0) return;
+		Pass pass = run(input, null, references);
+		TensorBuffer source = pass.source;
+		PointwiseOperation kernel = null;
+		if (pass.uniform) {
+			if (!pass.pending.get(0).isEmpty()) kernel = VectorKernels.compile(pass.pending.get(0));
+		} else {
+			TensorBuffer intermediate = source != input ? source : TensorBuffer.allocate(DataType.FLOAT32, input.getAxes(), input.getShape());
+			flush(pass.perSample, false, source, intermediate, pass.pending);
+			source = intermediate;
+		}
+		pack(source, kernel, mask, threshold);
+	}
+
+	/**
+	 * @return a lazy view applying the steps on access; per sample statistics are computed up front, and if they
+	 * have to be computed after pointwise steps, the steps up to there are applied to a float copy of the input
+	 */
+	TransformedTensor view(TensorBuffer input, StatisticsGraph.Invocation references) {
+		if (input.getSize() == 0) return new TransformedTensor(input, new PointwiseOperation[1], null);
+		Pass pass = run(input, null, references);
+		if (pass.uniform) {
+			List<PointwiseOperation> chain = pass.pending.get(0);
+			return new TransformedTensor(pass.source, new PointwiseOperation[]{chain.isEmpty() ? null : VectorKernels.compile(chain)}, null);
+		}
+		PointwiseOperation[] kernels = new PointwiseOperation[pass.pending.size()];
+		for (int i = 0; i < kernels.length; i++) kernels[i] = VectorKernels.fuse(pass.pending.get(i));
+		return new TransformedTensor(pass.source, kernels, pass.perSample);
+	}
+
+	private Pass run(TensorBuffer input, TensorBuffer output, StatisticsGraph.Invocation references) {
+		String axes = input.getAxes();
+		Pass pass = new Pass(new AxisPlan(axes, input.getShape(), StridedReduction.perSampleAxes(axes)), input);
+		for (TransformationSpecification step : steps) {
+			PointwiseOperation operation = compiler.compile(step);
+			if (operation != null) {
+				for (List<PointwiseOperation> chain : pass.pending) chain.add(operation);
+				continue;
+			}
+			String reference = reference(step);
+			// statistics of another tensor do not depend on the pending steps, so these stay fused
+			boolean external = references != null && reference != null && !reference.equals(nodeName);
+			if (!external && (!pass.uniform || !pass.pending.get(0).isEmpty())) {
+				TensorBuffer intermediate = output != null && output.getDataType() == DataType.FLOAT32 ? output
+						: pass.source != input ? pass.source : TensorBuffer.allocate(DataType.FLOAT32, axes, input.getShape());
+				flush(pass.perSample, pass.uniform, pass.source, intermediate, pass.pending);
+				pass.source = intermediate;
+			}
+			PointwiseOperation[] operations = perSample(step, new StridedReduction(pass.perSample, sampling), pass.source, references);
+			if (operations == null) {
+				throw new IllegalArgumentException("Cannot apply " + step.getName() + " to a single sample of node " + nodeName);
+			}
+			for (int i = 0; i < operations.length; i++) pass.pending.get(i).add(operations[i]);
+			pass.uniform = false;
+		}
+		return pass;
+	}
+
+	/**
+	 * Packs in chunks of whole mask words, so the chunks can be written in parallel.
+	 */
+	private static void pack(TensorBuffer source, PointwiseOperation kernel, BitMask mask, float threshold) {
+		long size = source.getSize();
+		int chunks = (int) ((size + packChunk - 1) / packChunk);
+		IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			long from = (long) chunk * packChunk;
+			int length = (int) Math.min(packChunk, size - from);
+			float[] block = new float[length];
+			source.read(from, block, 0, length);
+			if (kernel != null) kernel.apply(block, 0, length);
+			mask.set(from, block, 0, length, threshold);
+		});
+	}
+
+	/**
+	 * The state of a chain after all steps have been scheduled: the tensor to read from and the kernels still to apply.
+	 */
+	private static class Pass {
+
+		final AxisPlan perSample;
+		final List<List<PointwiseOperation>> pending = new ArrayList<>();
+		TensorBuffer source;
+		boolean uniform = true;
+
+		Pass(AxisPlan perSample, TensorBuffer source) {
+			this.perSample = perSample;
+			this.source = source;
+			for (int i = 0; i < perSample.getKeptSize(); i++) pending.add(new ArrayList<>());
+		}
+	}
+
+	private static void flush(AxisPlan perSample, boolean uniform, TensorBuffer source, TensorBuffer target, List<List<PointwiseOperation>> pending) {
+		if (uniform) {
+			// the same kernel everywhere: traverse the tensor in large contiguous blocks
+			AxisPlan whole = new AxisPlan(perSample.getAxes(), perSample.getShape(), perSample.getAxes());
+			StridedNormalization.apply(whole, source, target, new PointwiseOperation[]{VectorKernels.compile(pending.get(0))});
+		} else {
+			PointwiseOperation[] kernels = new PointwiseOperation[pending.size()];
+			for (int i = 0; i < kernels.length; i++) kernels[i] = VectorKernels.fuse(pending.get(i));
+			StridedNormalization.apply(perSample, source, target, kernels);
+		}
+		for (List<PointwiseOperation> chain : pending) chain.clear();
+	}
+
+	/**
+	 * @return one operation per batch and channel, or null if the step does not depend on per sample statistics
+	 */
+	private PointwiseOperation[] perSample(TransformationSpecification step, StridedReduction reduction, TensorBuffer source, StatisticsGraph.Invocation references) {
+		if (!isPerSample(step)) return null;
+		if (step instanceof ZeroMeanUnitVarianceTransformation) {
+			return StridedNormalization.zeroMeanUnitVariance(moments(step, reduction, source));
+		}
+		Number minPercentile;
+		Number maxPercentile;
+		if (step instanceof PercentileTransformation) {
+			minPercentile = ((PercentileTransformation) step).getMinPercentile();
+			maxPercentile = ((PercentileTransformation) step).getMaxPercentile();
+		} else if (step instanceof ScaleRangeTransformation) {
+			minPercentile = ((ScaleRangeTransformation) step).getMinPercentile();
+			maxPercentile = ((ScaleRangeTransformation) step).getMaxPercentile();
+		} else if (step instanceof ScaleMinMaxTransformation) {
+			minPercentile = ((ScaleMinMaxTransformation) step).getMinPercentile();
+			maxPercentile = ((ScaleMinMaxTransformation) step).getMaxPercentile();
+		} else {
+			return null;
+		}
+		String reference = reference(step);
+		Histogram[] histograms;
+		if (reference == null || reference.equals(nodeName)) {
+			Moments[] moments = moments(step, reduction, source);
+			histograms = reduction.histograms(source, moments, histogramBins);
+		} else if (references != null) {
+			histograms = references.histograms(reference, source.getAxes(), source.getShape());
+		} else {
+			return null;
+		}
+		PointwiseOperation[] res = new PointwiseOperation[histograms.length];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = TransformationCompiler.percentile(
+					histograms[i].getPercentile(TransformationCompiler.value(minPercentile, 0)),
+					histograms[i].getPercentile(TransformationCompiler.value(maxPercentile, 100)));
+		}
+		return res;
+	}
+
+	/**
+	 * Computes the moments and reports their accuracy if they are estimated from a sample.
+	 */
+	private static Moments[] moments(TransformationSpecification step, StridedReduction reduction, TensorBuffer source) {
+		Sampling sampling = reduction.getSampling();
+		if (sampling == null || sampling.getListener() == null) return reduction.moments(source);
+		Moments[] blockMeans = new Moments[reduction.getPlan().getKeptSize()];
+		Moments[] res = reduction.moments(source, blockMeans);
+		Sampling.Estimate[] estimates = new Sampling.Estimate[res.length];
+		for (int i = 0; i < res.length; i++) estimates[i] = Sampling.Estimate.of(res[i], blockMeans[i], reduction.getPopulation());
+		sampling.getListener().accept(step.getName(), estimates);
+		return res;
+	}
+
+	/**
+	 * @return the name of the tensor whose statistics the step uses, or null if it uses the tensor it is applied to
+	 */
+	static String reference(TransformationSpecification step) {
+		if (step instanceof ScaleRangeTransformation) return ((ScaleRangeTransformation) step).getReferenceTensor();
+		if (step instanceof ScaleMinMaxTransformation) return ((ScaleMinMaxTransformation) step).getReferenceInput();
+		return null;
+	}
+
+	static boolean isPerSample(TransformationSpecification step) {
+		if (!(step instanceof ImageTransformation)) return false;
+		ImageTransformation.Mode mode = ((ImageTransformation) step).getMode();
+		return mode == null || mode == ImageTransformation.Mode.PER_SAMPLE;
+	}
+}
@@ -0,0 +1,114 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.transformation.ImageTransformation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns transformation steps into {@link PointwiseOperation}s if all their parameters are known
+ * before looking at the data, i.e. they are fixed or their dataset statistics were precomputed.
+ * The operations are provided by the {@link OperationFactory}s of the steps.
+ */
+public class TransformationCompiler {
+
+	private final OperationRegistry registry;
+	private final NodeStatistics datasetStatistics;
+
+	public TransformationCompiler() {
+		this(null);
+	}
+
+	/**
+	 * @param datasetStatistics global statistics of the node, used by {@link ImageTransformation.Mode#PER_DATASET} steps
+	 */
+	public TransformationCompiler(NodeStatistics datasetStatistics) {
+		this(OperationRegistry.getInstance(), datasetStatistics);
+	}
+
+	public TransformationCompiler(OperationRegistry registry, NodeStatistics datasetStatistics) {
+		this.registry = registry;
+		this.datasetStatistics = datasetStatistics != null && datasetStatistics.size() == 1 ? datasetStatistics : null;
+	}
+
+	/**
+	 * @return the operations of the chain, or null if any of its steps depends on the sample itself
+	 */
+	public List<PointwiseOperation> compile(List<TransformationSpecification> transformations) {
+		List<PointwiseOperation> res = new ArrayList<>();
+		if (transformations == null) return res;
+		for (TransformationSpecification transformation : transformations) {
+			PointwiseOperation operation = compile(transformation);
+			if (operation == null) return null;
+			res.add(operation);
+		}
+		return res;
+	}
+
+	/**
+	 * @return a single kernel executing the chain, see {@link VectorKernels#compile(List)},
+	 * or null if any of its steps depends on the sample itself
+	 */
+	public PointwiseOperation compileKernel(List<TransformationSpecification> transformations) {
+		List<PointwiseOperation> operations = compile(transformations);
+		return operations != null ? VectorKernels.compile(operations) : null;
+	}
+
+	public PointwiseOperation compile(TransformationSpecification transformation) {
+		return registry.create(transformation, datasetStatistics);
+	}
+
+	/**
+	 * @return the percentile normalization of a {@link ImageTransformation.Mode#PER_DATASET} step
+	 * if the percentiles are part of the statistics, otherwise null
+	 */
+	public static PointwiseOperation percentile(ImageTransformation.Mode mode, Number minPercentile, Number maxPercentile, NodeStatistics datasetStatistics) {
+		if (mode != ImageTransformation.Mode.PER_DATASET || datasetStatistics == null) return null;
+		double[] lower = datasetStatistics.getPercentile(value(minPercentile, 0));
+		double[] upper = datasetStatistics.getPercentile(value(maxPercentile, 100));
+		if (lower == null || upper == null) return null;
+		return percentile(lower[0], upper[0]);
+	}
+
+	/**
+	 * @return the operation scaling {@code [lower, upper]} to {@code [0, 1]}, as in the python implementation
+	 */
+	public static PointwiseOperation percentile(double lower, double upper) {
+		double gain = 1. / (upper - lower + StridedNormalization.eps);
+		return new AffineOperation(gain, -lower * gain);
+	}
+
+	static double value(Number number, double defaultValue) {
+		return number != null ? number.doubleValue() : defaultValue;
+	}
+}
@@ -0,0 +1,277 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.transformation.BinarizeTransformation;
+import io.bioimage.specification.transformation.ClipTransformation;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static io.bioimage.specification.processing.TransformationCompiler.value;
+
+/**
+ * Simplifies a chain of transformations before it is executed:
+ * <ul>
+ *     <li>consecutive {@code scale_linear} and fixed {@code zero_mean_unit_variance} steps are folded into one {@code scale_linear}</li>
+ *     <li>{@code scale_linear} steps with gain 1 and offset 0 are dropped</li>
+ *     <li>consecutive {@code clip} steps are merged, {@code clip} steps which cannot change any value of the known input range are dropped</li>
+ *     <li>a {@code clip} followed by a {@code binarize} with a threshold inside the clip range is replaced by the {@code binarize}</li>
+ * </ul>
+ * Folding affine steps computes the combined gain and offset in double precision and applies them in single precision,
+ * so the results may deviate from executing the original chain by a few ulps, about
+ * {@code 1e-6 * (|value * gain| + |offset|)}. All other rewrites are exact.
+ */
+public class TransformationOptimizer {
+
+	public static class Result {
+
+		private final List<TransformationSpecification> transformations;
+		private final List<String> report;
+
+		Result(List<TransformationSpecification> transformations, List<String> report) {
+			this.transformations = Collections.unmodifiableList(transformations);
+			this.report = Collections.unmodifiableList(report);
+		}
+
+		public List<TransformationSpecification> getTransformations() {
+			return transformations;
+		}
+
+		/**
+		 * @return one human readable line per rewrite which was applied
+		 */
+		public List<String> getReport() {
+			return report;
+		}
+
+		public boolean isChanged() {
+			return !report.isEmpty();
+		}
+	}
+
+	/**
+	 * Optimizes the preprocessing of the node, assuming the input values lie within the declared data range.
+	 */
+	public static Result optimize(InputNodeSpecification node) {
+		double[] range = dataRange(node.getDataRange());
+		return optimize(node.getPreprocessing(), range[0], range[1]);
+	}
+
+	public static Result optimize(List<TransformationSpecification> transformations) {
+		return optimize(transformations, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param min the smallest value entering the chain
+	 * @param max the largest value entering the chain
+	 */
+	public static Result optimize(List<TransformationSpecification> transformations, double min, double max) {
+		return new TransformationOptimizer(min, max).run(transformations);
+	}
+
+	private final List<TransformationSpecification> res = new ArrayList<>();
+	private final List<String> report = new ArrayList<>();
+	private final List<TransformationSpecification> pendingAffine = new ArrayList<>();
+	private double pendingGain = 1;
+	private double pendingOffset = 0;
+	private double min;
+	private double max;
+
+	private TransformationOptimizer(double min, double max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	private Result run(List<TransformationSpecification> transformations) {
+		if (transformations == null) return new Result(res, report);
+		for (TransformationSpecification transformation : transformations) {
+			double[] affine = affine(transformation);
+			if (affine != null) {
+				pendingAffine.add(transformation);
+				pendingOffset = affine[0] * pendingOffset + affine[1];
+				pendingGain = affine[0] * pendingGain;
+				continue;
+			}
+			flushAffine();
+			if (transformation instanceof ClipTransformation) {
+				addClip((ClipTransformation) transformation);
+			} else if (transformation instanceof BinarizeTransformation) {
+				addBinarize((BinarizeTransformation) transformation);
+			} else {
+				res.add(transformation);
+				min = Double.NEGATIVE_INFINITY;
+				max = Double.POSITIVE_INFINITY;
+			}
+		}
+		flushAffine();
+		return new Result(res, report);
+	}
+
+	/**
+	 * @return gain and offset of the step if it is a fixed affine transformation, otherwise null
+	 */
+	private static double[] affine(TransformationSpecification transformation) {
+		if (transformation instanceof ScaleLinearTransformation) {
+			ScaleLinearTransformation scaleLinear = (ScaleLinearTransformation) transformation;
+			return new double[]{value(scaleLinear.getGain(), 1), value(scaleLinear.getOffset(), 0)};
+		}
+		if (transformation instanceof ZeroMeanUnitVarianceTransformation) {
+			ZeroMeanUnitVarianceTransformation zeroMean = (ZeroMeanUnitVarianceTransformation) transformation;
+			if (zeroMean.getMode() != ImageTransformation.Mode.FIXED) return null;
+			if (zeroMean.getMean() == null || zeroMean.getStd() == null) {
+				throw new IllegalArgumentException("Fixed " + zeroMean.getName() + " needs a mean and a std, got mean " + zeroMean.getMean() + " and std " + zeroMean.getStd());
+			}
+			double gain = 1. / (zeroMean.getStd().doubleValue() + StridedNormalization.eps);
+			return new double[]{gain, -zeroMean.getMean().doubleValue() * gain};
+		}
+		return null;
+	}
+
+	private void flushAffine() {
+		if (pendingAffine.isEmpty()) return;
+		double gain = pendingGain;
+		double offset = pendingOffset;
+		if (gain == 1 && offset == 0) {
+			report.add("Removed no-op " + names(pendingAffine));
+		} else if (pendingAffine.size() == 1 && pendingAffine.get(0) instanceof ScaleLinearTransformation) {
+			res.add(pendingAffine.get(0));
+		} else {
+			ScaleLinearTransformation folded = new ScaleLinearTransformation();
+			folded.setGain(gain);
+			folded.setOffset(offset);
+			res.add(folded);
+			report.add("Folded " + names(pendingAffine) + " into scale_linear(gain=" + gain + ", offset=" + offset + ")");
+		}
+		double a = gain * min + offset;
+		double b = gain * max + offset;
+		if (gain != 0) {
+			min = Math.min(a, b);
+			max = Math.max(a, b);
+		} else {
+			min = max = offset;
+		}
+		if (Double.isNaN(min) || Double.isNaN(max)) {
+			min = Double.NEGATIVE_INFINITY;
+			max = Double.POSITIVE_INFINITY;
+		}
+		pendingAffine.clear();
+		pendingGain = 1;
+		pendingOffset = 0;
+	}
+
+	private void addClip(ClipTransformation clip) {
+		double clipMin = value(clip.getMin(), Double.NEGATIVE_INFINITY);
+		double clipMax = value(clip.getMax(), Double.POSITIVE_INFINITY);
+		if (clipMin <= min && clipMax >= max) {
+			report.add("Removed clip(" + clipMin + ", " + clipMax + ") not narrowing the value range [" + min + ", " + max + "]");
+			return;
+		}
+		TransformationSpecification last = last();
+		if (last instanceof ClipTransformation) {
+			ClipTransformation previous = (ClipTransformation) last;
+			double previousMin = value(previous.getMin(), Double.NEGATIVE_INFINITY);
+			double previousMax = value(previous.getMax(), Double.POSITIVE_INFINITY);
+			ClipTransformation merged = new ClipTransformation();
+			merged.setMode(previous.getMode());
+			// clipping an already clipped value: the second range wins where the ranges do not overlap
+			merged.setMin(Math.min(Math.max(previousMin, clipMin), clipMax));
+			merged.setMax(Math.max(Math.min(previousMax, clipMax), clipMin));
+			res.set(res.size() - 1, merged);
+			report.add("Merged consecutive clips into clip(" + merged.getMin() + ", " + merged.getMax() + ")");
+			clipMin = merged.getMin().doubleValue();
+			clipMax = merged.getMax().doubleValue();
+		} else {
+			res.add(clip);
+		}
+		min = Math.min(Math.max(min, clipMin), clipMax);
+		max = Math.max(Math.min(max, clipMax), clipMin);
+	}
+
+	private void addBinarize(BinarizeTransformation binarize) {
+		double threshold = value(binarize.getThreshold(), 0);
+		TransformationSpecification last = last();
+		if (last instanceof ClipTransformation) {
+			ClipTransformation clip = (ClipTransformation) last;
+			double clipMin = value(clip.getMin(), Double.NEGATIVE_INFINITY);
+			double clipMax = value(clip.getMax(), Double.POSITIVE_INFINITY);
+			if (clipMin <= threshold && threshold < clipMax) {
+				res.remove(res.size() - 1);
+				report.add("Fused clip(" + clipMin + ", " + clipMax + ") into binarize(" + threshold + ")");
+			}
+		}
+		res.add(binarize);
+		min = 0;
+		max = 1;
+	}
+
+	private TransformationSpecification last() {
+		return res.isEmpty() ? null : res.get(res.size() - 1);
+	}
+
+	private static String names(List<TransformationSpecification> transformations) {
+		List<String> names = new ArrayList<>();
+		for (TransformationSpecification transformation : transformations) {
+			names.add(transformation.getName());
+		}
+		return String.join(", ", names);
+	}
+
+	/**
+	 * Parses the {@code data_range} of a node, e.g. {@code [0, 255]} or {@code [-inf, inf]}.
+	 */
+	public static double[] dataRange(List<?> dataRange) {
+		double[] res = {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+		if (dataRange == null || dataRange.size() != 2) return res;
+		for (int i = 0; i < 2; i++) {
+			double value = toDouble(dataRange.get(i));
+			if (!Double.isNaN(value)) res[i] = value;
+		}
+		return res;
+	}
+
+	private static double toDouble(Object obj) {
+		if (obj instanceof Number) return ((Number) obj).doubleValue();
+		if (obj == null) return Double.NaN;
+		String value = obj.toString().trim().toLowerCase().replace(".inf", "inf");
+		if (value.equals("inf") || value.equals("+inf")) return Double.POSITIVE_INFINITY;
+		if (value.equals("-inf")) return Double.NEGATIVE_INFINITY;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
@@ -0,0 +1,371 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.statistics.AxisPlan;
+import io.bioimage.specification.tensor.AxisPermutation;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.PaddedTensor;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Lazy view of a tensor with a transformation chain applied. Nothing is transformed up front: values are
+ * converted to float and transformed when they are read, block by block through a small per-thread scratch
+ * array. Slicing a view is free, so tiled inference only transforms the regions it actually reads.
+ * The kernels may differ per batch and channel; they are looked up by the position in the original tensor.
+ */
+public class TransformedTensor {
+
+	private static final int scratchLength = 1 << 12;
+
+	private final TensorBuffer source;
+	private final PaddedTensor padded;
+	private final PointwiseOperation[] kernels;
+	private final int[] keptStrides;
+	private final int[] origin;
+	private final ThreadLocal<float[]> scratch = ThreadLocal.withInitial(() -> new float[scratchLength]);
+	private final ThreadLocal<float[]> gathered = ThreadLocal.withInitial(() -> new float[scratchLength]);
+
+	/**
+	 * @param kernels one kernel per kept index of the plan, or a single kernel for the whole tensor if the plan is null;
+	 *                null kernels leave the values unchanged
+	 */
+	TransformedTensor(TensorBuffer source, PointwiseOperation[] kernels, AxisPlan plan) {
+		this.source = source;
+		this.padded = null;
+		this.kernels = kernels;
+		String axes = source.getAxes();
+		int[] shape = source.getShape();
+		this.keptStrides = new int[shape.length];
+		this.origin = new int[shape.length];
+		if (plan == null) return;
+		int stride = 1;
+		for (int d = shape.length - 1; d >= 0; d--) {
+			if (plan.getKeptAxes().indexOf(axes.charAt(d)) >= 0) {
+				keptStrides[d] = stride;
+				stride *= shape[d];
+			}
+		}
+	}
+
+	private TransformedTensor(TransformedTensor parent, TensorBuffer source, PaddedTensor padded, int[] origin) {
+		this.source = source;
+		this.padded = padded;
+		this.kernels = parent.kernels;
+		this.keptStrides = parent.keptStrides;
+		this.origin = origin;
+	}
+
+	/**
+	 * @return the untransformed values; for a padded view, the values the padding is resolved against
+	 */
+	public TensorBuffer getSource() {
+		return source;
+	}
+
+	/**
+	 * @return true if the view reaches beyond its source and values there are defined by a {@link Padding}
+	 */
+	public boolean isPadded() {
+		return padded != null;
+	}
+
+	public String getAxes() {
+		return source.getAxes();
+	}
+
+	public int[] getShape() {
+		return padded != null ? padded.getShape() : source.getShape();
+	}
+
+	public int getShape(char axis) {
+		return getShape()[source.getAxes().indexOf(axis)];
+	}
+
+	public long getSize() {
+		return padded != null ? padded.getSize() : source.getSize();
+	}
+
+	public TransformedTensor slice(char axis, int from, int to) {
+		int[] origin = this.origin.clone();
+		origin[source.getAxes().indexOf(axis)] += from;
+		if (padded != null) return new TransformedTensor(this, source, padded.slice(axis, from, to), origin);
+		return new TransformedTensor(this, source.slice(axis, from, to), null, origin);
+	}
+
+	/**
+	 * @return the view of the box starting at {@code offset} with the given shape, which may reach beyond this view;
+	 * values outside are resolved by the padding when they are read, so no padded copy is allocated.
+	 * The box has to stay inside this view along the axes the per sample statistics are kept for, e.g. batch and channel.
+	 *
+	 * @param value the value of {@link Padding#CONSTANT} padding
+	 */
+	public TransformedTensor padded(int[] offset, int[] shape, Padding padding, double value) {
+		if (padded != null) throw new IllegalStateException("View " + this + " is already padded");
+		int[] sourceShape = source.getShape();
+		if (offset.length != sourceShape.length || shape.length != sourceShape.length) {
+			throw new IllegalArgumentException("Region " + Arrays.toString(offset) + Arrays.toString(shape) + " does not match axes " + getAxes());
+		}
+		int[] origin = this.origin.clone();
+		for (int d = 0; d < origin.length; d++) {
+			if (keptStrides[d] != 0 && (offset[d] < 0 || offset[d] + shape[d] > sourceShape[d])) {
+				throw new IllegalArgumentException("Cannot pad axis " + getAxes().charAt(d) + " which has per sample statistics");
+			}
+			origin[d] += offset[d];
+		}
+		return new TransformedTensor(this, source, new PaddedTensor(source, padding, value).region(offset, shape), origin);
+	}
+
+	/**
+	 * @return the view of the box starting at {@code offset} with the given shape, e.g. a tile
+	 */
+	public TransformedTensor region(int[] offset, int[] shape) {
+		String axes = source.getAxes();
+		if (offset.length != axes.length() || shape.length != axes.length()) {
+			throw new IllegalArgumentException("Region " + Arrays.toString(offset) + Arrays.toString(shape) + " does not match axes " + axes);
+		}
+		TransformedTensor res = this;
+		for (int d = 0; d < axes.length(); d++) {
+			res = res.slice(axes.charAt(d), offset[d], offset[d] + shape[d]);
+		}
+		return res;
+	}
+
+	/**
+	 * @param values the untransformed values of the region starting at {@code offset}, e.g. a tile read ahead of time;
+	 *               the region may reach beyond the tensor along axes the per sample statistics are computed over
+	 * @return the view transforming the values like the region of this view
+	 */
+	public TransformedTensor region(int[] offset, TensorBuffer values) {
+		if (offset.length != origin.length || !values.getAxes().equals(source.getAxes())) {
+			throw new IllegalArgumentException("Region " + values + " at " + Arrays.toString(offset) + " does not match " + this);
+		}
+		int[] origin = this.origin.clone();
+		for (int d = 0; d < origin.length; d++) origin[d] += offset[d];
+		return new TransformedTensor(this, values, null, origin);
+	}
+
+	public float getFloat(int... position) {
+		PointwiseOperation kernel = kernels[keptIndex(position)];
+		float value = padded != null ? padded.getFloat(position) : source.getFloat(position);
+		return kernel != null ? kernel.apply(value) : value;
+	}
+
+	/**
+	 * Reads {@code length} transformed elements in row-major order starting at the row-major index {@code from}.
+	 */
+	public void read(long from, float[] target, int targetOffset, int length) {
+		if (padded != null) padded.read(from, target, targetOffset, length);
+		else source.read(from, target, targetOffset, length);
+		if (kernels.length == 1) {
+			if (kernels[0] != null) kernels[0].apply(target, targetOffset, length);
+			return;
+		}
+		int[] shape = getShape();
+		int last = shape.length - 1;
+		int[] position = new int[shape.length];
+		long index = from;
+		for (int d = last; d >= 0; d--) {
+			position[d] = (int) (index % shape[d]);
+			index /= shape[d];
+		}
+		if (keptStrides[last] != 0) {
+			readInterleaved(target, targetOffset, length, shape, position);
+			return;
+		}
+		// the kernel only changes with the row
+		for (int done = 0; done < length; ) {
+			int run = Math.min(shape[last] - position[last], length - done);
+			PointwiseOperation kernel = kernels[keptIndex(position)];
+			if (kernel != null) kernel.apply(target, targetOffset + done, run);
+			done += run;
+			position[last] += run;
+			for (int d = last; d > 0 && position[d] == shape[d]; d--) {
+				position[d] = 0;
+				position[d - 1]++;
+			}
+		}
+	}
+
+	/**
+	 * Transforms values read with a batch or channel axis innermost, e.g. {@code byxc}: up to the next change
+	 * of an outer batch or channel, the kernels repeat with the length of the innermost axis, so every kernel
+	 * is applied once to all its values with that stride.
+	 */
+	private void readInterleaved(float[] target, int targetOffset, int length, int[] shape, int[] position) {
+		int last = shape.length - 1;
+		int period = shape[last];
+		int outer = last - 1;
+		long block = period;
+		for (; outer >= 0 && keptStrides[outer] == 0; outer--) block *= shape[outer];
+		long inBlock = 0;
+		for (int d = outer + 1; d <= last; d++) inBlock = inBlock * shape[d] + position[d];
+		for (int done = 0; done < length; ) {
+			int run = (int) Math.min(block - inBlock, length - done);
+			int first = (int) (inBlock % period);
+			position[last] = 0;
+			int base = keptIndex(position);
+			for (int j = 0; j < Math.min(period, run); j++) {
+				PointwiseOperation kernel = kernels[base + (first + j) % period * keptStrides[last]];
+				if (kernel != null) applyStrided(kernel, target, targetOffset + done + j, (run - j + period - 1) / period, period);
+			}
+			done += run;
+			inBlock = 0;
+			for (int d = outer + 1; d <= last; d++) position[d] = 0;
+			for (int d = outer; d >= 0; d--) {
+				if (++position[d] < shape[d]) break;
+				position[d] = 0;
+			}
+		}
+	}
+
+	private void applyStrided(PointwiseOperation kernel, float[] data, int offset, int count, int stride) {
+		float[] buffer = gathered.get();
+		for (int start = 0; start < count; start += buffer.length) {
+			int n = Math.min(buffer.length, count - start);
+			int from = offset + start * stride;
+			for (int i = 0; i < n; i++) buffer[i] = data[from + i * stride];
+			kernel.apply(buffer, 0, n);
+			for (int i = 0; i < n; i++) data[from + i * stride] = buffer[i];
+		}
+	}
+
+	/**
+	 * Writes the transformed values to a tensor of the same shape and any data type. The target may order the axes
+	 * differently, e.g. an image in {@code xyczt} order preprocessed into a {@code byxc} node; the values are then
+	 * permuted in blocks by an {@link AxisPermutation}, which converts and transforms them in the same pass.
+	 */
+	public void copyTo(TensorBuffer target) {
+		if (!source.getAxes().equals(target.getAxes())) {
+			copyPermuted(target);
+			return;
+		}
+		if (!Arrays.equals(getShape(), target.getShape())) {
+			throw new IllegalArgumentException("Target " + target + " does not match " + this);
+		}
+		long size = getSize();
+		int chunks = (int) ((size + scratchLength - 1) / scratchLength);
+		IntStream.range(0, chunks).parallel().forEach(chunk -> {
+			float[] buffer = scratch.get();
+			long from = (long) chunk * scratchLength;
+			int length = (int) Math.min(scratchLength, size - from);
+			read(from, buffer, 0, length);
+			target.write(from, buffer, 0, length);
+		});
+	}
+
+	private void copyPermuted(TensorBuffer target) {
+		String axes = source.getAxes();
+		String targetAxes = target.getAxes();
+		int[] axis = new int[targetAxes.length()];
+		for (int d = 0; d < axis.length; d++) axis[d] = axes.indexOf(targetAxes.charAt(d));
+		int along = axis[axis.length - 1];
+		AxisPermutation.RowTransform transform = new AxisPermutation.RowTransform() {
+
+			@Override
+			public void apply(float[] values, int offset, int length, int[] targetPosition) {
+				int[] position = sourcePosition(targetPosition, axis);
+				if (kernels.length == 1 || along < 0 || keptStrides[along] == 0) {
+					apply(kernels[kernels.length == 1 ? 0 : keptIndex(position)], values, offset, length);
+					return;
+				}
+				for (int i = 0; i < length; i++, position[along]++) apply(kernels[keptIndex(position)], values, offset + i, 1);
+			}
+
+			/**
+			 * Applies every kernel once per block: to the whole block, to each row, or with the row length as
+			 * stride to each column if the kernels change along the innermost axis, e.g. with channels last.
+			 */
+			@Override
+			public void apply(float[] values, int rows, int length, int[] targetPosition, int rowAxis) {
+				int[] position = sourcePosition(targetPosition, axis);
+				int across = rowAxis < 0 ? -1 : axis[rowAxis];
+				boolean rowsKept = kernels.length > 1 && across >= 0 && keptStrides[across] != 0;
+				boolean columnsKept = kernels.length > 1 && along >= 0 && keptStrides[along] != 0;
+				if (!rowsKept && !columnsKept) {
+					apply(kernels[kernels.length == 1 ? 0 : keptIndex(position)], values, 0, rows * length);
+				} else if (!columnsKept) {
+					for (int i = 0; i < rows; i++, position[across]++) apply(kernels[keptIndex(position)], values, i * length, length);
+				} else if (!rowsKept) {
+					for (int j = 0; j < length; j++, position[along]++) {
+						PointwiseOperation kernel = kernels[keptIndex(position)];
+						if (kernel != null) applyStrided(kernel, values, j, rows, length);
+					}
+				} else {
+					for (int i = 0; i < rows; i++) apply(values, i * length, length, shifted(targetPosition, rowAxis, i));
+				}
+			}
+
+			private void apply(PointwiseOperation kernel, float[] values, int offset, int length) {
+				if (kernel != null) kernel.apply(values, offset, length);
+			}
+		};
+		// padding is resolved while the permutation reads its blocks
+		if (padded != null) AxisPermutation.of(axes, targetAxes).copy(padded, target, transform);
+		else AxisPermutation.of(axes, targetAxes).copy(source, target, transform);
+	}
+
+	private int[] sourcePosition(int[] targetPosition, int[] axis) {
+		int[] res = new int[source.getAxes().length()];
+		for (int d = 0; d < axis.length; d++) {
+			if (axis[d] >= 0) res[axis[d]] = targetPosition[d];
+		}
+		return res;
+	}
+
+	private static int[] shifted(int[] first, int rowAxis, int row) {
+		int[] res = first.clone();
+		res[rowAxis] += row;
+		return res;
+	}
+
+	/**
+	 * @return a {@code float32} copy of the transformed values
+	 */
+	public TensorBuffer materialize() {
+		TensorBuffer res = TensorBuffer.allocate(DataType.FLOAT32, source.getAxes(), getShape());
+		copyTo(res);
+		return res;
+	}
+
+	private int keptIndex(int[] position) {
+		int res = 0;
+		for (int d = 0; d < position.length; d++) res += (origin[d] + position[d]) * keptStrides[d];
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "TransformedTensor(" + source + ")";
+	}
+}
@@ -0,0 +1,73 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import java.util.List;
+
+/**
+ * Entry point to SIMD implementations of {@link AffineOperation}, {@link ClipOperation} and
+ * {@link BinarizeOperation} chains. This is the scalar implementation used on Java 8.
+ * The multi-release JAR contains a {@code jdk.incubator.vector} based implementation for Java 17+,
+ * which is used if the JVM is started with {@code --add-modules jdk.incubator.vector}.
+ */
+public class VectorKernels {
+
+	/**
+	 * @return true if {@link #compile(List)} returns SIMD kernels on this JVM
+	 */
+	public static boolean isSupported() {
+		return false;
+	}
+
+	/**
+	 * @return a SIMD kernel for the chain if supported, otherwise the scalar kernel of the {@link KernelCompiler}
+	 */
+	public static PointwiseOperation compile(List<? extends PointwiseOperation> operations) {
+		return KernelCompiler.compile(operations);
+	}
+
+	/**
+	 * Unlike {@link #compile(List)}, this never generates a class, so it suits chains whose constants change with
+	 * every sample, e.g. after per sample normalization.
+	 *
+	 * @return a SIMD kernel for the chain if supported, otherwise a {@link FusedKernel}
+	 */
+	public static PointwiseOperation fuse(List<? extends PointwiseOperation> operations) {
+		return new FusedKernel(operations);
+	}
+
+	/**
+	 * Converts unsigned 16 bit values to float.
+	 */
+	public static void uint16ToFloat(short[] source, int sourceOffset, float[] target, int targetOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			target[targetOffset + i] = source[sourceOffset + i] & 0xffff;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.runner;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.tiling.ShapeSolver;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent requests to the same model into batches along the {@code b} axis of its nodes.
+ * A batch is run when it holds {@code maxBatchSize} samples or when its first request has waited
+ * for {@code maxDelay}, and the outputs are split back per request. Only requests with the same shapes
+ * apart from {@code b} are batched together. If the batch size is not a valid {@code b} length of an input,
+ * the batch is padded with zeros to the next valid length.
+ * <p>
+ * Models whose nodes do not all have a {@code b} axis, or only accept a fixed batch size, are run request by request.
+ * Batches are run one at a time on a dispatcher thread.
+ */
+public class BatchingModelRunner implements ModelRunner {
+
+	private final ModelRunner runner;
+	private final List<InputNodeSpecification> inputs;
+	private final List<OutputNodeSpecification> outputs;
+	private final int maxBatchSize;
+	private final long maxDelayNanos;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final Deque<Request> deferred = new ArrayDeque<>();
+	private final Thread dispatcher;
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong samples = new AtomicLong();
+	private volatile boolean closed;
+
+	/**
+	 * @param runner the runner of the model, called from a single thread
+	 */
+	public BatchingModelRunner(ModelSpecification model, ModelRunner runner, int maxBatchSize, long maxDelay, TimeUnit unit) {
+		if (maxBatchSize < 1) throw new IllegalArgumentException("Batch size has to be positive, got " + maxBatchSize);
+		this.runner = runner;
+		this.inputs = model.getInputs() != null ? model.getInputs() : new ArrayList<>();
+		this.outputs = model.getOutputs() != null ? model.getOutputs() : new ArrayList<>();
+		this.maxBatchSize = batchable() ? maxBatchSize : 1;
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		this.dispatcher = new Thread(this::dispatch, "batching runner " + model.getName());
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @return the number of calls to the underlying runner
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/**
+	 * @return the number of samples passed to the underlying runner, without the samples padding batches
+	 */
+	public long getSampleCount() {
+		return samples.get();
+	}
+
+	/**
+	 * @return the mean number of samples per batch, 0 before the first batch
+	 */
+	public double getAverageBatchSize() {
+		long count = batches.get();
+		return count == 0 ? 0 : (double) samples.get() / count;
+	}
+
+	/**
+	 * Runs the request as part of a batch and waits for its outputs.
+	 */
+	@Override
+	public Map<String, TensorBuffer> run(Map<String, TensorBuffer> inputs) throws IOException {
+		try {
+			return submit(inputs).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the model", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException("Could not run the model", e.getCause());
+		}
+	}
+
+	/**
+	 * @return the outputs of the request, completed when its batch has run
+	 */
+	public CompletableFuture<Map<String, TensorBuffer>> submit(Map<String, TensorBuffer> inputs) {
+		Request request = new Request(inputs, key(inputs));
+		if (closed) {
+			request.result.completeExceptionally(new IllegalStateException("Runner is closed"));
+			return request.result;
+		}
+		queue.add(request);
+		// the dispatcher may have drained the queue for the last time in between
+		if (closed && queue.remove(request)) request.result.completeExceptionally(new IllegalStateException("Runner is closed"));
+		return request.result;
+	}
+
+	/**
+	 * Fails waiting requests and closes the underlying runner.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		dispatcher.interrupt();
+		try {
+			dispatcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		runner.close();
+	}
+
+	private boolean batchable() {
+		if (inputs.isEmpty()) return false;
+		for (InputNodeSpecification input : inputs) {
+			int b = input.getAxes() != null ? input.getAxes().indexOf('b') : -1;
+			if (b < 0 || ShapeSolver.of(input).getStep(b) == 0) return false;
+		}
+		for (OutputNodeSpecification output : outputs) {
+			if (output.getAxes() == null || output.getAxes().indexOf('b') < 0) return false;
+		}
+		return true;
+	}
+
+	private void dispatch() {
+		try {
+			while (!closed) {
+				Request first = deferred.isEmpty() ? queue.take() : deferred.poll();
+				List<Request> batch = collect(first);
+				run(batch);
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+		List<Request> pending = new ArrayList<>(deferred);
+		queue.drainTo(pending);
+		for (Request request : pending) request.result.completeExceptionally(new IllegalStateException("Runner is closed"));
+	}
+
+	/**
+	 * @return the first request and compatible waiting requests, as long as they fit into a batch and the first request's deadline
+	 */
+	private List<Request> collect(Request first) throws InterruptedException {
+		List<Request> batch = new ArrayList<>();
+		batch.add(first);
+		int size = first.batchSize;
+		for (Iterator<Request> it = deferred.iterator(); it.hasNext() && size < maxBatchSize; ) {
+			Request request = it.next();
+			if (request.key.equals(first.key) && size + request.batchSize <= maxBatchSize) {
+				it.remove();
+				batch.add(request);
+				size += request.batchSize;
+			}
+		}
+		long deadline = first.arrival + maxDelayNanos;
+		while (size < maxBatchSize) {
+			long wait = deadline - System.nanoTime();
+			Request request;
+			try {
+				request = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+			} catch (InterruptedException e) {
+				// failed together with the other waiting requests
+				deferred.addAll(batch);
+				throw e;
+			}
+			if (request == null) break;
+			if (request.key.equals(first.key) && size + request.batchSize <= maxBatchSize) {
+				batch.add(request);
+				size += request.batchSize;
+			} else {
+				deferred.add(request);
+			}
+		}
+		return batch;
+	}
+
+	private void run(List<Request> batch) {
+		batches.incrementAndGet();
+		for (Request request : batch) samples.addAndGet(request.batchSize);
+		try {
+			if (batch.size() == 1) {
+				batch.get(0).result.complete(runner.run(batch.get(0).inputs));
+				return;
+			}
+			int[] offsets = new int[batch.size() + 1];
+			for (int i = 0; i < batch.size(); i++) offsets[i + 1] = offsets[i] + batch.get(i).batchSize;
+			Map<String, TensorBuffer> batchInputs = new LinkedHashMap<>();
+			for (InputNodeSpecification input : inputs) {
+				TensorBuffer first = batch.get(0).inputs.get(input.getName());
+				int[] shape = first.getShape();
+				int b = input.getAxes().indexOf('b');
+				shape[b] = ShapeSolver.of(input).ceil(b, offsets[batch.size()]);
+				TensorBuffer tensor = TensorBuffer.allocate(first.getDataType(), first.getAxes(), shape);
+				for (int i = 0; i < batch.size(); i++) {
+					batch.get(i).inputs.get(input.getName()).copyTo(tensor.slice('b', offsets[i], offsets[i + 1]));
+				}
+				batchInputs.put(input.getName(), tensor);
+			}
+			Map<String, TensorBuffer> batchOutputs = runner.run(batchInputs);
+			List<Map<String, TensorBuffer>> results = new ArrayList<>();
+			for (int i = 0; i < batch.size(); i++) results.add(new LinkedHashMap<>());
+			for (Map.Entry<String, TensorBuffer> entry : batchOutputs.entrySet()) {
+				TensorBuffer output = entry.getValue();
+				if (output.getAxes().indexOf('b') < 0 || output.getShape('b') < offsets[batch.size()]) {
+					throw new IOException("Output " + entry.getKey() + " " + output + " does not hold a batch of " + offsets[batch.size()]);
+				}
+				for (int i = 0; i < batch.size(); i++) results.get(i).put(entry.getKey(), output.slice('b', offsets[i], offsets[i + 1]));
+			}
+			for (int i = 0; i < batch.size(); i++) batch.get(i).result.complete(results.get(i));
+		} catch (Throwable e) {
+			for (Request request : batch) request.result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * @return the data types, axes and shapes of the inputs apart from the batch size
+	 */
+	private List<Object> key(Map<String, TensorBuffer> tensors) {
+		List<Object> res = new ArrayList<>();
+		for (InputNodeSpecification input : inputs) {
+			TensorBuffer tensor = tensors.get(input.getName());
+			if (tensor == null) throw new IllegalArgumentException("Missing input " + input.getName());
+			int[] shape = tensor.getShape();
+			if (maxBatchSize > 1) shape[tensor.getAxes().indexOf('b')] = 0;
+			res.add(tensor.getDataType());
+			res.add(tensor.getAxes());
+			res.add(Arrays.toString(shape));
+		}
+		return res;
+	}
+
+	private int batchSize(Map<String, TensorBuffer> tensors) {
+		if (maxBatchSize == 1) return 1;
+		TensorBuffer first = tensors.get(inputs.get(0).getName());
+		return first.getShape('b');
+	}
+
+	private class Request {
+
+		private final Map<String, TensorBuffer> inputs;
+		private final List<Object> key;
+		private final int batchSize;
+		private final long arrival = System.nanoTime();
+		private final CompletableFuture<Map<String, TensorBuffer>> result = new CompletableFuture<>();
+
+		Request(Map<String, TensorBuffer> inputs, List<Object> key) {
+			this.inputs = inputs;
+			this.key = key;
+			this.batchSize = batchSize(inputs);
+		}
+	}
+}
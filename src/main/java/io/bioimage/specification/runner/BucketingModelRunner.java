@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.runner;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.tiling.OutputMapping;
+import io.bioimage.specification.tiling.ShapeInference;
+import io.bioimage.specification.tiling.ShapeSolver;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pads the inputs of requests to a small set of bucket shapes, so requests of different image sizes can share
+ * a batch of a {@link BatchingModelRunner}, and crops the outputs back to the shapes of the unpadded inputs.
+ * Along every axis with a {@code shape.step}, the bucket lengths are {@code shape.min + k * shape.step} with
+ * {@code k = ceil(growth^j)}, so at most a fraction of {@code growth - 1} of every axis is padding.
+ * The batch axis {@code b} is left to the batching runner. Inputs are padded at the end of every axis,
+ * so outputs are cropped at the end as well.
+ */
+public class BucketingModelRunner implements ModelRunner {
+
+	private final ModelRunner runner;
+	private final Map<String, InputNodeSpecification> inputs = new LinkedHashMap<>();
+	private final ShapeInference inference;
+	private final Padding padding;
+	private final double growth;
+	private double value;
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder elements = new LongAdder();
+	private final LongAdder paddedElements = new LongAdder();
+	private final Map<String, LongAdder> buckets = new ConcurrentHashMap<>();
+
+	public BucketingModelRunner(ModelSpecification model, ModelRunner runner, Padding padding) {
+		this(model, runner, padding, 2);
+	}
+
+	/**
+	 * @param growth the ratio between the step counts of neighbouring buckets, greater than 1
+	 */
+	public BucketingModelRunner(ModelSpecification model, ModelRunner runner, Padding padding, double growth) {
+		if (!(growth > 1)) throw new IllegalArgumentException("Bucket growth has to be greater than 1, got " + growth);
+		this.runner = runner;
+		if (model.getInputs() != null) model.getInputs().forEach(input -> inputs.put(input.getName(), input));
+		this.inference = new ShapeInference(model);
+		this.padding = padding;
+		this.growth = growth;
+	}
+
+	/**
+	 * @param value the value of {@link Padding#CONSTANT} padding
+	 */
+	public void setPaddingValue(double value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return the bucket shape an input of the given shape is padded to
+	 */
+	public int[] bucket(InputNodeSpecification input, int[] shape) {
+		ShapeSolver solver = ShapeSolver.of(input);
+		int[] res = solver.ceil(shape);
+		if (res == null) {
+			throw new IllegalArgumentException("Shape " + Arrays.toString(shape) + " does not fit the shape of input " + input.getName());
+		}
+		for (int d = 0; d < res.length; d++) {
+			int step = solver.getStep(d);
+			if (step == 0 || input.getAxes().charAt(d) == 'b') continue;
+			long steps = (res[d] - solver.getMin(d)) / step;
+			long bucket = 0;
+			for (int j = 0; bucket < steps; j++) bucket = (long) Math.ceil(Math.pow(growth, j));
+			res[d] = (int) Math.min(Integer.MAX_VALUE, solver.getMin(d) + bucket * step);
+		}
+		return res;
+	}
+
+	@Override
+	public Map<String, TensorBuffer> run(Map<String, TensorBuffer> inputs) throws IOException {
+		Map<String, TensorBuffer> padded = new LinkedHashMap<>();
+		Map<String, int[]> shapes = new LinkedHashMap<>();
+		StringBuilder key = new StringBuilder();
+		for (Map.Entry<String, TensorBuffer> entry : inputs.entrySet()) {
+			TensorBuffer tensor = entry.getValue();
+			InputNodeSpecification node = this.inputs.get(entry.getKey());
+			int[] shape = tensor.getShape();
+			shapes.put(entry.getKey(), shape);
+			long size = tensor.getSize();
+			elements.add(size);
+			if (node == null) {
+				padded.put(entry.getKey(), tensor);
+				continue;
+			}
+			int[] bucket = bucket(node, shape);
+			key.append(entry.getKey()).append(Arrays.toString(bucket));
+			if (Arrays.equals(bucket, shape)) {
+				padded.put(entry.getKey(), tensor);
+				continue;
+			}
+			TensorBuffer target = TensorBuffer.allocate(tensor.getDataType(), tensor.getAxes(), bucket);
+			padding.copy(tensor, new int[shape.length], target, value);
+			paddedElements.add(target.getSize() - size);
+			padded.put(entry.getKey(), target);
+		}
+		requests.increment();
+		buckets.computeIfAbsent(key.toString(), k -> new LongAdder()).increment();
+		Map<String, TensorBuffer> outputs = runner.run(padded);
+		Map<String, TensorBuffer> res = new LinkedHashMap<>();
+		for (Map.Entry<String, TensorBuffer> entry : outputs.entrySet()) {
+			OutputMapping mapping = inference.getMappings().get(entry.getKey());
+			int[] shape = mapping != null ? shapes.get(mapping.getInputName()) : null;
+			res.put(entry.getKey(), shape != null ? crop(entry.getValue(), mapping.outputShape(shape)) : entry.getValue());
+		}
+		return res;
+	}
+
+	private static TensorBuffer crop(TensorBuffer output, int[] shape) {
+		TensorBuffer res = output;
+		String axes = output.getAxes();
+		for (int d = 0; d < shape.length; d++) {
+			if (shape[d] < output.getShape()[d]) res = res.slice(axes.charAt(d), 0, shape[d]);
+		}
+		return res;
+	}
+
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	/**
+	 * @return the number of input elements of all requests before padding
+	 */
+	public long getElementCount() {
+		return elements.sum();
+	}
+
+	/**
+	 * @return the number of input elements added by padding
+	 */
+	public long getPaddedElementCount() {
+		return paddedElements.sum();
+	}
+
+	/**
+	 * @return the padded elements per input element, i.e. the fraction of additional work spent on padding
+	 */
+	public double getPaddingOverhead() {
+		long count = elements.sum();
+		return count == 0 ? 0 : (double) paddedElements.sum() / count;
+	}
+
+	/**
+	 * @return the number of requests per bucket, keyed by input names and bucket shapes
+	 */
+	public Map<String, Long> getBucketCounts() {
+		Map<String, Long> res = new TreeMap<>();
+		buckets.forEach((key, count) -> res.put(key, count.sum()));
+		return Collections.unmodifiableMap(res);
+	}
+
+	@Override
+	public void close() {
+		runner.close();
+	}
+}
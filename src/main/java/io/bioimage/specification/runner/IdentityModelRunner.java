@@ -0,0 +1,84 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.runner;
+
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.tiling.OutputMapping;
+import io.bioimage.specification.tiling.ShapeInference;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A stand-in for a model which returns its inputs: every output is its {@code reference_input},
+ * resampled by nearest neighbour to the output shape declared by {@code shape.scale} and {@code shape.offset}.
+ * Useful to test pipelines without a deep learning framework.
+ */
+public class IdentityModelRunner implements ModelRunner {
+
+	private final ShapeInference inference;
+
+	public IdentityModelRunner(ModelSpecification model) {
+		this.inference = new ShapeInference(model);
+	}
+
+	@Override
+	public Map<String, TensorBuffer> run(Map<String, TensorBuffer> inputs) {
+		Map<String, TensorBuffer> res = new LinkedHashMap<>();
+		for (OutputMapping mapping : inference.getMappings().values()) {
+			TensorBuffer input = inputs.get(mapping.getInputName());
+			if (input == null) {
+				throw new IllegalArgumentException("Missing input " + mapping.getInputName() + " of output " + mapping.getOutputName());
+			}
+			TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, mapping.getOutputAxes(), mapping.outputShape(input.getShape()));
+			resample(mapping, input, output);
+			res.put(mapping.getOutputName(), output);
+		}
+		return res;
+	}
+
+	private static void resample(OutputMapping mapping, TensorBuffer input, TensorBuffer output) {
+		int[] inputShape = input.getShape();
+		int[] shape = output.getShape();
+		int[] position = new int[shape.length];
+		int[] inputPosition = new int[inputShape.length];
+		for (long i = 0; i < output.getSize(); i++) {
+			for (int d = 0; d < shape.length; d++) {
+				int axis = mapping.getInputAxis(d);
+				if (axis < 0) continue;
+				int coordinate = (int) Math.floor(mapping.toInput(d, position[d]));
+				inputPosition[axis] = Math.max(0, Math.min(inputShape[axis] - 1, coordinate));
+			}
+			output.setFloat(input.getFloat(inputPosition), position);
+			for (int d = shape.length - 1; d >= 0 && ++position[d] == shape[d]; d--) position[d] = 0;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.runner;
+
+import io.bioimage.specification.ModelSpecification;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds the {@link ModelRunnerProvider} for a model. The shared instance knows all providers found via {@link ServiceLoader};
+ * providers registered later take precedence.
+ */
+public class ModelRunnerRegistry {
+
+	private static ModelRunnerRegistry instance;
+
+	private final List<ModelRunnerProvider> providers = new CopyOnWriteArrayList<>();
+
+	public static synchronized ModelRunnerRegistry getInstance() {
+		if (instance == null) {
+			ModelRunnerRegistry registry = new ModelRunnerRegistry();
+			for (ModelRunnerProvider provider : ServiceLoader.load(ModelRunnerProvider.class)) {
+				registry.register(provider);
+			}
+			instance = registry;
+		}
+		return instance;
+	}
+
+	public void register(ModelRunnerProvider provider) {
+		providers.add(0, provider);
+	}
+
+	public List<ModelRunnerProvider> getProviders() {
+		return Collections.unmodifiableList(new ArrayList<>(providers));
+	}
+
+	/**
+	 * @return the provider which can run the model, or null if there is none
+	 */
+	public ModelRunnerProvider get(ModelSpecification model) {
+		for (ModelRunnerProvider provider : providers) {
+			if (provider.supports(model)) return provider;
+		}
+		return null;
+	}
+
+	public ModelRunner create(ModelSpecification model) throws IOException {
+		ModelRunnerProvider provider = get(model);
+		if (provider == null) throw new IOException("Could not find a runner for model " + model.getName());
+		return provider.create(model);
+	}
+}
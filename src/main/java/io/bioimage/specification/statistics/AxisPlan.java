@@ -0,0 +1,235 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+import io.bioimage.specification.tensor.TensorBuffer;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Splits the axes of a node into axes which are reduced and axes which are kept,
+ * e.g. {@code yx} and {@code bc} for per sample statistics of a {@code byxc} node.
+ * The flat buffer is traversed in memory order, block by block. A block consists of the
+ * innermost axes; all values of a block belonging to the same kept index are handed to
+ * a {@link Visitor} at once, gathered into a scratch array if they are not contiguous.
+ * Plans are long-indexed, so they can traverse {@link TensorBuffer}s larger than 2 GB block by block.
+ */
+public class AxisPlan {
+
+	static final int maxBlockLength = 1 << 14;
+
+	public interface Visitor {
+		void accept(int keptIndex, float[] values, int offset, int length);
+	}
+
+	private final String axes;
+	private final int[] shape;
+	private final String keptAxes;
+	private final int[] keptShape;
+	private final int keptSize;
+	private final int[] keptStrides;
+	private final int blockDims;
+	private final int blockLength;
+	private final long blockCount;
+	private final int[] groupKept;
+	private final int[][] groupPositions;
+	private final boolean contiguous;
+
+	public AxisPlan(String axes, int[] shape, String reducedAxes) {
+		if (axes.length() != shape.length) {
+			throw new IllegalArgumentException("Axes " + axes + " do not match shape " + Arrays.toString(shape));
+		}
+		for (char axis : reducedAxes.toCharArray()) {
+			if (axes.indexOf(axis) < 0) throw new IllegalArgumentException("Axis " + axis + " is not part of " + axes);
+		}
+		this.axes = axes;
+		this.shape = shape.clone();
+		int n = shape.length;
+		StringBuilder kept = new StringBuilder();
+		keptStrides = new int[n];
+		int stride = 1;
+		for (int d = n - 1; d >= 0; d--) {
+			if (reducedAxes.indexOf(axes.charAt(d)) < 0) {
+				keptStrides[d] = stride;
+				stride *= shape[d];
+				kept.insert(0, axes.charAt(d));
+			}
+		}
+		keptSize = stride;
+		keptAxes = kept.toString();
+		keptShape = new int[keptAxes.length()];
+		for (int i = 0; i < keptShape.length; i++) {
+			keptShape[i] = shape[axes.indexOf(keptAxes.charAt(i))];
+		}
+
+		// block: the innermost axes, as many as fit into maxBlockLength, at least one
+		int dims = n > 0 ? 1 : 0;
+		long length = n > 0 ? shape[n - 1] : 1;
+		while (dims < n && length * shape[n - dims - 1] <= maxBlockLength) {
+			length *= shape[n - dims - 1];
+			dims++;
+		}
+		blockDims = dims;
+		blockLength = (int) length;
+		long total = 1;
+		for (int dim : shape) total *= dim;
+		blockCount = blockLength > 0 ? total / blockLength : 0;
+
+		// group the positions within a block by their kept index
+		int[] pattern = new int[blockLength];
+		int[] position = new int[n];
+		for (int j = 0; j < blockLength; j++) {
+			int keptOffset = 0;
+			for (int d = n - blockDims; d < n; d++) keptOffset += position[d] * keptStrides[d];
+			pattern[j] = keptOffset;
+			increment(position, n - blockDims);
+		}
+		int[] distinct = Arrays.stream(pattern).distinct().sorted().toArray();
+		groupKept = distinct;
+		groupPositions = new int[distinct.length][];
+		for (int g = 0; g < distinct.length; g++) {
+			final int value = distinct[g];
+			groupPositions[g] = IntStream.range(0, blockLength).filter(j -> pattern[j] == value).toArray();
+		}
+		contiguous = distinct.length <= 1;
+	}
+
+	private void increment(int[] position, int firstDim) {
+		for (int d = shape.length - 1; d >= firstDim; d--) {
+			if (++position[d] < shape[d]) return;
+			position[d] = 0;
+		}
+	}
+
+	/**
+	 * Visits all values of the blocks {@code [fromBlock, toBlock)}.
+	 * If {@code write} is set, values modified by the visitor are written back to {@code data}.
+	 */
+	public void visit(float[] data, int fromBlock, int toBlock, boolean write, Visitor visitor) {
+		if (blockCount * blockLength > data.length) {
+			throw new IllegalArgumentException("Data of length " + data.length + " does not match shape " + Arrays.toString(shape));
+		}
+		float[] scratch = contiguous ? null : new float[groupPositions[0].length];
+		for (int block = fromBlock; block < toBlock; block++) {
+			visitBlock(data, block * blockLength, block, write, visitor, scratch);
+		}
+	}
+
+	/**
+	 * Visits all values of the blocks {@code [fromBlock, toBlock)} of a tensor with the axes and shape of the plan.
+	 * Each block is copied into a scratch array; if {@code write} is set, values modified by the visitor are written back.
+	 */
+	public void visit(TensorBuffer data, long fromBlock, long toBlock, boolean write, Visitor visitor) {
+		visit(data, write ? data : null, fromBlock, toBlock, visitor);
+	}
+
+	/**
+	 * Visits all values of the blocks {@code [fromBlock, toBlock)} of {@code source}, converted to float,
+	 * and writes the values modified by the visitor to {@code target}, converted to its data type.
+	 * Both tensors need the axes and shape of the plan; the target may be the source or null.
+	 */
+	public void visit(TensorBuffer source, TensorBuffer target, long fromBlock, long toBlock, Visitor visitor) {
+		checkTensor(source);
+		if (target != null) checkTensor(target);
+		float[] values = new float[blockLength];
+		float[] scratch = contiguous ? null : new float[groupPositions[0].length];
+		for (long block = fromBlock; block < toBlock; block++) {
+			source.read(block * blockLength, values, 0, blockLength);
+			visitBlock(values, 0, block, target != null, visitor, scratch);
+			if (target != null) target.write(block * blockLength, values, 0, blockLength);
+		}
+	}
+
+	private void checkTensor(TensorBuffer data) {
+		if (!data.getAxes().equals(axes) || !Arrays.equals(data.getShape(), shape)) {
+			throw new IllegalArgumentException("Tensor " + data + " does not match " + axes + Arrays.toString(shape));
+		}
+	}
+
+	private void visitBlock(float[] data, int offset, long block, boolean write, Visitor visitor, float[] scratch) {
+		int keptBase = keptBase(block);
+		if (contiguous) {
+			visitor.accept(keptBase + (groupKept.length > 0 ? groupKept[0] : 0), data, offset, blockLength);
+			return;
+		}
+		for (int g = 0; g < groupKept.length; g++) {
+			int[] positions = groupPositions[g];
+			for (int j = 0; j < positions.length; j++) {
+				scratch[j] = data[offset + positions[j]];
+			}
+			visitor.accept(keptBase + groupKept[g], scratch, 0, positions.length);
+			if (write) {
+				for (int j = 0; j < positions.length; j++) {
+					data[offset + positions[j]] = scratch[j];
+				}
+			}
+		}
+	}
+
+	private int keptBase(long block) {
+		int base = 0;
+		for (int d = shape.length - blockDims - 1; d >= 0; d--) {
+			base += (int) (block % shape[d]) * keptStrides[d];
+			block /= shape[d];
+		}
+		return base;
+	}
+
+	/**
+	 * @return the axes which are not reduced, e.g. batch and channel axes
+	 */
+	public String getKeptAxes() {
+		return keptAxes;
+	}
+
+	public int[] getKeptShape() {
+		return keptShape.clone();
+	}
+
+	public int getKeptSize() {
+		return keptSize;
+	}
+
+	public String getAxes() {
+		return axes;
+	}
+
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	public long getBlockCount() {
+		return blockCount;
+	}
+
+	public int getBlockLength() {
+		return blockLength;
+	}
+}
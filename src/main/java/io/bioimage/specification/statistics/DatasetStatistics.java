@@ -0,0 +1,228 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+import io.bioimage.specification.NodeSpecification;
+import io.bioimage.specification.io.StatisticsSidecar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes the statistics required by {@link io.bioimage.specification.transformation.ImageTransformation.Mode#PER_DATASET}
+ * transformations by scanning all samples of a dataset in parallel.
+ * Samples are processed in file name order and partial results are merged in a fixed order,
+ * so the result is the same for any level of parallelism.
+ */
+public class DatasetStatistics {
+
+	private final SampleReader reader;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int histogramBins = 1 << 16;
+
+	public DatasetStatistics(SampleReader reader) {
+		this.reader = reader;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public void setHistogramBins(int histogramBins) {
+		this.histogramBins = histogramBins;
+	}
+
+	/**
+	 * Returns the statistics of the node stored next to the model specification
+	 * and only scans the dataset if they are missing, adding them to the stored statistics.
+	 */
+	public NodeStatistics loadOrCompute(File modelDirectory, NodeSpecification node, Path dataDirectory, double... percentiles) throws IOException {
+		return loadOrCompute(modelDirectory, node, dataDirectory, allAxes(node), percentiles);
+	}
+
+	public NodeStatistics loadOrCompute(File modelDirectory, NodeSpecification node, Path dataDirectory, String reducedAxes, double... percentiles) throws IOException {
+		List<NodeStatistics> stored = StatisticsSidecar.read(modelDirectory);
+		String key = NodeStatistics.key(node.getName(), reducedAxes);
+		for (NodeStatistics statistics : stored) {
+			if (statistics.getKey().equals(key) && hasPercentiles(statistics, percentiles)) {
+				return statistics;
+			}
+		}
+		NodeStatistics statistics = compute(node, listFiles(dataDirectory), reducedAxes, percentiles);
+		stored.removeIf(existing -> existing.getKey().equals(key));
+		stored.add(statistics);
+		StatisticsSidecar.write(stored, modelDirectory);
+		return statistics;
+	}
+
+	public NodeStatistics compute(NodeSpecification node, Path dataDirectory, double... percentiles) throws IOException {
+		return compute(node, listFiles(dataDirectory), allAxes(node), percentiles);
+	}
+
+	/**
+	 * @param reducedAxes the axes to compute the statistics over, all other axes of the node are kept separate
+	 */
+	public NodeStatistics compute(NodeSpecification node, List<Path> files, String reducedAxes, double... percentiles) throws IOException {
+		if (files.isEmpty()) throw new IOException("No samples found to compute statistics of node " + node.getName());
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, files.size()));
+		try {
+			List<Moments[]> partial = map(pool, files, file -> {
+				Sample sample = reader.read(file);
+				return sample.moments(reduction(node, sample, reducedAxes));
+			});
+			Moments[] moments = new Moments[partial.get(0).length];
+			for (int kept = 0; kept < moments.length; kept++) {
+				List<Moments> perKept = new ArrayList<>();
+				for (int i = 0; i < partial.size(); i++) {
+					if (partial.get(i).length != moments.length) {
+						throw new IOException("Sample " + files.get(i) + " does not match the shape of " + files.get(0));
+					}
+					perKept.add(partial.get(i)[kept]);
+				}
+				moments[kept] = Moments.mergeAll(perKept);
+			}
+			NodeStatistics statistics = new NodeStatistics(node.getName(), reducedAxes, moments);
+			if (percentiles.length > 0) {
+				// second pass: the histogram range is only known after the first one
+				Histogram[] histogram = StridedReduction.newHistograms(moments, histogramBins);
+				// merged as the files complete, so only the histograms of files in flight are kept
+				forEach(pool, files, file -> {
+					Sample sample = reader.read(file);
+					return sample.histograms(reduction(node, sample, reducedAxes), moments, histogramBins);
+				}, fileHistogram -> {
+					for (int kept = 0; kept < histogram.length; kept++) histogram[kept].merge(fileHistogram[kept]);
+				});
+				for (double percentile : percentiles) {
+					double[] values = new double[histogram.length];
+					for (int kept = 0; kept < values.length; kept++) values[kept] = histogram[kept].getPercentile(percentile);
+					statistics.setPercentile(percentile, values);
+				}
+			}
+			return statistics;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static StridedReduction reduction(NodeSpecification node, Sample sample, String reducedAxes) {
+		if (sample.getTensor() != null) {
+			return new StridedReduction(sample.getTensor().getAxes(), sample.getShape(), reducedAxes);
+		}
+		String axes = node.getAxes();
+		if (axes == null || axes.length() != sample.getShape().length) {
+			// without matching axes the sample can only be reduced as a whole
+			return new StridedReduction("i", new int[]{sample.getData().length}, "i");
+		}
+		return new StridedReduction(axes, sample.getShape(), reducedAxes);
+	}
+
+	static String allAxes(NodeSpecification node) {
+		return node.getAxes() != null ? node.getAxes() : "";
+	}
+
+	private static boolean hasPercentiles(NodeStatistics statistics, double[] percentiles) {
+		for (double percentile : percentiles) {
+			if (!statistics.hasPercentile(percentile)) return false;
+		}
+		return true;
+	}
+
+	static List<Path> listFiles(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			List<Path> res = files
+					.filter(Files::isRegularFile)
+					.filter(file -> !file.getFileName().toString().startsWith("."))
+					.collect(Collectors.toList());
+			Collections.sort(res);
+			return res;
+		}
+	}
+
+	private interface FileTask<T> {
+		T apply(Path file) throws IOException;
+	}
+
+	private interface ResultConsumer<T> {
+		void accept(T result) throws IOException;
+	}
+
+		private static <T> List<T> map(ExecutorService pool, List<Path> files, FileTask<T> task) throws IOException {
+		List<Future<T>> futures = new ArrayList<>();
+		for (Path file : files) {
+			futures.add(pool.submit(() -> task.apply(file)));
+		}
+		List<T> res = new ArrayList<>();
+		try {
+			for (Future<T> future : futures) {
+				res.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while computing dataset statistics", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Could not compute dataset statistics", e.getCause());
+		}
+		return res;
+	}
+
+	/**
+	 * Hands the results to the consumer in the order the files complete, on the calling thread.
+	 */
+	private static <T> void forEach(ExecutorService pool, List<Path> files, FileTask<T> task, ResultConsumer<T> consumer) throws IOException {
+		CompletionService<T> completion = new ExecutorCompletionService<>(pool);
+		for (Path file : files) {
+			completion.submit(() -> task.apply(file));
+		}
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				consumer.accept(completion.take().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while computing dataset statistics", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Could not compute dataset statistics", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+/**
+ * Mergeable fixed-range histogram used to estimate percentiles over data
+ * which does not fit into memory at once. Counts are integral, so merging
+ * partial histograms is exact and independent of the merge order.
+ * The resolution of the returned percentiles is {@code (max - min) / bins}.
+ */
+public class Histogram {
+
+	private final double min;
+	private final double max;
+	private final long[] counts;
+	private final double scale;
+	private long total;
+
+	public Histogram(double min, double max, int bins) {
+		if (bins < 1) throw new IllegalArgumentException("Histogram needs at least one bin, got " + bins);
+		if (max < min) throw new IllegalArgumentException("Invalid histogram range [" + min + ", " + max + "]");
+		this.min = min;
+		this.max = max;
+		this.counts = new long[bins];
+		this.scale = max > min ? bins / (max - min) : 0;
+	}
+
+	public void add(double value) {
+		counts[bin(value)]++;
+		total++;
+	}
+
+	public void addAll(float[] data, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			counts[bin(data[i])]++;
+		}
+		total += length;
+	}
+
+	private int bin(double value) {
+		int bin = (int) ((value - min) * scale);
+		if (bin < 0) return 0;
+		return bin >= counts.length ? counts.length - 1 : bin;
+	}
+
+	public void merge(Histogram other) {
+		if (other.counts.length != counts.length || other.min != min || other.max != max) {
+			throw new IllegalArgumentException("Cannot merge histograms with different bins");
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		total += other.total;
+	}
+
+	/**
+	 * @param percentile in the range [0, 100]
+	 * @return the value below which the given percentage of the data falls,
+	 * interpolated linearly within the containing bin
+	 */
+	public double getPercentile(double percentile) {
+		if (total == 0) return Double.NaN;
+		if (scale == 0) return min;
+		double rank = percentile / 100. * total;
+		long cumulative = 0;
+		for (int i = 0; i < counts.length; i++) {
+			long next = cumulative + counts[i];
+			if (next >= rank && counts[i] > 0) {
+				double fraction = (rank - cumulative) / counts[i];
+				return Math.min(max, min + (i + fraction) / scale);
+			}
+			cumulative = next;
+		}
+		return max;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public int getBins() {
+		return counts.length;
+	}
+}
@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+import java.util.List;
+
+/**
+ * Mergeable count, mean, variance, min and max accumulator.
+ * Blocks of values are reduced with a two-pass sum over fixed-size chunks
+ * which are then merged pairwise (Chan et al.), so the result only depends
+ * on the order of the data, not on how the work was split across threads.
+ */
+public class Moments {
+
+	static final int blockSize = 4096;
+
+	private long count;
+	private double mean;
+	private double m2;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public Moments() {
+	}
+
+	public Moments(long count, double mean, double m2, double min, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.m2 = m2;
+		this.min = min;
+		this.max = max;
+	}
+
+	public static Moments of(float[] data, int offset, int length) {
+		if (length <= blockSize) {
+			Moments res = new Moments();
+			res.addBlock(data, offset, length);
+			return res;
+		}
+		int half = ((length / blockSize + 1) / 2) * blockSize;
+		Moments res = of(data, offset, half);
+		res.merge(of(data, offset + half, length - half));
+		return res;
+	}
+
+	/**
+	 * Merges the given accumulators pairwise in list order.
+	 */
+	public static Moments mergeAll(List<Moments> moments) {
+		return mergeAll(moments, 0, moments.size());
+	}
+
+	private static Moments mergeAll(List<Moments> moments, int from, int to) {
+		if (to - from == 0) return new Moments();
+		if (to - from == 1) return moments.get(from).copy();
+		int mid = (from + to) >>> 1;
+		Moments res = mergeAll(moments, from, mid);
+		res.merge(mergeAll(moments, mid, to));
+		return res;
+	}
+
+	public void add(double value) {
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		if (value < min) min = value;
+		if (value > max) max = value;
+	}
+
+	public void addAll(float[] data, int offset, int length) {
+		merge(of(data, offset, length));
+	}
+
+	private void addBlock(float[] data, int offset, int length) {
+		if (length == 0) return;
+		double sum = 0;
+		float lo = Float.POSITIVE_INFINITY;
+		float hi = Float.NEGATIVE_INFINITY;
+		for (int i = offset; i < offset + length; i++) {
+			float value = data[i];
+			sum += value;
+			if (value < lo) lo = value;
+			if (value > hi) hi = value;
+		}
+		double blockMean = sum / length;
+		double blockM2 = 0;
+		for (int i = offset; i < offset + length; i++) {
+			double delta = data[i] - blockMean;
+			blockM2 += delta * delta;
+		}
+		merge(length, blockMean, blockM2, lo, hi);
+	}
+
+	public void merge(Moments other) {
+		merge(other.count, other.mean, other.m2, other.min, other.max);
+	}
+
+	private void merge(long otherCount, double otherMean, double otherM2, double otherMin, double otherMax) {
+		if (otherCount == 0) return;
+		if (count == 0) {
+			count = otherCount;
+			mean = otherMean;
+			m2 = otherM2;
+			min = otherMin;
+			max = otherMax;
+			return;
+		}
+		long total = count + otherCount;
+		double delta = otherMean - mean;
+		mean += delta * otherCount / total;
+		m2 += otherM2 + delta * delta * ((double) count * otherCount / total);
+		count = total;
+		min = Math.min(min, otherMin);
+		max = Math.max(max, otherMax);
+	}
+
+	public Moments copy() {
+		return new Moments(count, mean, m2, min, max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getM2() {
+		return m2;
+	}
+
+	/**
+	 * @return the population variance, matching numpy's default used by the python implementation
+	 */
+	public double getVariance() {
+		return count > 0 ? m2 / count : Double.NaN;
+	}
+
+	public double getStd() {
+		return Math.sqrt(getVariance());
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "Moments{count=" + count + ", mean=" + mean + ", std=" + getStd() + ", min=" + min + ", max=" + max + "}";
+	}
+}
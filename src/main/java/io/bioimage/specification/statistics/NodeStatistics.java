@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Statistics of one node, reduced over the given axes.
+ * Each entry of {@link #getMoments()} belongs to one index of the axes which were kept.
+ */
+public class NodeStatistics {
+
+	private final String nodeName;
+	private final String axes;
+	private final Moments[] moments;
+	private final Map<Double, double[]> percentiles = new LinkedHashMap<>();
+
+	public NodeStatistics(String nodeName, String axes, Moments... moments) {
+		this.nodeName = nodeName;
+		this.axes = axes;
+		this.moments = moments;
+	}
+
+	public String getNodeName() {
+		return nodeName;
+	}
+
+	/**
+	 * @return the axes the statistics were reduced over
+	 */
+	public String getAxes() {
+		return axes;
+	}
+
+	public Moments[] getMoments() {
+		return moments;
+	}
+
+	public int size() {
+		return moments.length;
+	}
+
+	public double getMean(int index) {
+		return moments[index].getMean();
+	}
+
+	public double getStd(int index) {
+		return moments[index].getStd();
+	}
+
+	public void setPercentile(double percentile, double[] values) {
+		if (values.length != moments.length) {
+			throw new IllegalArgumentException("Expected " + moments.length + " percentile values, got " + values.length);
+		}
+		percentiles.put(percentile, values);
+	}
+
+	public boolean hasPercentile(double percentile) {
+		return percentiles.containsKey(percentile);
+	}
+
+	public double[] getPercentile(double percentile) {
+		return percentiles.get(percentile);
+	}
+
+	public Map<Double, double[]> getPercentiles() {
+		return Collections.unmodifiableMap(percentiles);
+	}
+
+	public String getKey() {
+		return key(nodeName, axes);
+	}
+
+	static String key(String nodeName, String axes) {
+		return nodeName + "/" + axes;
+	}
+}
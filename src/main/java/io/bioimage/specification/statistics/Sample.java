@@ -0,0 +1,87 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+import io.bioimage.specification.tensor.TensorBuffer;
+
+import java.util.Arrays;
+
+/**
+ * Data of one sample, either flat float data laid out in the axes order of its node
+ * with the last axis varying fastest, or a {@link TensorBuffer} of any size.
+ */
+public class Sample {
+
+	private final float[] data;
+	private final TensorBuffer tensor;
+	private final int[] shape;
+
+	public Sample(float[] data, int... shape) {
+		long size = 1;
+		for (int dim : shape) size *= dim;
+		if (size != data.length) {
+			throw new IllegalArgumentException("Shape " + Arrays.toString(shape) + " does not match data length " + data.length);
+		}
+		this.data = data;
+		this.tensor = null;
+		this.shape = shape;
+	}
+
+	public Sample(TensorBuffer tensor) {
+		this.data = null;
+		this.tensor = tensor;
+		this.shape = tensor.getShape();
+	}
+
+	/**
+	 * @return the flat data, or null if the sample is a tensor
+	 */
+	public float[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return the tensor, or null if the sample is flat data
+	 */
+	public TensorBuffer getTensor() {
+		return tensor;
+	}
+
+	public int[] getShape() {
+		return shape;
+	}
+
+	Moments[] moments(StridedReduction reduction) {
+		return tensor != null ? reduction.moments(tensor) : reduction.moments(data);
+	}
+
+	Histogram[] histograms(StridedReduction reduction, Moments[] ranges, int bins) {
+		return tensor != null ? reduction.histograms(tensor, ranges, bins) : reduction.histograms(data, ranges, bins);
+	}
+}
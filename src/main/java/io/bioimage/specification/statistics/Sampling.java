@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+/**
+ * Opt-in approximation of per sample statistics from a subsample of each batch and channel.
+ * Whole blocks of an {@link AxisPlan} are sampled, so memory is still read in contiguous runs:
+ * either evenly strided, or one random block per stratum of blocks with a fixed seed.
+ * Both strategies are deterministic, so repeated runs on the same tensor give the same result.
+ */
+public class Sampling {
+
+	public enum Strategy {
+		STRIDED, RANDOM
+	}
+
+	/**
+	 * Receives the estimated error of every sampled statistic.
+	 */
+	public interface Listener {
+		void accept(String step, Estimate[] estimates);
+	}
+
+	/**
+	 * Accuracy of statistics computed from {@code count} of {@code population} values. The values are sampled in
+	 * whole blocks, whose values are usually correlated, so the errors follow from the spread of the block means
+	 * over the number of sampled blocks rather than from {@code count} independent values.
+	 */
+	public static class Estimate {
+
+		private final long count;
+		private final long population;
+		private final double std;
+		private final long blocks;
+		private final double blockStd;
+
+		/**
+		 * @param blocks   the number of sampled blocks, all of {@code count / blocks} values
+		 * @param blockStd the sample standard deviation of the means of the sampled blocks
+		 */
+		public Estimate(long count, long population, double std, long blocks, double blockStd) {
+			this.count = count;
+			this.population = population;
+			this.std = std;
+			this.blocks = blocks;
+			this.blockStd = blockStd;
+		}
+
+		/**
+		 * @param blockMeans the moments of the means of the sampled blocks,
+		 *                   see {@link StridedReduction#moments(io.bioimage.specification.tensor.TensorBuffer, Moments[])}
+		 */
+		public static Estimate of(Moments sampled, Moments blockMeans, long population) {
+			long blocks = blockMeans.getCount();
+			double blockStd = blocks > 1 ? Math.sqrt(blockMeans.getM2() / (blocks - 1)) : Double.NaN;
+			return new Estimate(sampled.getCount(), population, sampled.getStd(), blocks, blockStd);
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getPopulation() {
+			return population;
+		}
+
+		public long getBlocks() {
+			return blocks;
+		}
+
+		public boolean isExact() {
+			return count >= population;
+		}
+
+		/**
+		 * @return the standard error of the mean, from the spread of the block means and including the finite
+		 * population correction over the blocks
+		 */
+		public double getMeanError() {
+			if (count == 0) return Double.NaN;
+			if (isExact()) return 0;
+			return blockStd / Math.sqrt(blocks) * correction();
+		}
+
+		/**
+		 * The rank error of a simple random sample of {@code count} values, scaled by the design effect of the
+		 * blocks on the mean; an approximation, as the block means do not capture the correlation in the tails.
+		 *
+		 * @param percentile in {@code [0, 100]}
+		 * @return the standard error of the rank of the percentile, in percentiles
+		 */
+		public double getPercentileError(double percentile) {
+			if (count == 0) return Double.NaN;
+			if (isExact()) return 0;
+			double p = percentile / 100;
+			return 100 * Math.sqrt(p * (1 - p) / count * getDesignEffect()) * correction();
+		}
+
+		/**
+		 * @return the variance of the mean of the sampled blocks relative to that of as many independent values
+		 */
+		public double getDesignEffect() {
+			double independent = std * std / count;
+			return independent > 0 ? blockStd * blockStd / blocks / independent : 1;
+		}
+
+		private double correction() {
+			long totalBlocks = blocks > 0 ? population * blocks / count : 0;
+			return totalBlocks > 1 ? Math.sqrt(Math.max(0, (double) (totalBlocks - blocks) / (totalBlocks - 1))) : 0;
+		}
+
+		@Override
+		public String toString() {
+			return "Estimate(" + count + " of " + population + " in " + blocks + " blocks, mean error " + getMeanError() + ")";
+		}
+	}
+
+	private final Strategy strategy;
+	private final long budget;
+	private final long seed;
+	private Listener listener;
+
+	public Sampling(Strategy strategy, long budget, long seed) {
+		if (budget < 1) throw new IllegalArgumentException("Sample budget has to be positive, got " + budget);
+		this.strategy = strategy;
+		this.budget = budget;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param budget the number of values sampled per batch and channel
+	 */
+	public static Sampling strided(long budget) {
+		return new Sampling(Strategy.STRIDED, budget, 0);
+	}
+
+	public static Sampling random(long budget, long seed) {
+		return new Sampling(Strategy.RANDOM, budget, seed);
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public Listener getListener() {
+		return listener;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the number of blocks to visit to sample the budget from each kept index
+	 */
+	long sampledBlocks(AxisPlan plan) {
+		long blocks = plan.getBlockCount();
+		if (blocks == 0) return 0;
+		long perKept = blocks * plan.getBlockLength() / Math.max(1, plan.getKeptSize());
+		if (perKept <= budget) return blocks;
+		return Math.max(1, Math.min(blocks, (long) Math.ceil((double) blocks * budget / perKept)));
+	}
+
+	/**
+	 * @return the block visited as the {@code index}-th of {@code sampled} blocks
+	 */
+	long block(long index, long sampled, long blocks) {
+		long from = (long) ((double) index * blocks / sampled);
+		if (strategy == Strategy.STRIDED) return from;
+		long to = Math.max(from + 1, (long) ((double) (index + 1) * blocks / sampled));
+		return from + Long.remainderUnsigned(mix(seed + index), to - from);
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+import io.bioimage.specification.tensor.TensorBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Computes statistics per kept index of an {@link AxisPlan} in a single pass over a flat buffer.
+ * The buffer is split into chunks of a fixed number of elements which are reduced in parallel.
+ * Moments are merged in chunk order, so results do not depend on the number of threads;
+ * histograms are accumulated per running task, whose counts merge exactly in any order.
+ */
+public class StridedReduction {
+
+	static final int chunkLength = 1 << 16;
+
+	/**
+	 * The number of chunks whose partial moments are held at the same time.
+	 */
+	static final int waveLength = 256;
+
+	private final AxisPlan plan;
+	private final Sampling sampling;
+
+	public StridedReduction(AxisPlan plan) {
+		this(plan, null);
+	}
+
+	/**
+	 * @param sampling to estimate the statistics from a subsample of the blocks, or null to visit all of them
+	 */
+	public StridedReduction(AxisPlan plan, Sampling sampling) {
+		this.plan = plan;
+		this.sampling = sampling;
+	}
+
+	public StridedReduction(String axes, int[] shape, String reducedAxes) {
+		this(new AxisPlan(axes, shape, reducedAxes));
+	}
+
+	/**
+	 * @return the axes {@link io.bioimage.specification.transformation.ImageTransformation.Mode#PER_SAMPLE}
+	 * statistics are reduced over: all axes but batch and channel
+	 */
+	public static String perSampleAxes(String axes) {
+		return axes.replace("b", "").replace("c", "");
+	}
+
+	public AxisPlan getPlan() {
+		return plan;
+	}
+
+	public Sampling getSampling() {
+		return sampling;
+	}
+
+	/**
+	 * @return the number of values per kept index, of which the statistics may be a sample
+	 */
+	public long getPopulation() {
+		return plan.getBlockCount() * plan.getBlockLength() / Math.max(1, plan.getKeptSize());
+	}
+
+	public Moments[] moments(float[] data) {
+		return moments((from, to, visitor) -> plan.visit(data, (int) from, (int) to, false, visitor), null);
+	}
+
+	/**
+	 * @param data a tensor with the axes and shape of the plan, which may be larger than 2 GB
+	 */
+	public Moments[] moments(TensorBuffer data) {
+		return moments(data, null);
+	}
+
+	/**
+	 * @param blockMeans receives the moments of the means of the visited blocks per kept index, e.g. to estimate
+	 *                   the error of sampled moments with {@link Sampling.Estimate#of(Moments, Moments, long)}, or null
+	 */
+	public Moments[] moments(TensorBuffer data, Moments[] blockMeans) {
+		return moments((from, to, visitor) -> plan.visit(data, from, to, false, visitor), blockMeans);
+	}
+
+	private Moments[] moments(Blocks blocks, Moments[] blockMeans) {
+		Chunks chunks = chunks(blocks);
+		Moments[] res = newMoments();
+		// chunks are reduced in waves of a fixed length and merged in chunk order, so only one wave of partial
+		// results is held at a time and the result does not depend on the number of threads
+		for (int wave = 0; wave < chunks.count; wave += waveLength) {
+			List<Moments[][]> partial = IntStream.range(wave, Math.min(chunks.count, wave + waveLength)).parallel()
+					.mapToObj(chunk -> {
+						Moments[] moments = newMoments();
+						Moments[] means = blockMeans != null ? newMoments() : null;
+						chunks.get(chunk).visit((kept, values, offset, length) -> {
+							if (means == null) {
+								moments[kept].addAll(values, offset, length);
+								return;
+							}
+							Moments block = Moments.of(values, offset, length);
+							moments[kept].merge(block);
+							means[kept].add(block.getMean());
+						});
+						return new Moments[][]{moments, means};
+					})
+					.collect(Collectors.toList());
+			for (int kept = 0; kept < res.length; kept++) {
+				List<Moments> perKept = new ArrayList<>(partial.size());
+				for (Moments[][] moments : partial) perKept.add(moments[0][kept]);
+				res[kept].merge(Moments.mergeAll(perKept));
+				if (blockMeans == null) continue;
+				if (blockMeans[kept] == null) blockMeans[kept] = new Moments();
+				for (Moments[][] moments : partial) blockMeans[kept].merge(moments[1][kept]);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @param ranges the min and max per kept index, e.g. from a previous call to {@link #moments(float[])}
+	 */
+	public Histogram[] histograms(float[] data, Moments[] ranges, int bins) {
+		return histograms((from, to, visitor) -> plan.visit(data, (int) from, (int) to, false, visitor), ranges, bins);
+	}
+
+	public Histogram[] histograms(TensorBuffer data, Moments[] ranges, int bins) {
+		return histograms((from, to, visitor) -> plan.visit(data, from, to, false, visitor), ranges, bins);
+	}
+
+	private Histogram[] histograms(Blocks blocks, Moments[] ranges, int bins) {
+		Chunks chunks = chunks(blocks);
+		// one accumulator per concurrently running chunk instead of one per chunk; merging counts is exact in any order
+		Queue<Histogram[]> accumulators = new ConcurrentLinkedQueue<>();
+		IntStream.range(0, chunks.count).parallel().forEach(chunk -> {
+			Histogram[] histograms = accumulators.poll();
+			if (histograms == null) histograms = newHistograms(ranges, bins);
+			Histogram[] target = histograms;
+			chunks.get(chunk).visit((kept, values, offset, length) -> target[kept].addAll(values, offset, length));
+			accumulators.add(histograms);
+		});
+		Histogram[] res = newHistograms(ranges, bins);
+		for (Histogram[] histograms : accumulators) {
+			for (int kept = 0; kept < res.length; kept++) res[kept].merge(histograms[kept]);
+		}
+		return res;
+	}
+
+	static Histogram[] newHistograms(Moments[] ranges, int bins) {
+		Histogram[] res = new Histogram[ranges.length];
+		for (int i = 0; i < res.length; i++) {
+			boolean empty = ranges[i].getCount() == 0;
+			res[i] = new Histogram(empty ? 0 : ranges[i].getMin(), empty ? 0 : ranges[i].getMax(), bins);
+		}
+		return res;
+	}
+
+	private Moments[] newMoments() {
+		Moments[] res = new Moments[plan.getKeptSize()];
+		for (int i = 0; i < res.length; i++) res[i] = new Moments();
+		return res;
+	}
+
+	private interface Blocks {
+		void visit(long fromBlock, long toBlock, AxisPlan.Visitor visitor);
+	}
+
+	private interface Chunk {
+		void visit(AxisPlan.Visitor visitor);
+	}
+
+	/**
+	 * The chunks of the blocks, or of the sampled blocks if a {@link Sampling} is set; a chunk of sampled blocks
+	 * visits its blocks one by one.
+	 */
+	private static class Chunks {
+
+		private final int count;
+		private final IntFunction<Chunk> chunk;
+
+		Chunks(int count, IntFunction<Chunk> chunk) {
+			this.count = count;
+			this.chunk = chunk;
+		}
+
+		Chunk get(int index) {
+			return chunk.apply(index);
+		}
+	}
+
+	private Chunks chunks(Blocks blocks) {
+		long total = plan.getBlockCount();
+		long sampled = sampling != null ? sampling.sampledBlocks(plan) : total;
+		long blocksPerChunk = Math.max(1, chunkLength / Math.max(1, plan.getBlockLength()));
+		int count = (int) ((sampled + blocksPerChunk - 1) / blocksPerChunk);
+		if (sampled == total) {
+			return new Chunks(count, chunk -> visitor -> blocks.visit(chunk * blocksPerChunk, Math.min(total, (chunk + 1) * blocksPerChunk), visitor));
+		}
+		return new Chunks(count, chunk -> visitor -> {
+			long to = Math.min(sampled, (chunk + 1) * blocksPerChunk);
+			for (long i = chunk * blocksPerChunk; i < to; i++) {
+				long block = sampling.block(i, sampled, total);
+				blocks.visit(block, block + 1, visitor);
+			}
+		});
+	}
+}
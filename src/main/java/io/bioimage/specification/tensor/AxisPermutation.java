@@ -0,0 +1,380 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
+
+/**
+ * Copies tensors between axis orders, e.g. from an image in {@code xyczt} order to a node with axes {@code byxc}.
+ * Axes which only one of the two orders has must have the length 1. If the innermost axes differ,
+ * the copy runs in square blocks: every block is read along the innermost axis of the source and written along
+ * the innermost axis of the target, so both sides are accessed in runs instead of one element per cache line.
+ * Blocks are copied in parallel. Values are converted via float, so the copy can convert the data type and
+ * apply a {@link RowTransform}, e.g. preprocessing, in the same pass. The source may be a {@link PaddedTensor},
+ * whose padding is then resolved block by block.
+ * <p>
+ * Plans are cached per pair of axis orders, see {@link #of(String, String)}.
+ */
+public class AxisPermutation {
+
+	static final int blockSize = 64;
+
+	private static final Map<String, AxisPermutation> plans = new ConcurrentHashMap<>();
+
+	private static final ThreadLocal<float[][]> blocks = ThreadLocal.withInitial(() -> new float[][]{new float[blockSize * blockSize], new float[blockSize * blockSize]});
+
+	/**
+	 * Receives every row of the target before it is written.
+	 */
+	public interface RowTransform {
+
+		/**
+		 * @param position the position of the first value in the target; the values follow along its innermost axis
+		 */
+		void apply(float[] values, int offset, int length, int[] position);
+
+		/**
+		 * Receives consecutive rows at once, e.g. to transform a column of a block with a stride instead of
+		 * value by value when the transform changes along the innermost axis.
+		 *
+		 * @param position the position of the first value in the target
+		 * @param rowAxis  the axis of the target along which the rows follow, or -1 for a single row
+		 */
+		default void apply(float[] values, int rows, int length, int[] position, int rowAxis) {
+			for (int i = 0; i < rows; i++) {
+				if (i > 0) position[rowAxis]++;
+				apply(values, i * length, length, position);
+			}
+		}
+	}
+
+	private final String sourceAxes;
+	private final String targetAxes;
+	private final String sourceOnly;
+	private final String targetOnly;
+	private final String common;
+
+	private AxisPermutation(String sourceAxes, String targetAxes) {
+		checkUnique(sourceAxes);
+		checkUnique(targetAxes);
+		this.sourceAxes = sourceAxes;
+		this.targetAxes = targetAxes;
+		StringBuilder sourceOnly = new StringBuilder();
+		StringBuilder targetOnly = new StringBuilder();
+		StringBuilder common = new StringBuilder();
+		for (char axis : sourceAxes.toCharArray()) {
+			if (targetAxes.indexOf(axis) < 0) sourceOnly.append(axis);
+		}
+		for (char axis : targetAxes.toCharArray()) {
+			if (sourceAxes.indexOf(axis) < 0) targetOnly.append(axis);
+			else common.append(axis);
+		}
+		this.sourceOnly = sourceOnly.toString();
+		this.targetOnly = targetOnly.toString();
+		this.common = common.toString();
+	}
+
+	/**
+	 * @return the shared plan of the two axis orders
+	 */
+	public static AxisPermutation of(String sourceAxes, String targetAxes) {
+		return plans.computeIfAbsent(sourceAxes + "->" + targetAxes, key -> new AxisPermutation(sourceAxes, targetAxes));
+	}
+
+	public String getSourceAxes() {
+		return sourceAxes;
+	}
+
+	public String getTargetAxes() {
+		return targetAxes;
+	}
+
+	/**
+	 * @return the shape of the target for a source of the given shape
+	 */
+	public int[] targetShape(int[] sourceShape) {
+		if (sourceShape.length != sourceAxes.length()) {
+			throw new IllegalArgumentException("Shape " + Arrays.toString(sourceShape) + " does not match axes " + sourceAxes);
+		}
+		int[] res = new int[targetAxes.length()];
+		for (int d = 0; d < res.length; d++) {
+			int source = sourceAxes.indexOf(targetAxes.charAt(d));
+			res[d] = source < 0 ? 1 : sourceShape[source];
+		}
+		for (char axis : sourceOnly.toCharArray()) {
+			if (sourceShape[sourceAxes.indexOf(axis)] != 1) {
+				throw new IllegalArgumentException("Axis " + axis + " of length " + sourceShape[sourceAxes.indexOf(axis)] + " is missing in " + targetAxes);
+			}
+		}
+		return res;
+	}
+
+	public void copy(TensorBuffer source, TensorBuffer target) {
+		copy(source, target, null);
+	}
+
+	/**
+	 * @param transform applied to every row of converted values before it is written, or null
+	 */
+	public void copy(TensorBuffer source, TensorBuffer target, RowTransform transform) {
+		check(source.getAxes(), source.getShape(), target);
+		TensorBuffer s = source;
+		for (char axis : sourceOnly.toCharArray()) s = s.select(axis, 0);
+		TensorBuffer t = target;
+		for (char axis : targetOnly.toCharArray()) t = t.select(axis, 0);
+		TensorBuffer permuted = s.permute(common);
+		int n = common.length();
+		if (n == 0) {
+			float[] value = new float[1];
+			permuted.read(0, value, 0, 1);
+			copyValue(value[0], t, transform);
+			return;
+		}
+		int[] shape = permuted.getShape();
+		long[] strides = permuted.getStrides();
+		int inner = n - 1;
+		int contiguous = inner;
+		for (int d = 0; d < n; d++) {
+			if (shape[d] > 1 && Math.abs(strides[d]) < Math.abs(strides[contiguous]) || shape[contiguous] == 1) contiguous = d;
+		}
+		if (contiguous == inner || shape[contiguous] == 1 || shape[inner] == 1) {
+			if (transform == null) {
+				permuted.copyTo(t);
+				return;
+			}
+			copyRows(shape, t, transform, (position, length, values, offset) -> permuted.read(rowIndex(position, shape), values, offset, length));
+			return;
+		}
+		char rowAxis = common.charAt(contiguous);
+		char columnAxis = common.charAt(inner);
+		int fixedContiguous = contiguous;
+		copyBlocks(shape, contiguous, t, transform, (position, rows, columns, values, offset) -> {
+			TensorBuffer block = permuted;
+			for (int d = n - 2; d >= 0; d--) {
+				if (d != fixedContiguous) block = block.select(common.charAt(d), position[d]);
+			}
+			block = block.slice(rowAxis, position[fixedContiguous], position[fixedContiguous] + rows).slice(columnAxis, position[inner], position[inner] + columns);
+			block.permute("" + columnAxis + rowAxis).read(0, values, offset, rows * columns);
+		});
+	}
+
+	/**
+	 * Copies a view which may reach beyond its tensor. The padding is resolved while the blocks are read,
+	 * so no padded copy is allocated.
+	 *
+	 * @param transform applied to every row of converted values before it is written, or null
+	 */
+	public void copy(PaddedTensor source, TensorBuffer target, RowTransform transform) {
+		if (source.isInside()) {
+			copy(source.toTensor(), target, transform);
+			return;
+		}
+		int[] sourceShape = source.getShape();
+		check(source.getAxes(), sourceShape, target);
+		TensorBuffer t = target;
+		for (char axis : targetOnly.toCharArray()) t = t.select(axis, 0);
+		int n = common.length();
+		if (n == 0) {
+			float[] value = new float[1];
+			source.read(0, value, 0, 1);
+			copyValue(value[0], t, transform);
+			return;
+		}
+		int[] index = new int[n];
+		int[] shape = new int[n];
+		for (int d = 0; d < n; d++) {
+			index[d] = sourceAxes.indexOf(common.charAt(d));
+			shape[d] = sourceShape[index[d]];
+		}
+		// the innermost source axis of more than one element
+		int inner = n - 1;
+		int contiguous = inner;
+		for (int a = sourceAxes.length() - 1; a >= 0; a--) {
+			int d = common.indexOf(sourceAxes.charAt(a));
+			if (d >= 0 && shape[d] > 1) {
+				contiguous = d;
+				break;
+			}
+		}
+		int fixedContiguous = contiguous;
+		BlockReader reader = (position, rows, columns, values, valuesOffset) -> {
+			int[] offset = new int[sourceShape.length];
+			int[] size = new int[sourceShape.length];
+			Arrays.fill(size, 1);
+			for (int d = 0; d < n; d++) offset[index[d]] = position[d];
+			size[index[fixedContiguous]] = rows;
+			size[index[inner]] = columns;
+			source.region(offset, size).read(0, values, valuesOffset, rows * columns);
+		};
+		if (contiguous == inner || shape[contiguous] == 1 || shape[inner] == 1) {
+			copyRows(shape, t, transform, (position, length, values, offset) -> reader.read(position, 1, length, values, offset));
+		} else {
+			copyBlocks(shape, contiguous, t, transform, reader);
+		}
+	}
+
+	private void check(String axes, int[] shape, TensorBuffer target) {
+		if (!axes.equals(sourceAxes) || !target.getAxes().equals(targetAxes)) {
+			throw new IllegalArgumentException("Tensors " + axes + Arrays.toString(shape) + " and " + target + " do not match " + sourceAxes + " -> " + targetAxes);
+		}
+		if (!Arrays.equals(targetShape(shape), target.getShape())) {
+			throw new IllegalArgumentException("Target " + target + " does not match source " + Arrays.toString(shape));
+		}
+	}
+
+	private void copyValue(float value, TensorBuffer t, RowTransform transform) {
+		float[] values = {value};
+		if (transform != null) transform.apply(values, 0, 1, new int[targetAxes.length()]);
+		t.write(0, values, 0, 1);
+	}
+
+	/**
+	 * Reads the values of a source in the common axes.
+	 */
+	private interface BlockReader {
+
+		/**
+		 * @param position the first position of the block in the common axes
+		 * @param values   receives the block with the contiguous axis innermost
+		 */
+		void read(int[] position, int rows, int columns, float[] values, int offset);
+	}
+
+	private interface RowReader {
+
+		/**
+		 * @param position the first position of the row in the common axes
+		 */
+		void read(int[] position, int length, float[] values, int offset);
+	}
+
+	/**
+	 * Copies runs of rows along the next outer axis, so short rows are read, transformed and written together.
+	 */
+	private void copyRows(int[] shape, TensorBuffer t, RowTransform transform, RowReader reader) {
+		int n = shape.length;
+		int rowLength = shape[n - 1];
+		int along = n - 2;
+		int alongLength = along < 0 ? 1 : shape[along];
+		int runLength = Math.max(1, Math.min(alongLength, blockSize * blockSize / Math.max(1, rowLength)));
+		int runs = (alongLength + runLength - 1) / runLength;
+		int rowAxis = along < 0 ? -1 : targetAxes.indexOf(common.charAt(along));
+		long outer = t.getSize() / Math.max(1, rowLength) / alongLength;
+		LongStream.range(0, outer * runs).parallel().forEach(task -> {
+			int first = (int) (task % runs) * runLength;
+			int rows = Math.min(runLength, alongLength - first);
+			float[] values = new float[rows * rowLength];
+			int[] position = new int[n];
+			long rest = task / runs;
+			for (int d = n - 3; d >= 0; d--) {
+				position[d] = (int) (rest % shape[d]);
+				rest /= shape[d];
+			}
+			for (int i = 0; i < rows; i++) {
+				if (along >= 0) position[along] = first + i;
+				reader.read(position, rowLength, values, i * rowLength);
+			}
+			if (along >= 0) position[along] = first;
+			if (transform != null) transform.apply(values, rows, rowLength, targetPosition(position), rowAxis);
+			t.write(rowIndex(position, shape), values, 0, rows * rowLength);
+		});
+	}
+
+	private static long rowIndex(int[] position, int[] shape) {
+		long res = 0;
+		for (int d = 0; d < shape.length; d++) res = res * shape[d] + position[d];
+		return res;
+	}
+
+	/**
+	 * Copies blocks spanning the axis which is contiguous in the source and the innermost axis of the target.
+	 */
+	private void copyBlocks(int[] shape, int contiguous, TensorBuffer t, RowTransform transform, BlockReader reader) {
+		int n = shape.length;
+		int inner = n - 1;
+		char rowAxis = common.charAt(contiguous);
+		char columnAxis = common.charAt(inner);
+		int rowBlocks = (shape[contiguous] + blockSize - 1) / blockSize;
+		int columnBlocks = (shape[inner] + blockSize - 1) / blockSize;
+		long outer = t.getSize() / shape[contiguous] / shape[inner];
+		LongStream.range(0, outer * rowBlocks * columnBlocks).parallel().forEach(task -> {
+			int columnBlock = (int) (task % columnBlocks);
+			int rowBlock = (int) (task / columnBlocks % rowBlocks);
+			long rest = task / columnBlocks / rowBlocks;
+			int[] position = new int[n];
+			TensorBuffer targetBlock = t;
+			for (int d = n - 2; d >= 0; d--) {
+				if (d == contiguous) continue;
+				position[d] = (int) (rest % shape[d]);
+				rest /= shape[d];
+				targetBlock = targetBlock.select(common.charAt(d), position[d]);
+			}
+			int row0 = rowBlock * blockSize;
+			int rows = Math.min(blockSize, shape[contiguous] - row0);
+			int column0 = columnBlock * blockSize;
+			int columns = Math.min(blockSize, shape[inner] - column0);
+			targetBlock = targetBlock.slice(rowAxis, row0, row0 + rows).slice(columnAxis, column0, column0 + columns);
+			float[][] buffers = blocks.get();
+			float[] in = buffers[0];
+			float[] out = buffers[1];
+			position[contiguous] = row0;
+			position[inner] = column0;
+			// read along the contiguous source axis, then transpose to rows along the innermost target axis
+			reader.read(position, rows, columns, in, 0);
+			for (int j = 0; j < columns; j++) {
+				for (int i = 0; i < rows; i++) out[i * columns + j] = in[j * rows + i];
+			}
+			if (transform != null) transform.apply(out, rows, columns, targetPosition(position), targetAxes.indexOf(rowAxis));
+			targetBlock.write(0, out, 0, rows * columns);
+		});
+	}
+
+	/**
+	 * @return the position in the target axes of a position in the common axes
+	 */
+	private int[] targetPosition(int[] commonPosition) {
+		int[] res = new int[targetAxes.length()];
+		for (int d = 0; d < commonPosition.length; d++) res[targetAxes.indexOf(common.charAt(d))] = commonPosition[d];
+		return res;
+	}
+
+	private static void checkUnique(String axes) {
+		for (int i = 0; i < axes.length(); i++) {
+			if (axes.indexOf(axes.charAt(i)) != i) throw new IllegalArgumentException("Axes " + axes + " contain " + axes.charAt(i) + " twice");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "AxisPermutation(" + sourceAxes + " -> " + targetAxes + ")";
+	}
+}
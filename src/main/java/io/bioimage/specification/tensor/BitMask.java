@@ -0,0 +1,233 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import java.util.Arrays;
+
+/**
+ * Binary tensor with one bit per element in row-major order, e.g. the output of a trailing {@code binarize} step.
+ * Bits are packed into {@code long} words, so counting and combining masks works on 64 elements at a time.
+ */
+public class BitMask {
+
+	private final String axes;
+	private final int[] shape;
+	private final long size;
+	private final long[] words;
+
+	public BitMask(String axes, int... shape) {
+		if (axes.length() != shape.length) {
+			throw new IllegalArgumentException("Axes " + axes + " do not match shape " + Arrays.toString(shape));
+		}
+		long size = 1;
+		for (int dim : shape) size *= dim;
+		long wordCount = (size + 63) >>> 6;
+		if (wordCount > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Shape " + Arrays.toString(shape) + " is too large");
+		this.axes = axes;
+		this.shape = shape.clone();
+		this.size = size;
+		this.words = new long[(int) wordCount];
+	}
+
+	public String getAxes() {
+		return axes;
+	}
+
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the packed bits, bit {@code i % 64} of word {@code i / 64} is element {@code i}
+	 */
+	public long[] getWords() {
+		return words;
+	}
+
+	public boolean get(long index) {
+		return (words[(int) (index >>> 6)] & (1L << index)) != 0;
+	}
+
+	public void set(long index, boolean value) {
+		if (value) words[(int) (index >>> 6)] |= 1L << index;
+		else words[(int) (index >>> 6)] &= ~(1L << index);
+	}
+
+	public boolean get(int... position) {
+		return get(index(position));
+	}
+
+	/**
+	 * Sets the elements {@code [from, from + length)} to {@code values[i] > threshold}.
+	 * Ranges starting at multiples of 64 can be set from multiple threads.
+	 */
+	public void set(long from, float[] values, int offset, int length, float threshold) {
+		int i = 0;
+		// leading bits up to the next word boundary
+		for (; i < length && ((from + i) & 63) != 0; i++) set(from + i, values[offset + i] > threshold);
+		for (; i + 64 <= length; i += 64) {
+			long word = 0;
+			for (int bit = 0; bit < 64; bit++) {
+				if (values[offset + i + bit] > threshold) word |= 1L << bit;
+			}
+			words[(int) ((from + i) >>> 6)] = word;
+		}
+		for (; i < length; i++) set(from + i, values[offset + i] > threshold);
+	}
+
+	/**
+	 * @return the number of set elements
+	 */
+	public long count() {
+		long res = 0;
+		for (long word : words) res += Long.bitCount(word);
+		return res;
+	}
+
+	/**
+	 * Keeps only the elements which are also set in the other mask.
+	 */
+	public BitMask and(BitMask other) {
+		checkShape(other);
+		for (int i = 0; i < words.length; i++) words[i] &= other.words[i];
+		return this;
+	}
+
+	/**
+	 * Sets all elements which are set in the other mask.
+	 */
+	public BitMask or(BitMask other) {
+		checkShape(other);
+		for (int i = 0; i < words.length; i++) words[i] |= other.words[i];
+		return this;
+	}
+
+	/**
+	 * Clears all elements which are set in the other mask.
+	 */
+	public BitMask andNot(BitMask other) {
+		checkShape(other);
+		for (int i = 0; i < words.length; i++) words[i] &= ~other.words[i];
+		return this;
+	}
+
+	/**
+	 * @return the lengths of alternating runs of unset and set elements in row-major order,
+	 * starting with unset elements, so the first run may have length 0
+	 */
+	public long[] toRunLengths() {
+		long[] runs = new long[16];
+		int count = 0;
+		boolean value = false;
+		long position = 0;
+		while (position < size) {
+			long next = nextChange(position, value);
+			if (count == runs.length) runs = Arrays.copyOf(runs, count * 2);
+			runs[count++] = next - position;
+			position = next;
+			value = !value;
+		}
+		return Arrays.copyOf(runs, count);
+	}
+
+	public static BitMask fromRunLengths(String axes, int[] shape, long[] runs) {
+		BitMask res = new BitMask(axes, shape);
+		long position = 0;
+		for (int i = 0; i < runs.length; i++) {
+			if (i % 2 == 1) res.setRange(position, position + runs[i]);
+			position += runs[i];
+		}
+		if (position != res.size) throw new IllegalArgumentException("Runs cover " + position + " elements instead of " + res.size);
+		return res;
+	}
+
+	/**
+	 * @return the index of the first element at or after {@code from} which is not {@code value}, or the size
+	 */
+	private long nextChange(long from, boolean value) {
+		int word = (int) (from >>> 6);
+		long bits = (value ? ~words[word] : words[word]) & (-1L << from);
+		while (bits == 0) {
+			if (++word == words.length) return size;
+			bits = value ? ~words[word] : words[word];
+		}
+		return Math.min(size, ((long) word << 6) + Long.numberOfTrailingZeros(bits));
+	}
+
+	private void setRange(long from, long to) {
+		for (long i = from; i < to; i++) {
+			if ((i & 63) == 0 && i + 64 <= to) {
+				words[(int) (i >>> 6)] = -1L;
+				i += 63;
+			} else {
+				set(i, true);
+			}
+		}
+	}
+
+	/**
+	 * @return a {@code uint8} tensor with 1 for set and 0 for unset elements
+	 */
+	public TensorBuffer toTensor() {
+		TensorBuffer res = TensorBuffer.allocate(DataType.UINT8, axes, shape);
+		for (long i = 0; i < size; i++) {
+			if (get(i)) res.set(i, 1);
+		}
+		return res;
+	}
+
+	private long index(int[] position) {
+		if (position.length != shape.length) {
+			throw new IllegalArgumentException("Position " + Arrays.toString(position) + " does not match axes " + axes);
+		}
+		long res = 0;
+		for (int d = 0; d < shape.length; d++) {
+			if (position[d] < 0 || position[d] >= shape[d]) {
+				throw new IndexOutOfBoundsException("Position " + Arrays.toString(position) + " out of bounds for shape " + Arrays.toString(shape));
+			}
+			res = res * shape[d] + position[d];
+		}
+		return res;
+	}
+
+	private void checkShape(BitMask other) {
+		if (!Arrays.equals(shape, other.shape)) {
+			throw new IllegalArgumentException("Shape " + Arrays.toString(other.shape) + " does not match " + Arrays.toString(shape));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "BitMask(" + axes + Arrays.toString(shape) + ")";
+	}
+}
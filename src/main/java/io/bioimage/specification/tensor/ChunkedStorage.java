@@ -0,0 +1,229 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * {@link Storage} split into {@link ByteBuffer}s of {@code 2^chunkShift} bytes each, either direct or memory mapped.
+ * Chunks are a power of two large, so aligned values never cross a chunk boundary.
+ */
+public class ChunkedStorage implements Storage {
+
+	static final int defaultChunkShift = 30;
+
+	private final ByteBuffer[] chunks;
+	private final int chunkShift;
+	private final long chunkMask;
+	private final long byteSize;
+
+	private ChunkedStorage(ByteBuffer[] chunks, int chunkShift, long byteSize) {
+		this.chunks = chunks;
+		this.chunkShift = chunkShift;
+		this.chunkMask = (1L << chunkShift) - 1;
+		this.byteSize = byteSize;
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * Uses the remaining bytes of the buffer as storage.
+	 */
+	public static ChunkedStorage wrap(ByteBuffer buffer) {
+		return new ChunkedStorage(new ByteBuffer[]{buffer.slice()}, 31, buffer.remaining());
+	}
+
+	public static ChunkedStorage allocate(long byteSize) {
+		return allocate(byteSize, defaultChunkShift);
+	}
+
+	static ChunkedStorage allocate(long byteSize, int chunkShift) {
+		ByteBuffer[] chunks = new ByteBuffer[chunkCount(byteSize, chunkShift)];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect(chunkLength(byteSize, chunkShift, i));
+		}
+		return new ChunkedStorage(chunks, chunkShift, byteSize);
+	}
+
+	/**
+	 * Maps {@code byteSize} bytes of the file starting at {@code position}, growing the file if it is writable and too small.
+	 * The mapping is released when the storage is garbage collected.
+	 */
+	public static ChunkedStorage map(Path file, long position, long byteSize, boolean writable) throws IOException {
+		return map(file, position, byteSize, writable, defaultChunkShift);
+	}
+
+	static ChunkedStorage map(Path file, long position, long byteSize, boolean writable, int chunkShift) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), writable ? "rw" : "r")) {
+			if (raf.length() < position + byteSize) {
+				if (!writable) throw new IOException("File " + file + " is smaller than " + (position + byteSize) + " bytes");
+				raf.setLength(position + byteSize);
+			}
+			FileChannel channel = raf.getChannel();
+			ByteBuffer[] chunks = new ByteBuffer[chunkCount(byteSize, chunkShift)];
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+						position + ((long) i << chunkShift), chunkLength(byteSize, chunkShift, i));
+			}
+			return new ChunkedStorage(chunks, chunkShift, byteSize);
+		}
+	}
+
+	private static int chunkCount(long byteSize, int chunkShift) {
+		return (int) ((byteSize + (1L << chunkShift) - 1) >>> chunkShift);
+	}
+
+	private static int chunkLength(long byteSize, int chunkShift, int chunk) {
+		return (int) Math.min(1L << chunkShift, byteSize - ((long) chunk << chunkShift));
+	}
+
+	@Override
+	public long byteSize() {
+		return byteSize;
+	}
+
+	private ByteBuffer chunk(long offset) {
+		return chunks[(int) (offset >>> chunkShift)];
+	}
+
+	private int index(long offset) {
+		return (int) (offset & chunkMask);
+	}
+
+	@Override
+	public byte getByte(long offset) {
+		return chunk(offset).get(index(offset));
+	}
+
+	@Override
+	public void putByte(long offset, byte value) {
+		chunk(offset).put(index(offset), value);
+	}
+
+	@Override
+	public short getShort(long offset) {
+		return chunk(offset).getShort(index(offset));
+	}
+
+	@Override
+	public void putShort(long offset, short value) {
+		chunk(offset).putShort(index(offset), value);
+	}
+
+	@Override
+	public int getInt(long offset) {
+		return chunk(offset).getInt(index(offset));
+	}
+
+	@Override
+	public void putInt(long offset, int value) {
+		chunk(offset).putInt(index(offset), value);
+	}
+
+	@Override
+	public long getLong(long offset) {
+		return chunk(offset).getLong(index(offset));
+	}
+
+	@Override
+	public void putLong(long offset, long value) {
+		chunk(offset).putLong(index(offset), value);
+	}
+
+	@Override
+	public float getFloat(long offset) {
+		return chunk(offset).getFloat(index(offset));
+	}
+
+	@Override
+	public void putFloat(long offset, float value) {
+		chunk(offset).putFloat(index(offset), value);
+	}
+
+	@Override
+	public double getDouble(long offset) {
+		return chunk(offset).getDouble(index(offset));
+	}
+
+	@Override
+	public void putDouble(long offset, double value) {
+		chunk(offset).putDouble(index(offset), value);
+	}
+
+	@Override
+	public void getFloats(long offset, float[] target, int targetOffset, int length) {
+		while (length > 0) {
+			int n = Math.min(length, (int) (((chunkMask + 1) - index(offset)) >>> 2));
+			floats(offset).get(target, targetOffset, n);
+			offset += 4L * n;
+			targetOffset += n;
+			length -= n;
+		}
+	}
+
+	@Override
+	public void putFloats(long offset, float[] source, int sourceOffset, int length) {
+		while (length > 0) {
+			int n = Math.min(length, (int) (((chunkMask + 1) - index(offset)) >>> 2));
+			floats(offset).put(source, sourceOffset, n);
+			offset += 4L * n;
+			sourceOffset += n;
+			length -= n;
+		}
+	}
+
+	private FloatBuffer floats(long offset) {
+		ByteBuffer buffer = chunk(offset).duplicate();
+		buffer.position(index(offset));
+		return buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+	}
+
+	@Override
+	public int contiguousLength(long offset) {
+		return (int) Math.min(Math.min(chunkMask + 1 - index(offset), byteSize - offset), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ByteBuffer asByteBuffer(long offset, int length) {
+		if (length == 0) return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+		if ((offset >>> chunkShift) != ((offset + length - 1) >>> chunkShift)) {
+			throw new UnsupportedOperationException("Range of " + length + " bytes at " + offset + " crosses a chunk boundary");
+		}
+		ByteBuffer res = chunk(offset).duplicate();
+		res.position(index(offset)).limit(index(offset) + length);
+		return res.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
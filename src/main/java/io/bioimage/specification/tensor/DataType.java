@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import io.bioimage.specification.NodeSpecification;
+
+/**
+ * The element types of tensors as named in the {@code data_type} field of a node.
+ */
+public enum DataType {
+
+	UINT8("uint8", 1, false, false),
+	INT8("int8", 1, true, false),
+	UINT16("uint16", 2, false, false),
+	INT16("int16", 2, true, false),
+	UINT32("uint32", 4, false, false),
+	INT32("int32", 4, true, false),
+	UINT64("uint64", 8, false, false),
+	INT64("int64", 8, true, false),
+	FLOAT32("float32", 4, true, true),
+	FLOAT64("float64", 8, true, true);
+
+	private final String name;
+	private final int byteSize;
+	private final boolean signed;
+	private final boolean floatingPoint;
+
+	DataType(String name, int byteSize, boolean signed, boolean floatingPoint) {
+		this.name = name;
+		this.byteSize = byteSize;
+		this.signed = signed;
+		this.floatingPoint = floatingPoint;
+	}
+
+	/**
+	 * @param name the {@code data_type} of a node, e.g. {@code uint8} or {@code float32};
+	 *             {@code float} and {@code double} are accepted as used in older specifications
+	 */
+	public static DataType fromString(String name) {
+		if (name == null) throw new IllegalArgumentException("No data type given");
+		String value = name.trim().toLowerCase();
+		if (value.equals("float")) return FLOAT32;
+		if (value.equals("double")) return FLOAT64;
+		for (DataType type : values()) {
+			if (type.name.equals(value)) return type;
+		}
+		throw new IllegalArgumentException("Unknown data type " + name);
+	}
+
+	public static DataType of(NodeSpecification node) {
+		return fromString(node.getDataType());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getByteSize() {
+		return byteSize;
+	}
+
+	public boolean isSigned() {
+		return signed;
+	}
+
+	public boolean isFloatingPoint() {
+		return floatingPoint;
+	}
+
+	/**
+	 * @return the smallest representable value
+	 */
+	public double getMin() {
+		switch (this) {
+			case INT8: return Byte.MIN_VALUE;
+			case INT16: return Short.MIN_VALUE;
+			case INT32: return Integer.MIN_VALUE;
+			case INT64: return Long.MIN_VALUE;
+			case FLOAT32: return -Float.MAX_VALUE;
+			case FLOAT64: return -Double.MAX_VALUE;
+			default: return 0;
+		}
+	}
+
+	/**
+	 * @return the largest representable value
+	 */
+	public double getMax() {
+		switch (this) {
+			case UINT8: return 0xff;
+			case INT8: return Byte.MAX_VALUE;
+			case UINT16: return 0xffff;
+			case INT16: return Short.MAX_VALUE;
+			case UINT32: return 0xffffffffL;
+			case INT32: return Integer.MAX_VALUE;
+			case UINT64: return 0x1p64;
+			case INT64: return Long.MAX_VALUE;
+			case FLOAT32: return Float.MAX_VALUE;
+			default: return Double.MAX_VALUE;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,285 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import java.util.Arrays;
+
+/**
+ * Read-only view of a box which may reach beyond a tensor, e.g. an image enlarged to a valid shape of a node
+ * or a tile overlapping the image border. Coordinates outside the tensor are resolved by the {@link Padding}
+ * when they are read, so no padded copy is allocated. Rows are read in bulk where they are inside the tensor.
+ */
+public class PaddedTensor {
+
+	private final TensorBuffer source;
+	private final Padding padding;
+	private final double value;
+	private final int[] origin;
+	private final int[] shape;
+	private final long[] sourceStrides;
+
+	/**
+	 * @param value the value of {@link Padding#CONSTANT} padding, ignored by the other modes
+	 */
+	public PaddedTensor(TensorBuffer source, Padding padding, double value) {
+		this(source, padding, padding == Padding.CONSTANT ? value : 0, new int[source.getShape().length], source.getShape());
+	}
+
+	private PaddedTensor(TensorBuffer source, Padding padding, double value, int[] origin, int[] shape) {
+		this.source = source;
+		this.padding = padding;
+		this.value = value;
+		this.origin = origin;
+		this.shape = shape;
+		int[] sourceShape = source.getShape();
+		this.sourceStrides = new long[sourceShape.length];
+		long stride = 1;
+		for (int d = sourceShape.length - 1; d >= 0; d--) {
+			sourceStrides[d] = stride;
+			stride *= sourceShape[d];
+		}
+	}
+
+	/**
+	 * @return the unpadded tensor
+	 */
+	public TensorBuffer getSource() {
+		return source;
+	}
+
+	public Padding getPadding() {
+		return padding;
+	}
+
+	public String getAxes() {
+		return source.getAxes();
+	}
+
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	public long getSize() {
+		long res = 1;
+		for (int dim : shape) res *= dim;
+		return res;
+	}
+
+	/**
+	 * @return the position of the first element of the view in the unpadded tensor, negative where the view starts before it
+	 */
+	public int[] getOrigin() {
+		return origin.clone();
+	}
+
+	/**
+	 * @return the view of the box starting at {@code offset} with the given shape, both relative to this view
+	 */
+	public PaddedTensor region(int[] offset, int[] shape) {
+		if (offset.length != this.shape.length || shape.length != this.shape.length) {
+			throw new IllegalArgumentException("Region " + Arrays.toString(offset) + Arrays.toString(shape) + " does not match axes " + getAxes());
+		}
+		int[] origin = this.origin.clone();
+		for (int d = 0; d < origin.length; d++) origin[d] += offset[d];
+		return new PaddedTensor(source, padding, value, origin, shape.clone());
+	}
+
+	public PaddedTensor slice(char axis, int from, int to) {
+		int d = getAxes().indexOf(axis);
+		if (d < 0) throw new IllegalArgumentException("Axis " + axis + " is not one of " + getAxes());
+		int[] offset = new int[shape.length];
+		int[] shape = this.shape.clone();
+		offset[d] = from;
+		shape[d] = to - from;
+		return region(offset, shape);
+	}
+
+	/**
+	 * @return true if the view does not reach beyond the unpadded tensor
+	 */
+	public boolean isInside() {
+		int[] sourceShape = source.getShape();
+		for (int d = 0; d < shape.length; d++) {
+			if (origin[d] < 0 || origin[d] + shape[d] > sourceShape[d]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the inside view as a {@link TensorBuffer}, sharing the memory of the unpadded tensor
+	 * @throws IllegalStateException if the view reaches beyond the unpadded tensor
+	 */
+	public TensorBuffer toTensor() {
+		if (!isInside()) throw new IllegalStateException("View " + this + " reaches beyond " + source);
+		String axes = getAxes();
+		TensorBuffer res = source;
+		for (int d = 0; d < shape.length; d++) res = res.slice(axes.charAt(d), origin[d], origin[d] + shape[d]);
+		return res;
+	}
+
+	public double getDouble(int... position) {
+		int[] sourceShape = source.getShape();
+		int[] resolved = new int[position.length];
+		for (int d = 0; d < position.length; d++) {
+			resolved[d] = padding.resolve(origin[d] + position[d], sourceShape[d]);
+			if (resolved[d] < 0) return value;
+		}
+		return source.getDouble(resolved);
+	}
+
+	public float getFloat(int... position) {
+		return (float) getDouble(position);
+	}
+
+	/**
+	 * Reads {@code length} elements in row-major order starting at the row-major index {@code from}, converted to float.
+	 */
+	public void read(long from, float[] target, int targetOffset, int length) {
+		int last = shape.length - 1;
+		int rowLength = last >= 0 ? source.getShape()[last] : 1;
+		float[] one = new float[1];
+		forEachRow(from, length, (sourceRow, column, count, at) -> {
+			int to = targetOffset + (int) (at - from);
+			if (sourceRow < 0) {
+				Arrays.fill(target, to, to + count, (float) value);
+				return;
+			}
+			int start = (last >= 0 ? origin[last] : 0) + column;
+			int insideFrom = Math.max(0, Math.min(count, -start));
+			int insideTo = Math.max(insideFrom, Math.min(count, rowLength - start));
+			if (insideTo > insideFrom) source.read(sourceRow + start + insideFrom, target, to + insideFrom, insideTo - insideFrom);
+			for (int i = 0; i < count; i++) {
+				if (i >= insideFrom && i < insideTo) continue;
+				int resolved = padding.resolve(start + i, rowLength);
+				if (resolved < 0) {
+					target[to + i] = (float) value;
+				} else {
+					source.read(sourceRow + resolved, one, 0, 1);
+					target[to + i] = one[0];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes the view to a tensor of the same shape, converting to its data type. Values inside the unpadded
+	 * tensor are copied row by row, in bulk where the data types match.
+	 */
+	public void copyTo(TensorBuffer target) {
+		if (!getAxes().equals(target.getAxes()) || !Arrays.equals(shape, target.getShape())) {
+			throw new IllegalArgumentException("Target " + target + " does not match " + this);
+		}
+		if (isInside()) {
+			toTensor().copyTo(target);
+			return;
+		}
+		int n = shape.length;
+		int last = n - 1;
+		String axes = getAxes();
+		int[] sourceShape = source.getShape();
+		int[] position = new int[n];
+		long rows = getSize() / Math.max(1, shape[last]);
+		for (long r = 0; r < rows; r++) {
+			TensorBuffer sourceRow = source;
+			TensorBuffer targetRow = target;
+			for (int d = last - 1; d >= 0; d--) {
+				int resolved = padding.resolve(origin[d] + position[d], sourceShape[d]);
+				sourceRow = sourceRow == null || resolved < 0 ? null : sourceRow.select(axes.charAt(d), resolved);
+				targetRow = targetRow.select(axes.charAt(d), position[d]);
+			}
+			int start = origin[last];
+			int rowLength = sourceShape[last];
+			int insideFrom = Math.max(0, Math.min(shape[last], -start));
+			int insideTo = Math.max(insideFrom, Math.min(shape[last], rowLength - start));
+			if (sourceRow != null && insideTo > insideFrom) {
+				char axis = axes.charAt(last);
+				sourceRow.slice(axis, start + insideFrom, start + insideTo).copyTo(targetRow.slice(axis, insideFrom, insideTo));
+			}
+			for (int x = 0; x < shape[last]; x++) {
+				if (sourceRow != null && x >= insideFrom && x < insideTo) continue;
+				int resolved = sourceRow == null ? -1 : padding.resolve(start + x, rowLength);
+				targetRow.setDouble(resolved < 0 ? value : sourceRow.getDouble(resolved), x);
+			}
+			for (int d = last - 1; d >= 0 && ++position[d] == shape[d]; d--) position[d] = 0;
+		}
+	}
+
+	/**
+	 * @return a copy of the view with the data type of the unpadded tensor
+	 */
+	public TensorBuffer materialize() {
+		TensorBuffer res = TensorBuffer.allocate(source.getDataType(), getAxes(), shape);
+		copyTo(res);
+		return res;
+	}
+
+	private interface RowVisitor {
+
+		/**
+		 * @param sourceRow the row-major index of the first element of the resolved row in the unpadded tensor, or -1 if the row is padding
+		 * @param column    the first column of the view visited
+		 * @param count     the number of columns visited
+		 * @param at        the row-major index of the first visited element in the view
+		 */
+		void accept(long sourceRow, int column, int count, long at);
+	}
+
+	private void forEachRow(long from, long length, RowVisitor visitor) {
+		long size = getSize();
+		if (from < 0 || length < 0 || from + length > size) {
+			throw new IndexOutOfBoundsException("Range of " + length + " elements at " + from + " out of bounds for " + size + " elements");
+		}
+		int n = shape.length;
+		if (n == 0) {
+			if (length > 0) visitor.accept(0, 0, 1, 0);
+			return;
+		}
+		int last = n - 1;
+		int[] sourceShape = source.getShape();
+		long end = from + length;
+		for (long at = from; at < end; ) {
+			int column = (int) (at % shape[last]);
+			int count = (int) Math.min(shape[last] - column, end - at);
+			long row = at / shape[last];
+			long sourceRow = 0;
+			for (int d = last - 1; d >= 0 && sourceRow >= 0; d--) {
+				int resolved = padding.resolve(origin[d] + (int) (row % shape[d]), sourceShape[d]);
+				row /= shape[d];
+				sourceRow = resolved < 0 ? -1 : sourceRow + resolved * sourceStrides[d];
+			}
+			visitor.accept(sourceRow, column, count, at);
+			at += count;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PaddedTensor(" + padding + ", " + getAxes() + Arrays.toString(origin) + Arrays.toString(shape) + " of " + source + ")";
+	}
+}
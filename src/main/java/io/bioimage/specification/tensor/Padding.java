@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+/**
+ * How values outside of a tensor are defined, e.g. when a tensor is enlarged to a valid shape of a node.
+ * For a row {@code a b c}: {@link #EDGE} continues with {@code c c}, {@link #REFLECT} with {@code b a}
+ * and {@link #MIRROR} with {@code c b}; {@link #ZERO} and {@link #CONSTANT} use a fixed value.
+ */
+public enum Padding {
+
+	ZERO, CONSTANT, EDGE, REFLECT, MIRROR;
+
+	/**
+	 * @return the index within {@code [0, length)} whose value the index takes, or -1 if it takes the constant value
+	 */
+	public int resolve(int index, int length) {
+		if (index >= 0 && index < length) return index;
+		switch (this) {
+			case ZERO:
+			case CONSTANT:
+				return -1;
+			case EDGE:
+				return index < 0 ? 0 : length - 1;
+			case REFLECT: {
+				if (length == 1) return 0;
+				int period = 2 * (length - 1);
+				int res = Math.floorMod(index, period);
+				return res < length ? res : period - res;
+			}
+			default: {
+				int period = 2 * length;
+				int res = Math.floorMod(index, period);
+				return res < length ? res : period - 1 - res;
+			}
+		}
+	}
+
+	/**
+	 * Copies the box of the source starting at {@code origin} with the shape of the target, padding where the box
+	 * reaches beyond the source.
+	 *
+	 * @param value the value of {@link #CONSTANT} padding, ignored by the other modes
+	 */
+	public void copy(TensorBuffer source, int[] origin, TensorBuffer target, double value) {
+		new PaddedTensor(source, this, value).region(origin, target.getShape()).copyTo(target);
+	}
+}
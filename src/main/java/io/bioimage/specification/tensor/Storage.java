@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Little-endian memory addressed by long byte offsets, so tensors are not limited to 2 GB.
+ * Multi-byte values have to be aligned to their size.
+ */
+public interface Storage {
+
+	long byteSize();
+
+	byte getByte(long offset);
+
+	void putByte(long offset, byte value);
+
+	short getShort(long offset);
+
+	void putShort(long offset, short value);
+
+	int getInt(long offset);
+
+	void putInt(long offset, int value);
+
+	long getLong(long offset);
+
+	void putLong(long offset, long value);
+
+	float getFloat(long offset);
+
+	void putFloat(long offset, float value);
+
+	double getDouble(long offset);
+
+	void putDouble(long offset, double value);
+
+	default void getFloats(long offset, float[] target, int targetOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			target[targetOffset + i] = getFloat(offset + 4L * i);
+		}
+	}
+
+	default void putFloats(long offset, float[] source, int sourceOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			putFloat(offset + 4L * i, source[sourceOffset + i]);
+		}
+	}
+
+	/**
+	 * Copies {@code length} bytes to another storage, one buffer per range which both storages hold contiguously,
+	 * see {@link #contiguousLength(long)}.
+	 */
+	default void copyTo(long offset, Storage target, long targetOffset, long length) {
+		for (long done = 0; done < length; ) {
+			int n = (int) Math.min(length - done, Math.min(contiguousLength(offset + done), target.contiguousLength(targetOffset + done)));
+			target.asByteBuffer(targetOffset + done, n).put(asByteBuffer(offset + done, n));
+			done += n;
+		}
+	}
+
+	/**
+	 * @return the number of bytes from {@code offset} which {@link #asByteBuffer(long, int)} can return in one buffer,
+	 * at least 1 inside the storage
+	 */
+	default int contiguousLength(long offset) {
+		return (int) Math.min(byteSize() - offset, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the bytes {@code [offset, offset + length)} as little-endian buffer sharing the memory of the storage
+	 * @throws UnsupportedOperationException if the range is longer than {@link #contiguousLength(long)}
+	 */
+	ByteBuffer asByteBuffer(long offset, int length);
+}
@@ -0,0 +1,527 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import io.bioimage.specification.NodeSpecification;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Tensor data in little-endian off-heap {@link Storage}, typed by a {@link DataType} and shaped by the axes of a node.
+ * Slices, strided and permuted views share the storage of the tensor they are created from, nothing is copied.
+ * The storage is only accessed with absolute positions, so views can be read from multiple threads.
+ * Elements are addressed by long indices, so tensors may be larger than 2 GB; only whole tensor reads into arrays
+ * are limited to 2 GB, and the NIO buffer views to ranges which the storage holds in one piece, see
+ * {@link #getByteBuffer()}.
+ */
+public class TensorBuffer {
+
+	/**
+	 * Receives the rows of a tensor, i.e. all elements along the innermost axis for one position of the outer axes.
+	 */
+	public interface RowVisitor {
+
+		/**
+		 * @param start          the element index of the first element of the row in the storage
+		 * @param stride         the distance between the elements of the row in elements
+		 * @param length         the number of elements of the row
+		 * @param logicalOffset  the index of the first element of the row in row-major order of the tensor
+		 */
+		void accept(long start, long stride, int length, long logicalOffset);
+	}
+
+	private final DataType dataType;
+	private final Storage storage;
+	private final String axes;
+	private final int[] shape;
+	private final long[] strides;
+	private final long offset;
+
+	private TensorBuffer(DataType dataType, Storage storage, String axes, int[] shape, long[] strides, long offset) {
+		if (axes.length() != shape.length) {
+			throw new IllegalArgumentException("Axes " + axes + " do not match shape " + Arrays.toString(shape));
+		}
+		this.dataType = dataType;
+		this.storage = storage;
+		this.axes = axes;
+		this.shape = shape;
+		this.strides = strides;
+		this.offset = offset;
+	}
+
+	public static TensorBuffer allocate(DataType dataType, String axes, int... shape) {
+		return of(Storages.allocate(size(shape) * dataType.getByteSize()), dataType, axes, shape);
+	}
+
+	/**
+	 * Allocates a tensor of the data type and axes of the node.
+	 */
+	public static TensorBuffer allocate(NodeSpecification node, int... shape) {
+		return allocate(DataType.of(node), node.getAxes(), shape);
+	}
+
+	/**
+	 * Wraps the remaining bytes of the buffer, which are interpreted as little-endian in row-major order.
+	 */
+	public static TensorBuffer wrap(ByteBuffer buffer, DataType dataType, String axes, int... shape) {
+		long bytes = size(shape) * dataType.getByteSize();
+		if (buffer.remaining() < bytes) {
+			throw new IllegalArgumentException("Buffer of " + buffer.remaining() + " bytes is too small for " + dataType + Arrays.toString(shape));
+		}
+		return of(ChunkedStorage.wrap(buffer), dataType, axes, shape);
+	}
+
+	/**
+	 * Maps the tensor stored in row-major order at {@code position} of the file, e.g. a raw volume on disk.
+	 * If the tensor is writable, the file is created or grown as needed and changes are written to it.
+	 */
+	public static TensorBuffer map(Path file, long position, DataType dataType, String axes, boolean writable, int... shape) throws IOException {
+		return of(Storages.map(file, position, size(shape) * dataType.getByteSize(), writable), dataType, axes, shape);
+	}
+
+	/**
+	 * Interprets the storage as tensor in row-major order.
+	 */
+	public static TensorBuffer of(Storage storage, DataType dataType, String axes, int... shape) {
+		long bytes = size(shape) * dataType.getByteSize();
+		if (storage.byteSize() < bytes) {
+			throw new IllegalArgumentException("Storage of " + storage.byteSize() + " bytes is too small for " + dataType + Arrays.toString(shape));
+		}
+		return new TensorBuffer(dataType, storage, axes, shape.clone(), rowMajorStrides(shape), 0);
+	}
+
+	private static long size(int[] shape) {
+		long res = 1;
+		for (int dim : shape) {
+			if (dim < 0) throw new IllegalArgumentException("Invalid shape " + Arrays.toString(shape));
+			res *= dim;
+		}
+		return res;
+	}
+
+	private static long[] rowMajorStrides(int[] shape) {
+		long[] res = new long[shape.length];
+		long stride = 1;
+		for (int d = shape.length - 1; d >= 0; d--) {
+			res[d] = stride;
+			stride *= shape[d];
+		}
+		return res;
+	}
+
+	public DataType getDataType() {
+		return dataType;
+	}
+
+	public String getAxes() {
+		return axes;
+	}
+
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	public int getShape(char axis) {
+		return shape[dim(axis)];
+	}
+
+	/**
+	 * @return the distance between neighbouring elements along each axis in elements
+	 */
+	public long[] getStrides() {
+		return strides.clone();
+	}
+
+	public long getSize() {
+		return size(shape);
+	}
+
+	/**
+	 * @return true if the elements are stored without gaps in row-major order
+	 */
+	public boolean isContiguous() {
+		return Arrays.equals(strides, rowMajorStrides(shape)) || getSize() <= 1;
+	}
+
+	/**
+	 * @return true if the tensor covers its whole storage, i.e. it is no slice or other view of a larger tensor
+	 */
+	boolean ownsStorage() {
+		return offset == 0 && isContiguous() && storage.byteSize() == getSize() * dataType.getByteSize();
+	}
+
+	/**
+	 * The view is limited to {@link Storage#contiguousLength(long)} bytes: on Java 8, large tensors are stored in
+	 * chunks of 1 GB, so a tensor crossing a chunk boundary cannot be viewed even if it is smaller than 2 GB.
+	 * Such tensors are accessed via {@link #read(long, float[], int, int)} and {@link #write(long, float[], int, int)}
+	 * or copied chunk by chunk with {@link Storage#copyTo(long, Storage, long, long)}.
+	 *
+	 * @return the bytes of a contiguous tensor, sharing its memory
+	 * @throws UnsupportedOperationException if the storage does not hold the tensor in one piece
+	 */
+	public ByteBuffer getByteBuffer() {
+		requireContiguous();
+		long bytes = getSize() * dataType.getByteSize();
+		long start = offset * dataType.getByteSize();
+		if (bytes > 0 && storage.contiguousLength(start) < bytes) {
+			throw new UnsupportedOperationException("Tensor of " + bytes + " bytes at " + start + " is not held in one piece by its storage and cannot be viewed as ByteBuffer");
+		}
+		return storage.asByteBuffer(start, (int) bytes);
+	}
+
+	public Storage getStorage() {
+		return storage;
+	}
+
+	public FloatBuffer asFloatBuffer() {
+		requireType(DataType.FLOAT32);
+		return getByteBuffer().asFloatBuffer();
+	}
+
+	public DoubleBuffer asDoubleBuffer() {
+		requireType(DataType.FLOAT64);
+		return getByteBuffer().asDoubleBuffer();
+	}
+
+	/**
+	 * @return the elements of a {@code uint16} or {@code int16} tensor, {@code uint16} values have to be masked with {@code 0xffff}
+	 */
+	public ShortBuffer asShortBuffer() {
+		requireType(DataType.UINT16, DataType.INT16);
+		return getByteBuffer().asShortBuffer();
+	}
+
+	public IntBuffer asIntBuffer() {
+		requireType(DataType.UINT32, DataType.INT32);
+		return getByteBuffer().asIntBuffer();
+	}
+
+	public LongBuffer asLongBuffer() {
+		requireType(DataType.UINT64, DataType.INT64);
+		return getByteBuffer().asLongBuffer();
+	}
+
+	/**
+	 * @return a view of the range {@code [from, to)} of the axis
+	 */
+	public TensorBuffer slice(char axis, int from, int to) {
+		int d = dim(axis);
+		if (from < 0 || to > shape[d] || from > to) {
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of bounds for axis " + axis + " of length " + shape[d]);
+		}
+		int[] newShape = shape.clone();
+		newShape[d] = to - from;
+		return new TensorBuffer(dataType, storage, axes, newShape, strides, offset + from * strides[d]);
+	}
+
+	/**
+	 * @return a view of every {@code step}-th element along the axis
+	 */
+	public TensorBuffer stride(char axis, int step) {
+		if (step < 1) throw new IllegalArgumentException("Invalid step " + step);
+		int d = dim(axis);
+		int[] newShape = shape.clone();
+		newShape[d] = (shape[d] + step - 1) / step;
+		long[] newStrides = strides.clone();
+		newStrides[d] *= step;
+		return new TensorBuffer(dataType, storage, axes, newShape, newStrides, offset);
+	}
+
+	/**
+	 * @return a view at the index of the axis, without the axis
+	 */
+	public TensorBuffer select(char axis, int index) {
+		int d = dim(axis);
+		if (index < 0 || index >= shape[d]) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for axis " + axis + " of length " + shape[d]);
+		}
+		int[] newShape = new int[shape.length - 1];
+		long[] newStrides = new long[shape.length - 1];
+		for (int i = 0, j = 0; i < shape.length; i++) {
+			if (i == d) continue;
+			newShape[j] = shape[i];
+			newStrides[j++] = strides[i];
+		}
+		return new TensorBuffer(dataType, storage, axes.substring(0, d) + axes.substring(d + 1), newShape, newStrides, offset + index * strides[d]);
+	}
+
+	/**
+	 * @param newAxes the axes of this tensor in a different order, e.g. {@code bcyx} for a {@code byxc} tensor
+	 * @return a view with the axes in the given order
+	 */
+	public TensorBuffer permute(String newAxes) {
+		if (newAxes.length() != axes.length()) throw new IllegalArgumentException("Cannot permute " + axes + " to " + newAxes);
+		int[] newShape = new int[shape.length];
+		long[] newStrides = new long[shape.length];
+		for (int i = 0; i < newAxes.length(); i++) {
+			int d = dim(newAxes.charAt(i));
+			newShape[i] = shape[d];
+			newStrides[i] = strides[d];
+		}
+		return new TensorBuffer(dataType, storage, newAxes, newShape, newStrides, offset);
+	}
+
+	/**
+	 * @return a contiguous copy in newly allocated memory
+	 */
+	public TensorBuffer copy() {
+		TensorBuffer res = allocate(dataType, axes, shape);
+		copyTo(res);
+		return res;
+	}
+
+	/**
+	 * Copies all elements to a tensor of the same shape, converting them to its data type.
+	 */
+	public void copyTo(TensorBuffer target) {
+		if (!Arrays.equals(shape, target.shape)) {
+			throw new IllegalArgumentException("Shape " + Arrays.toString(shape) + " does not match " + Arrays.toString(target.shape));
+		}
+		long targetStride = shape.length > 0 ? target.strides[shape.length - 1] : 1;
+		int byteSize = dataType.getByteSize();
+		forEachRow((start, stride, length, logicalOffset) -> {
+			long targetStart = target.element(logicalOffset);
+			if (stride == 1 && targetStride == 1 && dataType == target.dataType) {
+				storage.copyTo(start * byteSize, target.storage, targetStart * byteSize, (long) length * byteSize);
+				return;
+			}
+			for (int i = 0; i < length; i++) {
+				target.set(targetStart + i * targetStride, get(start + i * stride));
+			}
+		});
+	}
+
+	public double getDouble(int... position) {
+		return get(element(position));
+	}
+
+	public void setDouble(double value, int... position) {
+		set(element(position), value);
+	}
+
+	public float getFloat(int... position) {
+		return (float) get(element(position));
+	}
+
+	public void setFloat(float value, int... position) {
+		set(element(position), value);
+	}
+
+	/**
+	 * Reads all elements in row-major order, converted to float.
+	 */
+	public void read(float[] target, int targetOffset) {
+		read(0, target, targetOffset, arrayLength());
+	}
+
+	/**
+	 * Reads {@code length} elements in row-major order starting at the row-major index {@code from}, converted to float.
+	 */
+	public void read(long from, float[] target, int targetOffset, int length) {
+		forEachRow(from, length, (start, stride, rowLength, logicalOffset) -> {
+			int to = targetOffset + (int) (logicalOffset - from);
+			if (stride == 1 && dataType == DataType.FLOAT32) {
+				storage.getFloats(start * 4, target, to, rowLength);
+				return;
+			}
+			for (int i = 0; i < rowLength; i++) {
+				target[to + i] = (float) get(start + i * stride);
+			}
+		});
+	}
+
+	/**
+	 * Writes all elements in row-major order, converted from float.
+	 */
+	public void write(float[] source, int sourceOffset) {
+		write(0, source, sourceOffset, arrayLength());
+	}
+
+	/**
+	 * Writes {@code length} elements in row-major order starting at the row-major index {@code from}, converted from float.
+	 */
+	public void write(long from, float[] source, int sourceOffset, int length) {
+		forEachRow(from, length, (start, stride, rowLength, logicalOffset) -> {
+			int at = sourceOffset + (int) (logicalOffset - from);
+			if (stride == 1 && dataType == DataType.FLOAT32) {
+				storage.putFloats(start * 4, source, at, rowLength);
+				return;
+			}
+			for (int i = 0; i < rowLength; i++) {
+				set(start + i * stride, source[at + i]);
+			}
+		});
+	}
+
+	private int arrayLength() {
+		long size = getSize();
+		if (size > Integer.MAX_VALUE) throw new UnsupportedOperationException("Tensor of " + size + " elements does not fit into an array");
+		return (int) size;
+	}
+
+	/**
+	 * Visits the rows of the tensor in row-major order.
+	 */
+	public void forEachRow(RowVisitor visitor) {
+		forEachRow(0, getSize(), visitor);
+	}
+
+	/**
+	 * Visits the elements {@code [from, from + length)} in row-major order, split into (partial) rows.
+	 */
+	public void forEachRow(long from, long length, RowVisitor visitor) {
+		if (from < 0 || length < 0 || from + length > getSize()) {
+			throw new IndexOutOfBoundsException("Range of " + length + " elements at " + from + " out of bounds for " + getSize() + " elements");
+		}
+		int n = shape.length;
+		if (n == 0) {
+			if (length > 0) visitor.accept(offset, 1, 1, 0);
+			return;
+		}
+		int rowLength = shape[n - 1];
+		long end = from + length;
+		for (long logical = from; logical < end; ) {
+			int column = (int) (logical % rowLength);
+			int count = (int) Math.min(rowLength - column, end - logical);
+			visitor.accept(element(logical), strides[n - 1], count, logical);
+			logical += count;
+		}
+	}
+
+	/**
+	 * @return the value of the element at the index in the storage, as returned by {@link RowVisitor}
+	 */
+	public double get(long element) {
+		long i = element * dataType.getByteSize();
+		switch (dataType) {
+			case UINT8: return storage.getByte(i) & 0xff;
+			case INT8: return storage.getByte(i);
+			case UINT16: return storage.getShort(i) & 0xffff;
+			case INT16: return storage.getShort(i);
+			case UINT32: return storage.getInt(i) & 0xffffffffL;
+			case INT32: return storage.getInt(i);
+			case UINT64: return unsignedToDouble(storage.getLong(i));
+			case INT64: return storage.getLong(i);
+			case FLOAT32: return storage.getFloat(i);
+			default: return storage.getDouble(i);
+		}
+	}
+
+	/**
+	 * Sets the element at the index in the storage. Integer types are converted by a narrowing cast.
+	 */
+	public void set(long element, double value) {
+		long i = element * dataType.getByteSize();
+		switch (dataType) {
+			case UINT8:
+			case INT8:
+				storage.putByte(i, (byte) (long) value);
+				break;
+			case UINT16:
+			case INT16:
+				storage.putShort(i, (short) (long) value);
+				break;
+			case UINT32:
+			case INT32:
+				storage.putInt(i, (int) (long) value);
+				break;
+			case UINT64:
+				storage.putLong(i, value >= 0x1p63 ? (long) (value - 0x1p63) + Long.MIN_VALUE : (long) value);
+				break;
+			case INT64:
+				storage.putLong(i, (long) value);
+				break;
+			case FLOAT32:
+				storage.putFloat(i, (float) value);
+				break;
+			default:
+				storage.putDouble(i, value);
+		}
+	}
+
+	private static double unsignedToDouble(long value) {
+		return value >= 0 ? value : (value >>> 1) * 2. + (value & 1);
+	}
+
+	private long element(int[] position) {
+		if (position.length != shape.length) {
+			throw new IllegalArgumentException("Position " + Arrays.toString(position) + " does not match axes " + axes);
+		}
+		long res = offset;
+		for (int d = 0; d < shape.length; d++) {
+			if (position[d] < 0 || position[d] >= shape[d]) {
+				throw new IndexOutOfBoundsException("Position " + Arrays.toString(position) + " out of bounds for shape " + Arrays.toString(shape));
+			}
+			res += position[d] * strides[d];
+		}
+		return res;
+	}
+
+	/**
+	 * @return the element index in the storage of the element with the given row-major index
+	 */
+	private long element(long logicalIndex) {
+		long res = offset;
+		for (int d = shape.length - 1; d >= 0; d--) {
+			res += (logicalIndex % shape[d]) * strides[d];
+			logicalIndex /= shape[d];
+		}
+		return res;
+	}
+
+	private int dim(char axis) {
+		int d = axes.indexOf(axis);
+		if (d < 0) throw new IllegalArgumentException("Axis " + axis + " is not part of " + axes);
+		return d;
+	}
+
+	private void requireContiguous() {
+		if (!isContiguous()) throw new IllegalStateException("Tensor view is not contiguous, use copy() first");
+	}
+
+	private void requireType(DataType... types) {
+		for (DataType type : types) {
+			if (dataType == type) return;
+		}
+		throw new IllegalStateException("Tensor of type " + dataType + " cannot be viewed as " + Arrays.toString(types));
+	}
+
+	@Override
+	public String toString() {
+		return "TensorBuffer(" + dataType + ", " + axes + Arrays.toString(shape) + ")";
+	}
+}
@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps released tensors for reuse by later requests of the same data type, axes and shape,
+ * e.g. the output tiles and stitched outputs of repeated model invocations with the same image size.
+ * The content of an acquired tensor is undefined if it was used before.
+ */
+public class TensorPool {
+
+	private final Map<Key, Deque<TensorBuffer>> free = new ConcurrentHashMap<>();
+	private final int maxPerShape;
+
+	public TensorPool() {
+		this(8);
+	}
+
+	/**
+	 * @param maxPerShape the number of released tensors kept per data type, axes and shape
+	 */
+	public TensorPool(int maxPerShape) {
+		this.maxPerShape = maxPerShape;
+	}
+
+	/**
+	 * @return a released tensor with the given type, axes and shape, or a newly allocated one
+	 */
+	public TensorBuffer acquire(DataType dataType, String axes, int... shape) {
+		Deque<TensorBuffer> tensors = free.get(new Key(dataType, axes, shape));
+		if (tensors != null) {
+			synchronized (tensors) {
+				TensorBuffer res = tensors.pollFirst();
+				if (res != null) return res;
+			}
+		}
+		return TensorBuffer.allocate(dataType, axes, shape);
+	}
+
+	/**
+	 * Makes the tensor available to {@link #acquire(DataType, String, int...)}. Views are not pooled,
+	 * since their storage is shared with the tensor they are created from.
+	 */
+	public void release(TensorBuffer tensor) {
+		if (!tensor.ownsStorage()) return;
+		Deque<TensorBuffer> tensors = free.computeIfAbsent(new Key(tensor.getDataType(), tensor.getAxes(), tensor.getShape()), key -> new ArrayDeque<>());
+		synchronized (tensors) {
+			if (tensors.size() < maxPerShape) tensors.addFirst(tensor);
+		}
+	}
+
+	/**
+	 * @return the number of released tensors currently kept
+	 */
+	public int size() {
+		int res = 0;
+		for (Deque<TensorBuffer> tensors : free.values()) {
+			synchronized (tensors) {
+				res += tensors.size();
+			}
+		}
+		return res;
+	}
+
+	public void clear() {
+		free.clear();
+	}
+
+	private static class Key {
+
+		private final DataType dataType;
+		private final String axes;
+		private final int[] shape;
+
+		Key(DataType dataType, String axes, int[] shape) {
+			this.dataType = dataType;
+			this.axes = axes;
+			this.shape = shape.clone();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key that = (Key) o;
+			return dataType == that.dataType && axes.equals(that.axes) && Arrays.equals(shape, that.shape);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(dataType, axes, Arrays.hashCode(shape));
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The relation between an output node and its {@code reference_input}: along every output axis,
+ * {@code output = input * scale + 2 * offset} for lengths and {@code input * scale + offset} for coordinates.
+ * Output axes which the input does not have get the length {@code 2 * offset}.
+ */
+public class OutputMapping {
+
+	private final String outputName;
+	private final String inputName;
+	private final String outputAxes;
+	private final String inputAxes;
+	private final int[] outputToInput;
+	private final double[] scale;
+	private final int[] offset;
+
+	public OutputMapping(InputNodeSpecification input, OutputNodeSpecification output) {
+		if (output.getReferenceInputName() != null && !output.getReferenceInputName().equals(input.getName())) {
+			throw new IllegalArgumentException("Output " + output.getName() + " references " + output.getReferenceInputName() + ", not " + input.getName());
+		}
+		this.outputName = output.getName();
+		this.inputName = input.getName();
+		this.outputAxes = output.getAxes();
+		this.inputAxes = input.getAxes();
+		int m = outputAxes.length();
+		this.outputToInput = new int[m];
+		this.scale = new double[m];
+		this.offset = new int[m];
+		List<? extends Number> shapeScale = output.getShapeScale();
+		List<Integer> shapeOffset = output.getShapeOffset();
+		for (int i = 0; i < m; i++) {
+			outputToInput[i] = inputAxes.indexOf(outputAxes.charAt(i));
+			Number axisScale = shapeScale != null ? shapeScale.get(i) : null;
+			scale[i] = outputToInput[i] < 0 ? 0 : axisScale != null ? axisScale.doubleValue() : 1;
+			offset[i] = shapeOffset != null && shapeOffset.get(i) != null ? shapeOffset.get(i) : 0;
+		}
+	}
+
+	public String getOutputName() {
+		return outputName;
+	}
+
+	public String getInputName() {
+		return inputName;
+	}
+
+	public String getOutputAxes() {
+		return outputAxes;
+	}
+
+	public String getInputAxes() {
+		return inputAxes;
+	}
+
+	/**
+	 * @return the input axis index of the output axis, or -1 if the input does not have the axis
+	 */
+	public int getInputAxis(int outputAxis) {
+		return outputToInput[outputAxis];
+	}
+
+	public double getScale(int outputAxis) {
+		return scale[outputAxis];
+	}
+
+	public int getOffset(int outputAxis) {
+		return offset[outputAxis];
+	}
+
+	public int outputLength(int outputAxis, int inputLength) {
+		return (int) Math.round(inputLength * scale[outputAxis]) + 2 * offset[outputAxis];
+	}
+
+	/**
+	 * @return the shape of the output for an input of the given shape
+	 */
+	public int[] outputShape(int[] inputShape) {
+		if (inputShape.length != inputAxes.length()) {
+			throw new IllegalArgumentException("Shape " + Arrays.toString(inputShape) + " does not match axes " + inputAxes + " of " + inputName);
+		}
+		int[] res = new int[outputToInput.length];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = outputLength(i, outputToInput[i] < 0 ? 0 : inputShape[outputToInput[i]]);
+			if (res[i] < 0) {
+				throw new IllegalArgumentException("Input " + Arrays.toString(inputShape) + " is too small for output " + outputName + " along " + outputAxes.charAt(i));
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return the output coordinate of an input coordinate along an output axis
+	 */
+	public double toOutput(int outputAxis, double inputCoordinate) {
+		return inputCoordinate * scale[outputAxis] + offset[outputAxis];
+	}
+
+	/**
+	 * @return the input coordinate of an output coordinate along an output axis, NaN if the input does not have the axis
+	 */
+	public double toInput(int outputAxis, double outputCoordinate) {
+		if (scale[outputAxis] == 0) return Double.NaN;
+		return (outputCoordinate - offset[outputAxis]) / scale[outputAxis];
+	}
+
+	/**
+	 * @return the output position of an input position, in output axes
+	 */
+	public double[] toOutput(int[] inputPosition) {
+		double[] res = new double[outputToInput.length];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = outputToInput[i] < 0 ? offset[i] : toOutput(i, inputPosition[outputToInput[i]]);
+		}
+		return res;
+	}
+
+	/**
+	 * @return the input position of an output position, in input axes; input axes the output does not have are 0
+	 */
+	public double[] toInput(int[] outputPosition) {
+		double[] res = new double[inputAxes.length()];
+		for (int i = 0; i < outputToInput.length; i++) {
+			if (outputToInput[i] >= 0) res[outputToInput[i]] = toInput(i, outputPosition[i]);
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "OutputMapping(" + inputName + " -> " + outputName + ", scale " + Arrays.toString(scale) + ", offset " + Arrays.toString(offset) + ")";
+	}
+}
@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.tensor.TensorPool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes the shapes of all output nodes of a model from the shapes of their {@code reference_input}s
+ * before anything is run, so outputs can be allocated up front, e.g. from a {@link TensorPool}.
+ * Outputs without a reference input have no shape known in advance and are skipped.
+ */
+public class ShapeInference {
+
+	private final Map<String, OutputMapping> mappings = new LinkedHashMap<>();
+	private final Map<String, OutputNodeSpecification> outputs = new LinkedHashMap<>();
+
+	public ShapeInference(ModelSpecification model) {
+		Map<String, InputNodeSpecification> inputs = new LinkedHashMap<>();
+		if (model.getInputs() != null) model.getInputs().forEach(input -> inputs.put(input.getName(), input));
+		if (model.getOutputs() == null) return;
+		for (OutputNodeSpecification output : model.getOutputs()) {
+			String reference = output.getReferenceInputName();
+			if (reference == null) continue;
+			InputNodeSpecification input = inputs.get(reference);
+			if (input == null) {
+				throw new IllegalArgumentException("Output " + output.getName() + " references unknown input " + reference);
+			}
+			mappings.put(output.getName(), new OutputMapping(input, output));
+			outputs.put(output.getName(), output);
+		}
+	}
+
+	/**
+	 * @return the mappings of all outputs with a reference input, by output name
+	 */
+	public Map<String, OutputMapping> getMappings() {
+		return Collections.unmodifiableMap(mappings);
+	}
+
+	public OutputMapping getMapping(String output) {
+		OutputMapping res = mappings.get(output);
+		if (res == null) throw new IllegalArgumentException("Output " + output + " has no reference input");
+		return res;
+	}
+
+	/**
+	 * @param inputShapes the shapes of the inputs by name, e.g. of the full images or of one tile
+	 * @return the shapes of the outputs by name
+	 */
+	public Map<String, int[]> outputShapes(Map<String, int[]> inputShapes) {
+		Map<String, int[]> res = new LinkedHashMap<>();
+		for (OutputMapping mapping : mappings.values()) {
+			int[] inputShape = inputShapes.get(mapping.getInputName());
+			if (inputShape == null) {
+				throw new IllegalArgumentException("Missing shape of input " + mapping.getInputName() + " for output " + mapping.getOutputName());
+			}
+			res.put(mapping.getOutputName(), mapping.outputShape(inputShape));
+		}
+		return res;
+	}
+
+	/**
+	 * @return output tensors of the declared data types, reused from the pool where possible
+	 */
+	public Map<String, TensorBuffer> allocateOutputs(Map<String, int[]> inputShapes, TensorPool pool) {
+		Map<String, TensorBuffer> res = new LinkedHashMap<>();
+		outputShapes(inputShapes).forEach((name, shape) -> {
+			OutputNodeSpecification output = outputs.get(name);
+			DataType dataType = output.getDataType() != null ? DataType.of(output) : DataType.FLOAT32;
+			res.put(name, pool.acquire(dataType, output.getAxes(), shape));
+		});
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "ShapeInference(" + Arrays.toString(mappings.keySet().toArray()) + ")";
+	}
+}
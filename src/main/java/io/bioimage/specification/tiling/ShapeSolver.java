@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.InputNodeSpecification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rounds shapes to the valid shapes {@code shape.min + k * shape.step} of an input node; a step of 0 means the
+ * axis has the fixed length {@code shape.min}. The minimum and step are copied when the solver is created,
+ * and rounded shapes are cached, so repeated requests with the same image shape are a lookup.
+ */
+public class ShapeSolver {
+
+	static final int maxCacheSize = 1 << 12;
+
+	private static final Map<InputNodeSpecification, ShapeSolver> solvers = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final String axes;
+	private final int[] min;
+	private final int[] step;
+	private final Map<Key, Optional<int[]>> ceilCache = new ConcurrentHashMap<>();
+	private final Map<Key, Optional<int[]>> floorCache = new ConcurrentHashMap<>();
+
+	public ShapeSolver(InputNodeSpecification node) {
+		this.axes = node.getAxes();
+		int n = axes.length();
+		this.min = new int[n];
+		this.step = new int[n];
+		for (int d = 0; d < n; d++) {
+			min[d] = node.getShapeMin() != null ? node.getShapeMin().get(d) : 1;
+			step[d] = node.getShapeStep() != null ? node.getShapeStep().get(d) : 0;
+			if (min[d] < 0 || step[d] < 0) {
+				throw new IllegalArgumentException("Invalid shape of node " + node.getName() + " along " + axes.charAt(d) + ": min " + min[d] + ", step " + step[d]);
+			}
+		}
+	}
+
+	/**
+	 * @return the shared solver of the node, created on first use
+	 */
+	public static ShapeSolver of(InputNodeSpecification node) {
+		return solvers.computeIfAbsent(node, ShapeSolver::new);
+	}
+
+	public String getAxes() {
+		return axes;
+	}
+
+	public int getMin(int axis) {
+		return min[axis];
+	}
+
+	public int getStep(int axis) {
+		return step[axis];
+	}
+
+	public boolean isValid(int axis, int length) {
+		if (step[axis] == 0) return length == min[axis];
+		return length >= min[axis] && (length - min[axis]) % step[axis] == 0;
+	}
+
+	/**
+	 * @return the smallest valid length of the axis which is at least {@code length}, or -1 if the axis is fixed to a smaller length
+	 */
+	public int ceil(int axis, int length) {
+		if (length <= min[axis]) return min[axis];
+		if (step[axis] == 0) return -1;
+		long res = min[axis] + ((long) length - min[axis] + step[axis] - 1) / step[axis] * step[axis];
+		return res <= Integer.MAX_VALUE ? (int) res : -1;
+	}
+
+	/**
+	 * @return the largest valid length of the axis which is at most {@code length}, or -1 if it is smaller than the minimum
+	 */
+	public int floor(int axis, int length) {
+		if (length < min[axis]) return -1;
+		if (step[axis] == 0) return min[axis];
+		return min[axis] + (length - min[axis]) / step[axis] * step[axis];
+	}
+
+	public boolean isValid(int[] shape) {
+		checkShape(shape);
+		for (int d = 0; d < shape.length; d++) {
+			if (!isValid(d, shape[d])) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the smallest valid shape which is at least {@code shape} along every axis, or null if there is none
+	 */
+	public int[] ceil(int[] shape) {
+		return round(shape, ceilCache, true);
+	}
+
+	/**
+	 * @return the largest valid shape which is at most {@code shape} along every axis, or null if there is none
+	 */
+	public int[] floor(int[] shape) {
+		return round(shape, floorCache, false);
+	}
+
+	private int[] round(int[] shape, Map<Key, Optional<int[]>> cache, boolean up) {
+		checkShape(shape);
+		Key key = new Key(shape);
+		Optional<int[]> res = cache.get(key);
+		if (res == null) {
+			int[] rounded = new int[shape.length];
+			for (int d = 0; d < shape.length && rounded != null; d++) {
+				rounded[d] = up ? ceil(d, shape[d]) : floor(d, shape[d]);
+				if (rounded[d] < 0) rounded = null;
+			}
+			res = Optional.ofNullable(rounded);
+			if (cache.size() >= maxCacheSize) cache.clear();
+			cache.put(key, res);
+		}
+		return res.map(int[]::clone).orElse(null);
+	}
+
+	/**
+	 * @return all valid shapes within {@code [lower, upper]}, the last axis varying fastest
+	 */
+	public List<int[]> enumerate(int[] lower, int[] upper) {
+		checkShape(lower);
+		checkShape(upper);
+		int n = lower.length;
+		int[] first = new int[n];
+		int[] last = new int[n];
+		for (int d = 0; d < n; d++) {
+			first[d] = ceil(d, lower[d]);
+			last[d] = floor(d, upper[d]);
+			if (first[d] < 0 || last[d] < 0 || first[d] > last[d]) return new ArrayList<>();
+		}
+		List<int[]> res = new ArrayList<>();
+		int[] shape = first.clone();
+		while (true) {
+			res.add(shape.clone());
+			int d = n - 1;
+			for (; d >= 0; d--) {
+				if (step[d] > 0 && shape[d] + step[d] <= last[d]) {
+					shape[d] += step[d];
+					break;
+				}
+				shape[d] = first[d];
+			}
+			if (d < 0) return res;
+		}
+	}
+
+	/**
+	 * @return the number of shapes {@link #enumerate(int[], int[])} returns
+	 */
+	public long count(int[] lower, int[] upper) {
+		checkShape(lower);
+		checkShape(upper);
+		long res = 1;
+		for (int d = 0; d < lower.length; d++) {
+			int first = ceil(d, lower[d]);
+			int last = floor(d, upper[d]);
+			if (first < 0 || last < 0 || first > last) return 0;
+			res *= step[d] > 0 ? (last - first) / step[d] + 1 : 1;
+		}
+		return res;
+	}
+
+	int cacheSize() {
+		return ceilCache.size() + floorCache.size();
+	}
+
+	private void checkShape(int[] shape) {
+		if (shape.length != axes.length()) {
+			throw new IllegalArgumentException("Shape " + Arrays.toString(shape) + " does not match axes " + axes);
+		}
+	}
+
+	private static class Key {
+
+		private final int[] shape;
+		private final int hash;
+
+		Key(int[] shape) {
+			this.shape = shape.clone();
+			this.hash = Arrays.hashCode(shape);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(shape, ((Key) o).shape);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
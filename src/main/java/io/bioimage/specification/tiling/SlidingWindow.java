@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.processing.TensorPreprocessor;
+import io.bioimage.specification.runner.ModelRunner;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.statistics.StridedReduction;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.PaddedTensor;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams a stack slice by slice along one axis, e.g. {@code z} of a {@code bczyx} model or {@code t} of a
+ * time-lapse, through overlapping windows. Preprocessed slices are kept in a ring buffer as long as a window
+ * still needs them, so every slice is read and preprocessed exactly once however much the windows overlap.
+ * Consecutive windows overlap by twice the halo along the axis; each window is read from the ring buffer tile by tile
+ * by a {@link TilePipeline} and only its core slices are written to the result.
+ * <p>
+ * Slices are preprocessed one at a time and windows are postprocessed one at a time, so steps with per sample
+ * statistics over the streamed axis are rejected; {@link ImageTransformation.Mode#PER_DATASET} steps with
+ * precomputed statistics can be used instead.
+ */
+public class SlidingWindow {
+
+	/**
+	 * Reads the slices of a stack, e.g. from a file, in ascending order.
+	 */
+	public interface SliceReader {
+
+		/**
+		 * @return the slice in the axes of the input node, of length 1 along the streamed axis
+		 */
+		TensorBuffer read(int index) throws IOException;
+	}
+
+	private final InputNodeSpecification input;
+	private final OutputMapping mapping;
+	private final TensorPreprocessor preprocessor;
+	private final TilePipeline pipeline;
+	private final char axis;
+	private final int window;
+	private final int halo;
+	private Padding padding = Padding.EDGE;
+	private long memoryBudget = 1L << 28;
+	private final LongAdder reads = new LongAdder();
+
+	/**
+	 * @param window the number of slices of a window, more than twice the halo along the axis
+	 */
+	public SlidingWindow(ModelSpecification model, ModelRunner runner, char axis, int window) {
+		this(model, runner, axis, window, null, null);
+	}
+
+	/**
+	 * @param inputStatistics  statistics of the whole stack, or of the dataset it belongs to, used by
+	 *                         {@link ImageTransformation.Mode#PER_DATASET} preprocessing steps
+	 * @param outputStatistics statistics of the output node, used by {@link ImageTransformation.Mode#PER_DATASET}
+	 *                         postprocessing steps
+	 */
+	public SlidingWindow(ModelSpecification model, ModelRunner runner, char axis, int window, NodeStatistics inputStatistics, NodeStatistics outputStatistics) {
+		this.pipeline = new TilePipeline(model, runner, inputStatistics, outputStatistics);
+		this.input = model.getInputs().get(0);
+		OutputNodeSpecification output = model.getOutputs().get(0);
+		this.mapping = new OutputMapping(input, output);
+		this.preprocessor = new TensorPreprocessor(input, inputStatistics);
+		int d = input.getAxes().indexOf(axis);
+		if (d < 0) throw new IllegalArgumentException("Axis " + axis + " is not one of " + input.getAxes());
+		if (preprocessor.isPerSample() && StridedReduction.perSampleAxes(input.getAxes()).indexOf(axis) >= 0) {
+			throw new IllegalArgumentException("Preprocessing of " + input.getName() + " needs per sample statistics over "
+					+ axis + ", which are not available slice by slice; use per dataset statistics instead");
+		}
+		if (pipeline.isPostprocessedWhole() && StridedReduction.perSampleAxes(output.getAxes()).indexOf(axis) >= 0) {
+			throw new IllegalArgumentException("Postprocessing of " + output.getName() + " needs per sample statistics over "
+					+ axis + ", which are not available window by window");
+		}
+		int outputAxis = mapping.getOutputAxes().indexOf(axis);
+		if (outputAxis < 0 || mapping.getScale(outputAxis) != 1 || mapping.getOffset(outputAxis) != 0) {
+			throw new IllegalArgumentException("Streaming along " + axis + " needs an output of the length of the input along " + axis);
+		}
+		this.axis = axis;
+		this.halo = pipeline.getPlanner().getHalo()[d];
+		if (window <= 2 * halo) {
+			throw new IllegalArgumentException("Window of " + window + " slices leaves no core with a halo of " + halo);
+		}
+		this.window = window;
+	}
+
+	/**
+	 * @return the pipeline running the windows, e.g. to set its threads
+	 */
+	public TilePipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * @param padding how slices before the first and after the last slice are defined; {@link Padding#CONSTANT} pads with 0
+	 */
+	public void setPadding(Padding padding) {
+		this.padding = padding;
+		pipeline.setPadding(padding);
+	}
+
+	/**
+	 * @param memoryBudget the maximum number of bytes of an input tile plus its output within a window
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	public int getHalo() {
+		return halo;
+	}
+
+	/**
+	 * @return the number of slices read since the processor was created
+	 */
+	public long getReadCount() {
+		return reads.sum();
+	}
+
+	/**
+	 * @return the shape of the result for a stack of the given shape
+	 */
+	public int[] outputShape(int[] imageShape) {
+		return mapping.outputShape(imageShape);
+	}
+
+	/**
+	 * @param length the number of slices of the stack
+	 * @param result the output of the whole stack, see {@link #outputShape(int[])}
+	 */
+	public void run(int length, SliceReader reader, TensorBuffer result) throws IOException {
+		if (length < 1) throw new IllegalArgumentException("Stack needs at least one slice, got " + length);
+		int d = input.getAxes().indexOf(axis);
+		int core = window - 2 * halo;
+		int[] sliceShape = null;
+		TensorBuffer ring = null;
+		TensorBuffer zeros = null;
+		TensorBuffer windowResult = null;
+		TilingPlan plan = null;
+		int[] buffered = new int[window];
+		Arrays.fill(buffered, -1);
+		int next = 0;
+		for (int start = 0; start < length; start += core) {
+			int from = start - halo;
+			for (; next < Math.min(from + window, length); next++) {
+				TensorBuffer slice = reader.read(next);
+				reads.increment();
+				if (sliceShape == null) {
+					sliceShape = checkSlice(slice, d);
+					int[] shape = sliceShape.clone();
+					shape[d] = window;
+					ring = TensorBuffer.allocate(DataType.FLOAT32, input.getAxes(), shape);
+					zeros = TensorBuffer.allocate(DataType.FLOAT32, input.getAxes(), sliceShape);
+					plan = pipeline.getPlanner().plan(shape, memoryBudget);
+					windowResult = TensorBuffer.allocate(result.getDataType(), plan.getOutputAxes(), plan.getOutputShape());
+					int[] stackShape = sliceShape.clone();
+					stackShape[d] = length;
+					if (!result.getAxes().equals(plan.getOutputAxes()) || !Arrays.equals(result.getShape(), outputShape(stackShape))) {
+						throw new IllegalArgumentException("Result " + result + " does not match the output of a stack of " + Arrays.toString(stackShape));
+					}
+				} else if (!slice.getAxes().equals(input.getAxes()) || !Arrays.equals(slice.getShape(), sliceShape)) {
+					throw new IllegalArgumentException("Slice " + next + " " + slice + " does not match the first slice " + Arrays.toString(sliceShape));
+				}
+				int slot = next % window;
+				preprocessor.apply(slice, ring.slice(axis, slot, slot + 1));
+				buffered[slot] = next;
+			}
+			// the window is the ring rotated to its first slice; slices beyond the stack are resolved by the padding
+			TensorBuffer[] slices = new TensorBuffer[window];
+			for (int j = 0; j < window; j++) {
+				int index = padding.resolve(from + j, length);
+				if (index < 0) {
+					slices[j] = zeros;
+					continue;
+				}
+				int slot = index % window;
+				if (buffered[slot] != index) {
+					throw new IllegalStateException("Slice " + index + " of the window at " + from + " is no longer buffered");
+				}
+				slices[j] = ring.slice(axis, slot, slot + 1);
+			}
+			TensorBuffer empty = zeros;
+			pipeline.runPreprocessed((origin, values) -> read(slices, empty, d, origin, values), plan, windowResult);
+			int count = Math.min(core, length - start);
+			windowResult.slice(axis, halo, halo + count).copyTo(result.slice(axis, start, start + count));
+		}
+	}
+
+	/**
+	 * Reads a tile of the window slice by slice; tiles reaching beyond the window are padded like the window itself.
+	 */
+	private void read(TensorBuffer[] slices, TensorBuffer zeros, int d, int[] origin, TensorBuffer values) {
+		int[] offset = origin.clone();
+		int[] shape = values.getShape();
+		int count = shape[d];
+		offset[d] = 0;
+		shape[d] = 1;
+		for (int j = 0; j < count; j++) {
+			int index = padding.resolve(origin[d] + j, window);
+			TensorBuffer target = values.slice(axis, j, j + 1);
+			new PaddedTensor(index < 0 ? zeros : slices[index], padding, 0).region(offset, shape).copyTo(target);
+		}
+	}
+
+	private int[] checkSlice(TensorBuffer slice, int d) {
+		if (!slice.getAxes().equals(input.getAxes()) || slice.getShape()[d] != 1) {
+			throw new IllegalArgumentException("Slice " + slice + " has to be in axes " + input.getAxes() + " with length 1 along " + axis);
+		}
+		return slice.getShape();
+	}
+
+	@Override
+	public String toString() {
+		return "SlidingWindow(" + axis + ", " + window + " slices, halo " + halo + ")";
+	}
+}
@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import java.util.Arrays;
+
+/**
+ * One tile of a {@link TilingPlan}. The input region is given in the axes of the input node and may reach
+ * beyond the image, which then has to be padded. The output crop is given in the axes of the output node:
+ * the region {@code [outputCropOrigin, outputCropOrigin + outputCropShape)} of the tile output holds the valid
+ * values of {@code [outputTargetOrigin, outputTargetOrigin + outputCropShape)} of the full output.
+ */
+public class Tile {
+
+	private final int[] gridPosition;
+	private final int[] inputOrigin;
+	private final int[] inputShape;
+	private final int[] coreOrigin;
+	private final int[] coreShape;
+	private final int[] outputCropOrigin;
+	private final int[] outputCropShape;
+	private final int[] outputTargetOrigin;
+
+	public Tile(int[] gridPosition, int[] inputOrigin, int[] inputShape, int[] coreOrigin, int[] coreShape,
+			int[] outputCropOrigin, int[] outputCropShape, int[] outputTargetOrigin) {
+		this.gridPosition = gridPosition;
+		this.inputOrigin = inputOrigin;
+		this.inputShape = inputShape;
+		this.coreOrigin = coreOrigin;
+		this.coreShape = coreShape;
+		this.outputCropOrigin = outputCropOrigin;
+		this.outputCropShape = outputCropShape;
+		this.outputTargetOrigin = outputTargetOrigin;
+	}
+
+	public int[] getGridPosition() {
+		return gridPosition.clone();
+	}
+
+	/**
+	 * @return the first input position read by the tile, negative if the tile starts before the image
+	 */
+	public int[] getInputOrigin() {
+		return inputOrigin.clone();
+	}
+
+	public int[] getInputShape() {
+		return inputShape.clone();
+	}
+
+	/**
+	 * @return the first input position this tile computes the output for; the cores of all tiles partition the image
+	 */
+	public int[] getCoreOrigin() {
+		return coreOrigin.clone();
+	}
+
+	public int[] getCoreShape() {
+		return coreShape.clone();
+	}
+
+	public int[] getOutputCropOrigin() {
+		return outputCropOrigin.clone();
+	}
+
+	public int[] getOutputCropShape() {
+		return outputCropShape.clone();
+	}
+
+	public int[] getOutputTargetOrigin() {
+		return outputTargetOrigin.clone();
+	}
+
+	@Override
+	public String toString() {
+		return "Tile(" + Arrays.toString(gridPosition) + ", input " + Arrays.toString(inputOrigin) + Arrays.toString(inputShape) + ")";
+	}
+}
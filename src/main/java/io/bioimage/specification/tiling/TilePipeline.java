@@ -0,0 +1,342 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.processing.TensorPostprocessor;
+import io.bioimage.specification.processing.TensorPreprocessor;
+import io.bioimage.specification.processing.TransformedTensor;
+import io.bioimage.specification.runner.ModelRunner;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.PaddedTensor;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.tensor.TensorPool;
+import io.bioimage.specification.transformation.ImageTransformation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a model with one input and one output tile by tile, overlapping the stages of different tiles:
+ * reading a tile of the image, preprocessing it, running the model, postprocessing the prediction and
+ * stitching it into the output. Every stage has its own threads and takes its tiles from a bounded queue,
+ * so a slow stage, usually the model, blocks the stages before it instead of letting tiles pile up.
+ * <p>
+ * Per sample statistics of the preprocessing are computed once over the whole image. Tiles reaching
+ * beyond the image are padded while they are read, by repeating the border unless set otherwise.
+ * Postprocessing is applied per tile, unless it needs per sample statistics of the prediction: then the predictions
+ * are stitched into a {@code float32} tensor of the whole output first, which is postprocessed at the end.
+ */
+public class TilePipeline {
+
+	public enum Stage {
+		READ, PREPROCESS, INFERENCE, POSTPROCESS, STITCH
+	}
+
+	/**
+	 * Reads the values of a tile, which may reach beyond the input, e.g. from the slices of a {@link SlidingWindow}.
+	 */
+	interface TileReader {
+
+		/**
+		 * @param origin the position of the tile in the input
+		 * @param values receives the values of the tile
+		 */
+		void read(int[] origin, TensorBuffer values) throws IOException;
+	}
+
+	private final InputNodeSpecification input;
+	private final OutputNodeSpecification output;
+	private final TilingPlanner planner;
+	private final TensorPreprocessor preprocessor;
+	private final TensorPostprocessor postprocessor;
+	private final ModelRunner runner;
+	private final boolean postprocessWhole;
+	private final TensorPool pool = new TensorPool();
+	private final int[] threads = new int[Stage.values().length];
+	private int queueCapacity = 4;
+	private TileStitcher.Blending blending = TileStitcher.Blending.NONE;
+	private Padding padding = Padding.EDGE;
+
+	public TilePipeline(ModelSpecification model, ModelRunner runner) {
+		this(model, runner, null, null);
+	}
+
+	/**
+	 * @param inputStatistics  global statistics of the input node, used by {@link ImageTransformation.Mode#PER_DATASET} preprocessing steps, or null
+	 * @param outputStatistics global statistics of the output node, used by {@link ImageTransformation.Mode#PER_DATASET} postprocessing steps, or null
+	 */
+	public TilePipeline(ModelSpecification model, ModelRunner runner, NodeStatistics inputStatistics, NodeStatistics outputStatistics) {
+		if (model.getInputs() == null || model.getInputs().size() != 1 || model.getOutputs() == null || model.getOutputs().size() != 1) {
+			throw new IllegalArgumentException("Tiling needs a model with exactly one input and one output");
+		}
+		this.input = model.getInputs().get(0);
+		this.output = model.getOutputs().get(0);
+		this.planner = new TilingPlanner(input, output);
+		this.preprocessor = new TensorPreprocessor(input, inputStatistics);
+		this.postprocessor = new TensorPostprocessor(output, outputStatistics);
+		this.runner = runner;
+		this.postprocessWhole = postprocessor.isPerSample();
+		int cores = Runtime.getRuntime().availableProcessors();
+		threads[Stage.READ.ordinal()] = 1;
+		threads[Stage.PREPROCESS.ordinal()] = Math.max(1, cores / 4);
+		threads[Stage.INFERENCE.ordinal()] = 1;
+		threads[Stage.POSTPROCESS.ordinal()] = Math.max(1, cores / 4);
+		threads[Stage.STITCH.ordinal()] = 1;
+	}
+
+	public void setThreads(Stage stage, int threads) {
+		if (threads < 1) throw new IllegalArgumentException("Stage " + stage + " needs at least one thread, got " + threads);
+		this.threads[stage.ordinal()] = threads;
+	}
+
+	public int getThreads(Stage stage) {
+		return threads[stage.ordinal()];
+	}
+
+	/**
+	 * @param queueCapacity the number of tiles waiting between two stages
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) throw new IllegalArgumentException("Queue capacity has to be positive, got " + queueCapacity);
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param blending how the outputs of overlapping tiles are combined; blending needs a {@code float32} output
+	 */
+	public void setBlending(TileStitcher.Blending blending) {
+		this.blending = blending;
+	}
+
+	/**
+	 * @param padding how values of tiles beyond the image are defined; {@link Padding#CONSTANT} pads with 0
+	 */
+	public void setPadding(Padding padding) {
+		this.padding = padding;
+	}
+
+	/**
+	 * Plans the tiles of the image and runs them into a newly allocated output.
+	 *
+	 * @param memoryBudget the maximum number of bytes of an input tile plus its output, see {@link TilingPlanner#plan(int[], long)}
+	 */
+	public TensorBuffer run(TensorBuffer image, long memoryBudget) throws IOException {
+		TilingPlan plan = planner.plan(image.getShape(), memoryBudget);
+		DataType type = blending == TileStitcher.Blending.NONE ? postprocessor.getOutputType() : DataType.FLOAT32;
+		TensorBuffer res = TensorBuffer.allocate(type, plan.getOutputAxes(), plan.getOutputShape());
+		run(image, plan, res);
+		return res;
+	}
+
+	/**
+	 * @param result a preallocated, possibly memory mapped, output of the plan's output shape
+	 */
+	public void run(TensorBuffer image, TilingPlan plan, TensorBuffer result) throws IOException {
+		checkTensors(image.getAxes(), plan, result);
+		TransformedTensor view = preprocessor.view(image);
+		TensorBuffer source = view.getSource();
+		run(reader(source), source.getDataType(), view, plan, result);
+	}
+
+	/**
+	 * Runs the tiles of an input which is preprocessed already, e.g. a window of a {@link SlidingWindow}.
+	 *
+	 * @param input a {@code float32} tensor in the axes of the input node
+	 */
+	public void runPreprocessed(TensorBuffer input, TilingPlan plan, TensorBuffer result) throws IOException {
+		checkTensors(input.getAxes(), plan, result);
+		if (input.getDataType() != DataType.FLOAT32) {
+			throw new IllegalArgumentException("Preprocessed input has to be float32, got " + input.getDataType());
+		}
+		run(reader(input), DataType.FLOAT32, null, plan, result);
+	}
+
+	/**
+	 * Runs the tiles of a preprocessed input which is only available through its tiles.
+	 */
+	void runPreprocessed(TileReader reader, TilingPlan plan, TensorBuffer result) throws IOException {
+		checkTensors(plan.getInputAxes(), plan, result);
+		run(reader, DataType.FLOAT32, null, plan, result);
+	}
+
+	/**
+	 * @return true if the postprocessing needs per sample statistics, so it runs on the stitched prediction
+	 */
+	boolean isPostprocessedWhole() {
+		return postprocessWhole;
+	}
+
+	/**
+	 * @return the planner of the tiles of {@link #run(TensorBuffer, long)}
+	 */
+	public TilingPlanner getPlanner() {
+		return planner;
+	}
+
+	private void checkTensors(String axes, TilingPlan plan, TensorBuffer result) {
+		if (!axes.equals(plan.getInputAxes())) {
+			throw new IllegalArgumentException("Image axes " + axes + " do not match " + plan.getInputAxes());
+		}
+		if (blending != TileStitcher.Blending.NONE && result.getDataType() != DataType.FLOAT32) {
+			throw new IllegalArgumentException("Blending needs a float32 output, got " + result.getDataType());
+		}
+	}
+
+	private TileReader reader(TensorBuffer source) {
+		return (origin, values) -> new PaddedTensor(source, padding, 0).region(origin, values.getShape()).copyTo(values);
+	}
+
+	/**
+	 * @param type the data type of the values read
+	 * @param view the preprocessing of the values read, or null if they are preprocessed already
+	 */
+	private void run(TileReader reader, DataType type, TransformedTensor view, TilingPlan plan, TensorBuffer result) throws IOException {
+		TensorBuffer prediction = postprocessWhole ? TensorBuffer.allocate(DataType.FLOAT32, result.getAxes(), result.getShape()) : null;
+		TileStitcher stitcher = new TileStitcher(plan, prediction != null ? prediction : result, blending);
+		List<Tile> tiles = plan.getTiles();
+		Stage[] stages = Stage.values();
+		List<BlockingQueue<Job>> queues = new ArrayList<>();
+		for (int i = 0; i < stages.length; i++) queues.add(new ArrayBlockingQueue<>(queueCapacity));
+		List<ExecutorService> pools = new ArrayList<>();
+		for (Stage stage : stages) pools.add(Executors.newFixedThreadPool(threads[stage.ordinal()]));
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		try {
+			for (Stage stage : stages) {
+				AtomicInteger claimed = new AtomicInteger();
+				BlockingQueue<Job> in = queues.get(stage.ordinal());
+				BlockingQueue<Job> out = stage.ordinal() + 1 < stages.length ? queues.get(stage.ordinal() + 1) : null;
+				for (int t = 0; t < threads[stage.ordinal()]; t++) {
+					pools.get(stage.ordinal()).execute(() -> {
+						try {
+							for (int index; (index = claimed.getAndIncrement()) < tiles.size(); ) {
+								Job job = stage == Stage.READ ? new Job(tiles.get(index)) : in.take();
+								process(stage, job, reader, type, view, stitcher);
+								if (out != null) out.put(job);
+							}
+						} catch (Throwable e) {
+							// interrupts the other stages, which may wait for tiles which never come
+							if (failure.compareAndSet(null, e)) pools.forEach(ExecutorService::shutdownNow);
+						}
+					});
+				}
+			}
+			for (ExecutorService stagePool : pools) stagePool.shutdown();
+			for (ExecutorService stagePool : pools) stagePool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while running tiles of " + input.getName(), e);
+		} catch (RejectedExecutionException e) {
+			// a stage failed before all stages were started
+			failure.compareAndSet(null, e);
+		} finally {
+			pools.forEach(ExecutorService::shutdownNow);
+		}
+		Throwable cause = failure.get();
+		if (cause instanceof IOException) throw (IOException) cause;
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		if (cause instanceof Error) throw (Error) cause;
+		if (cause != null) throw new IOException("Could not run tiles of " + input.getName(), cause);
+		stitcher.finish();
+		if (prediction == null) return;
+		if (result.getDataType() == postprocessor.getOutputType()) postprocessor.apply(prediction, result);
+		else postprocessor.apply(prediction).copyTo(result);
+	}
+
+	private void process(Stage stage, Job job, TileReader reader, DataType type, TransformedTensor view, TileStitcher stitcher) throws IOException {
+		Tile tile = job.tile;
+		String axes = input.getAxes();
+		switch (stage) {
+			case READ:
+				job.values = pool.acquire(type, axes, tile.getInputShape());
+				reader.read(tile.getInputOrigin(), job.values);
+				break;
+			case PREPROCESS:
+				if (view == null) {
+					job.input = job.values;
+					break;
+				}
+				job.input = pool.acquire(DataType.FLOAT32, axes, tile.getInputShape());
+				view.region(tile.getInputOrigin(), job.values).copyTo(job.input);
+				pool.release(job.values);
+				break;
+			case INFERENCE:
+				Map<String, TensorBuffer> outputs = runner.run(Collections.singletonMap(input.getName(), job.input));
+				job.prediction = outputs.get(output.getName());
+				if (job.prediction == null) throw new IOException("Model did not return output " + output.getName());
+				break;
+			case POSTPROCESS:
+				// per sample postprocessing runs on the stitched prediction
+				if (postprocessWhole) break;
+				job.output = pool.acquire(postprocessor.getOutputType(), job.prediction.getAxes(), job.prediction.getShape());
+				postprocessor.apply(job.prediction, job.output);
+				break;
+			default:
+				if (job.output != null) {
+					stitcher.stitch(tile, job.output);
+					pool.release(job.output);
+				} else {
+					stitcher.stitch(tile, job.prediction);
+				}
+				// the prediction may be a view of the input, so the input is reused only after the prediction
+				pool.release(job.input);
+		}
+	}
+
+	/**
+	 * The tensors of one tile on its way through the stages.
+	 */
+	private static class Job {
+
+		private final Tile tile;
+		private TensorBuffer values;
+		private TensorBuffer input;
+		private TensorBuffer prediction;
+		private TensorBuffer output;
+
+		Job(Tile tile) {
+			this.tile = tile;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * Writes the outputs of the tiles of a {@link TilingPlan} into a preallocated output tensor, which may be
+ * memory mapped. Without blending, only the output crop of every tile is copied, row by row and in bulk where
+ * the data types match; the crops of all tiles are disjoint, so tiles can be stitched concurrently.
+ * <p>
+ * With blending, every tile contributes its output up to the output halo at borders shared with other tiles,
+ * weighted by a ramp which falls off towards these borders. Contributions and weights are accumulated in place
+ * and {@link #finish()} divides the output by the accumulated weights.
+ */
+public class TileStitcher {
+
+	public enum Blending {
+		NONE, LINEAR, COSINE
+	}
+
+	private static final int lockStripes = 64;
+
+	private final TilingPlan plan;
+	private final TensorBuffer output;
+	private final Blending blending;
+	private final int[] outputToInput;
+	private final TensorBuffer weights;
+	private final Object[] locks;
+
+	public TileStitcher(TilingPlan plan, TensorBuffer output) {
+		this(plan, output, Blending.NONE);
+	}
+
+	/**
+	 * @param output a tensor in the output axes of the plan and of its output shape; with blending, it is zeroed
+	 */
+	public TileStitcher(TilingPlan plan, TensorBuffer output, Blending blending) {
+		if (!output.getAxes().equals(plan.getOutputAxes()) || !Arrays.equals(output.getShape(), plan.getOutputShape())) {
+			throw new IllegalArgumentException("Output " + output + " does not match " + plan.getOutputAxes() + Arrays.toString(plan.getOutputShape()));
+		}
+		this.plan = plan;
+		this.output = output;
+		this.blending = blending;
+		String axes = plan.getOutputAxes();
+		this.outputToInput = new int[axes.length()];
+		for (int i = 0; i < outputToInput.length; i++) outputToInput[i] = plan.getInputAxes().indexOf(axes.charAt(i));
+		if (blending == Blending.NONE) {
+			this.weights = null;
+			this.locks = null;
+		} else {
+			this.weights = TensorBuffer.allocate(DataType.FLOAT32, axes, plan.getOutputShape());
+			this.locks = new Object[lockStripes];
+			for (int i = 0; i < lockStripes; i++) locks[i] = new Object();
+			output.forEachRow((start, stride, length, logicalOffset) -> {
+				for (int i = 0; i < length; i++) output.set(start + i * stride, 0);
+			});
+		}
+	}
+
+	public TensorBuffer getOutput() {
+		return output;
+	}
+
+	public Blending getBlending() {
+		return blending;
+	}
+
+	/**
+	 * Writes the output of a tile. Can be called concurrently for different tiles.
+	 *
+	 * @param tileOutput the output of the tile, in the output axes of the plan and of its output tile shape
+	 */
+	public void stitch(Tile tile, TensorBuffer tileOutput) {
+		if (!tileOutput.getAxes().equals(plan.getOutputAxes()) || !Arrays.equals(tileOutput.getShape(), plan.getOutputTileShape())) {
+			throw new IllegalArgumentException("Tile output " + tileOutput + " does not match " + plan.getOutputAxes() + Arrays.toString(plan.getOutputTileShape()));
+		}
+		int[] cropShape = tile.getOutputCropShape();
+		if (blending == Blending.NONE) {
+			region(tileOutput, tile.getOutputCropOrigin(), cropShape).copyTo(region(output, tile.getOutputTargetOrigin(), cropShape));
+		} else {
+			blend(tile, tileOutput);
+		}
+	}
+
+	/**
+	 * Divides the blended output by the accumulated weights; does nothing without blending.
+	 */
+	public void finish() {
+		if (blending == Blending.NONE) return;
+		int[] shape = output.getShape();
+		int rowLength = shape[shape.length - 1];
+		LongStream.range(0, output.getSize() / rowLength).parallel().forEach(row -> {
+			float[] values = new float[rowLength];
+			float[] weight = new float[rowLength];
+			output.read(row * rowLength, values, 0, rowLength);
+			weights.read(row * rowLength, weight, 0, rowLength);
+			for (int i = 0; i < rowLength; i++) {
+				if (weight[i] > 0) values[i] /= weight[i];
+			}
+			output.write(row * rowLength, values, 0, rowLength);
+		});
+	}
+
+	private void blend(Tile tile, TensorBuffer tileOutput) {
+		int m = outputToInput.length;
+		int[] outputShape = plan.getOutputShape();
+		int[] tileShape = plan.getOutputTileShape();
+		int[] halo = plan.getOutputHalo();
+		int[] gridShape = plan.getGridShape();
+		int[] grid = tile.getGridPosition();
+		int[] cropOrigin = tile.getOutputCropOrigin();
+		int[] cropShape = tile.getOutputCropShape();
+		int[] targetOrigin = tile.getOutputTargetOrigin();
+		int[] regionOrigin = new int[m];
+		int[] regionShape = new int[m];
+		float[][] axisWeights = new float[m][];
+		for (int i = 0; i < m; i++) {
+			int d = outputToInput[i];
+			boolean before = d >= 0 && grid[d] > 0;
+			boolean after = d >= 0 && grid[d] < gridShape[d] - 1;
+			int tileStart = targetOrigin[i] - cropOrigin[i];
+			int cropEnd = targetOrigin[i] + cropShape[i];
+			int from = Math.max(0, before ? Math.min(targetOrigin[i], tileStart + halo[i]) : tileStart);
+			int to = Math.min(outputShape[i], after ? Math.max(cropEnd, tileStart + tileShape[i] - halo[i]) : tileStart + tileShape[i]);
+			regionOrigin[i] = from - tileStart;
+			regionShape[i] = to - from;
+			axisWeights[i] = ramp(to - from, before ? 2 * (targetOrigin[i] - from) : 0, after ? 2 * (to - cropEnd) : 0);
+			targetOrigin[i] = from;
+		}
+		TensorBuffer source = region(tileOutput, regionOrigin, regionShape);
+		TensorBuffer target = region(output, targetOrigin, regionShape);
+		TensorBuffer weight = region(weights, targetOrigin, regionShape);
+		int rowLength = regionShape[m - 1];
+		long rows = source.getSize() / Math.max(1, rowLength);
+		float[] values = new float[rowLength];
+		float[] accumulated = new float[rowLength];
+		float[] accumulatedWeight = new float[rowLength];
+		float[] rowWeight = axisWeights[m - 1];
+		for (long row = 0; row < rows; row++) {
+			float outer = 1;
+			long globalRow = 0;
+			long rest = row;
+			long rowStride = 1;
+			for (int i = m - 2; i >= 0; i--) {
+				int position = (int) (rest % regionShape[i]);
+				rest /= regionShape[i];
+				outer *= axisWeights[i][position];
+				globalRow += (targetOrigin[i] + position) * rowStride;
+				rowStride *= outputShape[i];
+			}
+			long logical = row * rowLength;
+			source.read(logical, values, 0, rowLength);
+			synchronized (locks[(int) (globalRow % lockStripes)]) {
+				target.read(logical, accumulated, 0, rowLength);
+				weight.read(logical, accumulatedWeight, 0, rowLength);
+				for (int x = 0; x < rowLength; x++) {
+					float w = outer * rowWeight[x];
+					accumulated[x] += w * values[x];
+					accumulatedWeight[x] += w;
+				}
+				target.write(logical, accumulated, 0, rowLength);
+				weight.write(logical, accumulatedWeight, 0, rowLength);
+			}
+		}
+	}
+
+	/**
+	 * @return weights which rise over the first {@code rampIn} and fall over the last {@code rampOut} elements
+	 */
+	private float[] ramp(int length, int rampIn, int rampOut) {
+		float[] res = new float[length];
+		for (int x = 0; x < length; x++) {
+			double w = 1;
+			if (x < rampIn) w = Math.min(w, shape((x + 0.5) / rampIn));
+			if (length - x <= rampOut) w = Math.min(w, shape((length - x - 0.5) / rampOut));
+			res[x] = (float) w;
+		}
+		return res;
+	}
+
+	private double shape(double t) {
+		return blending == Blending.COSINE ? 0.5 - 0.5 * Math.cos(Math.PI * t) : t;
+	}
+
+	private static TensorBuffer region(TensorBuffer tensor, int[] origin, int[] shape) {
+		String axes = tensor.getAxes();
+		TensorBuffer res = tensor;
+		for (int i = 0; i < shape.length; i++) res = res.slice(axes.charAt(i), origin[i], origin[i] + shape[i]);
+		return res;
+	}
+}
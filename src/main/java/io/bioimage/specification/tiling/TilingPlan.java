@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A grid of equally shaped tiles covering an image, as computed by the {@link TilingPlanner}.
+ */
+public class TilingPlan {
+
+	private final String inputAxes;
+	private final String outputAxes;
+	private final int[] imageShape;
+	private final int[] tileShape;
+	private final int[] outputTileShape;
+	private final int[] outputShape;
+	private final int[] gridShape;
+	private final int[] outputHalo;
+	private final List<Tile> tiles;
+
+	public TilingPlan(String inputAxes, String outputAxes, int[] imageShape, int[] tileShape, int[] outputTileShape,
+			int[] outputShape, int[] gridShape, int[] outputHalo, List<Tile> tiles) {
+		this.inputAxes = inputAxes;
+		this.outputAxes = outputAxes;
+		this.imageShape = imageShape;
+		this.tileShape = tileShape;
+		this.outputTileShape = outputTileShape;
+		this.outputShape = outputShape;
+		this.gridShape = gridShape;
+		this.outputHalo = outputHalo;
+		this.tiles = Collections.unmodifiableList(tiles);
+	}
+
+	public String getInputAxes() {
+		return inputAxes;
+	}
+
+	public String getOutputAxes() {
+		return outputAxes;
+	}
+
+	public int[] getImageShape() {
+		return imageShape.clone();
+	}
+
+	/**
+	 * @return the input shape of every tile, a valid shape of the input node
+	 */
+	public int[] getTileShape() {
+		return tileShape.clone();
+	}
+
+	public int[] getOutputTileShape() {
+		return outputTileShape.clone();
+	}
+
+	/**
+	 * @return the shape of the full output, in the axes of the output node
+	 */
+	public int[] getOutputShape() {
+		return outputShape.clone();
+	}
+
+	public int[] getGridShape() {
+		return gridShape.clone();
+	}
+
+	/**
+	 * @return the number of output pixels at each border of a tile output which are affected by the padding of the tile
+	 */
+	public int[] getOutputHalo() {
+		return outputHalo.clone();
+	}
+
+	public List<Tile> getTiles() {
+		return tiles;
+	}
+
+	public long getTileSize() {
+		long res = 1;
+		for (int dim : tileShape) res *= dim;
+		return res;
+	}
+
+	/**
+	 * @return the number of input elements processed over the number of image elements, 1 if nothing is computed twice
+	 */
+	public double getRedundancy() {
+		long image = 1;
+		for (int dim : imageShape) image *= dim;
+		return image == 0 ? 1 : (double) getTileSize() * tiles.size() / image;
+	}
+
+	@Override
+	public String toString() {
+		return "TilingPlan(" + inputAxes + Arrays.toString(tileShape) + " x " + Arrays.toString(gridShape) + ")";
+	}
+}
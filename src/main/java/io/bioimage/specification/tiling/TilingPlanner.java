@@ -0,0 +1,280 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.NodeSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.tensor.DataType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits an image into tiles which an input node accepts ({@code shape.min + k * shape.step} per axis) and
+ * which fit into a memory budget. Neighbouring tiles overlap by the halo, so the output of every tile
+ * is cropped to its core and the cores of all tiles partition the image.
+ * The halo is taken from the output node (in output pixels) or, for older specifications, from the input node.
+ * <p>
+ * Starting with a single tile, the planner repeatedly splits the axis which adds the least redundant computation,
+ * until the input and output tile fit into the budget.
+ */
+public class TilingPlanner {
+
+	private final InputNodeSpecification input;
+	private final OutputNodeSpecification output;
+	private final ShapeSolver solver;
+	private final int[] halo;
+	private final OutputMapping mapping;
+	private final double[] scale;
+	private final int[] offset;
+	private final int[] outputToInput;
+
+	public TilingPlanner(InputNodeSpecification input, OutputNodeSpecification output) {
+		this.input = input;
+		this.output = output;
+		String axes = input.getAxes();
+		int n = axes.length();
+		this.solver = ShapeSolver.of(input);
+		this.mapping = new OutputMapping(input, output);
+		String outputAxes = output.getAxes();
+		this.outputToInput = new int[outputAxes.length()];
+		this.scale = new double[outputAxes.length()];
+		this.offset = new int[outputAxes.length()];
+		for (int i = 0; i < outputAxes.length(); i++) {
+			outputToInput[i] = mapping.getInputAxis(i);
+			if (outputToInput[i] < 0) {
+				throw new IllegalArgumentException("Output axis " + outputAxes.charAt(i) + " of " + output.getName() + " is not an axis of " + input.getName());
+			}
+			scale[i] = mapping.getScale(i);
+			offset[i] = mapping.getOffset(i);
+		}
+		this.halo = new int[n];
+		if (output.getHalo() != null) {
+			for (int i = 0; i < outputAxes.length(); i++) {
+				int d = outputToInput[i];
+				halo[d] = Math.max(halo[d], (int) Math.ceil(output.getHalo().get(i) / scale[i]));
+			}
+		} else if (input.getHalo() != null) {
+			for (int d = 0; d < n; d++) halo[d] = input.getHalo().get(d);
+		}
+	}
+
+	/**
+	 * @return the context every tile needs around its core, per axis of the input node
+	 */
+	public int[] getHalo() {
+		return halo.clone();
+	}
+
+	/**
+	 * @param imageShape the shape of the image, in the axes of the input node
+	 * @param memoryBudget the maximum number of bytes of an input tile plus its output
+	 */
+	public TilingPlan plan(int[] imageShape, long memoryBudget) {
+		String axes = input.getAxes();
+		if (imageShape.length != axes.length()) {
+			throw new IllegalArgumentException("Image shape " + Arrays.toString(imageShape) + " does not match axes " + axes);
+		}
+		int n = imageShape.length;
+		Axis[] grid = new Axis[n];
+		for (int d = 0; d < n; d++) grid[d] = new Axis(axes.charAt(d), imageShape[d], solver, d, halo[d]);
+		while (memory(grid) > memoryBudget) {
+			int best = -1;
+			double bestCost = Double.MAX_VALUE;
+			for (int d = 0; d < n; d++) {
+				int tiles = grid[d].nextTiles();
+				if (tiles < 0) continue;
+				int previous = grid[d].tiles;
+				grid[d].setTiles(tiles);
+				double cost = cost(grid);
+				grid[d].setTiles(previous);
+				if (cost < bestCost) {
+					bestCost = cost;
+					best = d;
+				}
+			}
+			if (best < 0) {
+				throw new IllegalArgumentException("Smallest tile of " + input.getName() + " needs " + memory(grid) + " bytes, more than the budget of " + memoryBudget);
+			}
+			grid[best].setTiles(grid[best].nextTiles());
+		}
+		return createPlan(imageShape, grid);
+	}
+
+	private long memory(Axis[] grid) {
+		long inputSize = 1;
+		for (Axis axis : grid) inputSize *= axis.size;
+		long outputSize = 1;
+		for (int i = 0; i < scale.length; i++) outputSize *= outputLength(grid[outputToInput[i]].size, i);
+		return inputSize * byteSize(input) + outputSize * byteSize(output);
+	}
+
+	private static double cost(Axis[] grid) {
+		double res = 1;
+		for (Axis axis : grid) res *= (double) axis.tiles * axis.size;
+		return res;
+	}
+
+	private static int byteSize(NodeSpecification node) {
+		return node.getDataType() != null ? DataType.of(node).getByteSize() : DataType.FLOAT32.getByteSize();
+	}
+
+	private int outputLength(int inputLength, int outputDim) {
+		return mapping.outputLength(outputDim, inputLength);
+	}
+
+	private TilingPlan createPlan(int[] imageShape, Axis[] grid) {
+		int n = grid.length;
+		int[] tileShape = new int[n];
+		int[] gridShape = new int[n];
+		for (int d = 0; d < n; d++) {
+			tileShape[d] = grid[d].size;
+			gridShape[d] = grid[d].tiles;
+		}
+		int m = scale.length;
+		int[] outputTileShape = new int[m];
+		int[] outputShape = new int[m];
+		int[] outputHalo = new int[m];
+		for (int i = 0; i < m; i++) {
+			outputTileShape[i] = outputLength(tileShape[outputToInput[i]], i);
+			outputShape[i] = outputLength(imageShape[outputToInput[i]], i);
+			outputHalo[i] = output.getHalo() != null ? output.getHalo().get(i) : (int) Math.ceil(halo[outputToInput[i]] * scale[i]);
+		}
+		List<Tile> tiles = new ArrayList<>();
+		int[] position = new int[n];
+		long count = 1;
+		for (int dim : gridShape) count *= dim;
+		for (long t = 0; t < count; t++) {
+			int[] inputOrigin = new int[n];
+			int[] coreOrigin = new int[n];
+			int[] coreShape = new int[n];
+			for (int d = 0; d < n; d++) {
+				coreOrigin[d] = grid[d].coreStart(position[d]);
+				coreShape[d] = grid[d].coreStart(position[d] + 1) - coreOrigin[d];
+				inputOrigin[d] = grid[d].tileStart(position[d]);
+			}
+			int[] cropOrigin = new int[m];
+			int[] cropShape = new int[m];
+			int[] targetOrigin = new int[m];
+			for (int i = 0; i < m; i++) {
+				int d = outputToInput[i];
+				int from = position[d] == 0 ? 0 : (int) Math.round(coreOrigin[d] * scale[i]) + offset[i];
+				int to = position[d] == gridShape[d] - 1 ? outputShape[i] : (int) Math.round((coreOrigin[d] + coreShape[d]) * scale[i]) + offset[i];
+				targetOrigin[i] = from;
+				cropShape[i] = to - from;
+				cropOrigin[i] = from - (int) Math.round(inputOrigin[d] * scale[i]);
+			}
+			tiles.add(new Tile(position.clone(), inputOrigin, tileShape.clone(), coreOrigin, coreShape, cropOrigin, cropShape, targetOrigin));
+			for (int d = n - 1; d >= 0 && ++position[d] == gridShape[d]; d--) position[d] = 0;
+		}
+		return new TilingPlan(input.getAxes(), output.getAxes(), imageShape.clone(), tileShape, outputTileShape, outputShape, gridShape, outputHalo, tiles);
+	}
+
+	/**
+	 * The tiling of one axis: {@code tiles} cores of (almost) equal length, each inside a tile of the valid length {@code size}.
+	 */
+	private static class Axis {
+
+		private final char name;
+		private final int length;
+		private final ShapeSolver solver;
+		private final int dim;
+		private final int min;
+		private final int step;
+		private final int halo;
+		private int tiles;
+		private int size;
+
+		Axis(char name, int length, ShapeSolver solver, int dim, int halo) {
+			this.name = name;
+			this.length = length;
+			this.solver = solver;
+			this.dim = dim;
+			this.min = solver.getMin(dim);
+			this.step = solver.getStep(dim);
+			this.halo = halo;
+			if (step == 0 && length > min) {
+				if (name == 'c') {
+					throw new IllegalArgumentException("Axis " + name + " has the fixed size " + min + ", the image has " + length);
+				}
+				if (min - 2 * halo < 1) throw new IllegalArgumentException("Halo " + halo + " of axis " + name + " does not fit into " + min);
+				setTiles((length + min - 2 * halo - 1) / (min - 2 * halo));
+			} else {
+				setTiles(1);
+			}
+		}
+
+		void setTiles(int tiles) {
+			this.tiles = tiles;
+			this.size = size(tiles);
+		}
+
+		/**
+		 * @return the smallest valid tile length for the number of tiles
+		 */
+		private int size(int tiles) {
+			int core = (length + tiles - 1) / tiles;
+			int needed = tiles == 1 ? core : core + 2 * halo;
+			return step == 0 ? min : solver.ceil(dim, needed);
+		}
+
+		/**
+		 * @return the smallest number of tiles which makes the tiles smaller, or -1 if they cannot get smaller
+		 */
+		int nextTiles() {
+			if (step == 0) return -1;
+			for (int next = tiles + 1; next <= length; next++) {
+				int nextSize = size(next);
+				if (nextSize < size) return next;
+				if (nextSize == min) return -1;
+			}
+			return -1;
+		}
+
+		int coreStart(int index) {
+			return (int) ((long) index * length / tiles);
+		}
+
+		/**
+		 * @return the start of the tile, centered on its core and moved inside the image as far as possible
+		 */
+		int tileStart(int index) {
+			int core = coreStart(index + 1) - coreStart(index);
+			int start = coreStart(index) - (size - core) / 2;
+			return Math.max(Math.min(0, length - size), Math.min(Math.max(0, length - size), start));
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + tiles + " x " + size;
+		}
+	}
+}
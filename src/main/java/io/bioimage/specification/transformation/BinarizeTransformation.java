@@ -28,6 +28,9 @@
  */
 package io.bioimage.specification.transformation;
 
+import java.util.Collections;
+import java.util.Map;
+
 public class BinarizeTransformation extends DefaultImageTransformation {
 
 	public static final String name = "binarize";
@@ -45,4 +48,28 @@ public class BinarizeTransformation extends DefaultImageTransformation {
 	public String getName() {
 		return name;
 	}
+
+	public static class Descriptor extends DefaultTransformationDescriptor<BinarizeTransformation> {
+
+		private final static String idThreshold = "threshold";
+
+		public Descriptor() {
+			super(name, BinarizeTransformation.class);
+		}
+
+		@Override
+		protected BinarizeTransformation create() {
+			return new BinarizeTransformation();
+		}
+
+		@Override
+		protected void readKwargs(BinarizeTransformation transformation, Map<String, Object> kwargs) {
+			transformation.setThreshold(toNumber(kwargs.get(idThreshold)));
+		}
+
+		@Override
+		protected void writeKwargs(BinarizeTransformation transformation, Map<String, Object> kwargs) {
+			kwargs.put(idThreshold, Collections.singletonList(transformation.getThreshold()));
+		}
+	}
 }
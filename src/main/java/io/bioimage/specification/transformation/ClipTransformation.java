@@ -28,6 +28,8 @@
  */
 package io.bioimage.specification.transformation;
 
+import java.util.Map;
+
 public class ClipTransformation extends DefaultImageTransformation {
 
 	public static final String name = "clip";
@@ -54,4 +56,31 @@ public class ClipTransformation extends DefaultImageTransformation {
 	public String getName() {
 		return name;
 	}
+
+	public static class Descriptor extends DefaultTransformationDescriptor<ClipTransformation> {
+
+		private final static String idMin = "min";
+		private final static String idMax = "max";
+
+		public Descriptor() {
+			super(name, ClipTransformation.class);
+		}
+
+		@Override
+		protected ClipTransformation create() {
+			return new ClipTransformation();
+		}
+
+		@Override
+		protected void readKwargs(ClipTransformation transformation, Map<String, Object> kwargs) {
+			transformation.setMin(toNumber(kwargs.get(idMin)));
+			transformation.setMax(toNumber(kwargs.get(idMax)));
+		}
+
+		@Override
+		protected void writeKwargs(ClipTransformation transformation, Map<String, Object> kwargs) {
+			kwargs.put(idMin, transformation.getMin());
+			kwargs.put(idMax, transformation.getMax());
+		}
+	}
 }
@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.transformation;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for descriptors of {@link ImageTransformation}s, handling the {@code mode} kwarg.
+ */
+public abstract class DefaultTransformationDescriptor<T extends ImageTransformation> implements TransformationDescriptor<T> {
+
+	protected final static String idMode = "mode";
+
+	private final String name;
+	private final Class<T> type;
+
+	protected DefaultTransformationDescriptor(String name, Class<T> type) {
+		this.name = name;
+		this.type = type;
+	}
+
+	protected abstract T create();
+
+	protected abstract void readKwargs(T transformation, Map<String, Object> kwargs);
+
+	protected abstract void writeKwargs(T transformation, Map<String, Object> kwargs);
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Class<T> getType() {
+		return type;
+	}
+
+	@Override
+	public T read(Map<String, Object> kwargs) {
+		T transformation = create();
+		Object mode = kwargs.get(idMode);
+		if (mode != null) transformation.setMode(mode.toString());
+		readKwargs(transformation, kwargs);
+		return transformation;
+	}
+
+	@Override
+	public Map<String, Object> write(T transformation) {
+		Map<String, Object> kwargs = new LinkedHashMap<>();
+		kwargs.put(idMode, transformation.getMode() != null ? transformation.getMode().getName() : null);
+		writeKwargs(transformation, kwargs);
+		return kwargs;
+	}
+
+	/**
+	 * Reads a number which may also be given as a list with a single entry.
+	 */
+	protected static Number toNumber(Object obj) {
+		if (obj == null) return null;
+		if (Number.class.isAssignableFrom(obj.getClass())) {
+			return (Number) obj;
+		}
+		if (List.class.isAssignableFrom(obj.getClass())) {
+			return toNumber(((List) obj).get(0));
+		}
+		throw new ClassCastException("Cannot convert " + obj + " to number.");
+	}
+}
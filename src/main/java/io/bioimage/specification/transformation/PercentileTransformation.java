@@ -28,7 +28,7 @@
  */
 package io.bioimage.specification.transformation;
 
-import io.bioimage.specification.transformation.DefaultImageTransformation;
+import java.util.Map;
 
 public class PercentileTransformation extends DefaultImageTransformation {
 
@@ -56,4 +56,31 @@ public class PercentileTransformation extends DefaultImageTransformation {
 	public String getName() {
 		return name;
 	}
+
+	public static class Descriptor extends DefaultTransformationDescriptor<PercentileTransformation> {
+
+		private final static String idMinPercentile = "min_percentile";
+		private final static String idMaxPercentile = "max_percentile";
+
+		public Descriptor() {
+			super(name, PercentileTransformation.class);
+		}
+
+		@Override
+		protected PercentileTransformation create() {
+			return new PercentileTransformation();
+		}
+
+		@Override
+		protected void readKwargs(PercentileTransformation transformation, Map<String, Object> kwargs) {
+			transformation.setMinPercentile(toNumber(kwargs.get(idMinPercentile)));
+			transformation.setMaxPercentile(toNumber(kwargs.get(idMaxPercentile)));
+		}
+
+		@Override
+		protected void writeKwargs(PercentileTransformation transformation, Map<String, Object> kwargs) {
+			kwargs.put(idMinPercentile, transformation.getMinPercentile());
+			kwargs.put(idMaxPercentile, transformation.getMaxPercentile());
+		}
+	}
 }
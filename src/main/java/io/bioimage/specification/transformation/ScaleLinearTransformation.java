@@ -28,6 +28,9 @@
  */
 package io.bioimage.specification.transformation;
 
+import java.util.Collections;
+import java.util.Map;
+
 public class ScaleLinearTransformation extends DefaultImageTransformation {
 
 	public static final String name = "scale_linear";
@@ -54,4 +57,31 @@ public class ScaleLinearTransformation extends DefaultImageTransformation {
 	public String getName() {
 		return name;
 	}
+
+	public static class Descriptor extends DefaultTransformationDescriptor<ScaleLinearTransformation> {
+
+		private final static String idGain = "gain";
+		private final static String idOffset = "offset";
+
+		public Descriptor() {
+			super(name, ScaleLinearTransformation.class);
+		}
+
+		@Override
+		protected ScaleLinearTransformation create() {
+			return new ScaleLinearTransformation();
+		}
+
+		@Override
+		protected void readKwargs(ScaleLinearTransformation transformation, Map<String, Object> kwargs) {
+			transformation.setGain(toNumber(kwargs.get(idGain)));
+			transformation.setOffset(toNumber(kwargs.get(idOffset)));
+		}
+
+		@Override
+		protected void writeKwargs(ScaleLinearTransformation transformation, Map<String, Object> kwargs) {
+			kwargs.put(idGain, Collections.singletonList(transformation.getGain()));
+			kwargs.put(idOffset, Collections.singletonList(transformation.getOffset()));
+		}
+	}
 }
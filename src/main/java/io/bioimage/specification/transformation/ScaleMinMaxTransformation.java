@@ -28,6 +28,8 @@
  */
 package io.bioimage.specification.transformation;
 
+import java.util.Map;
+
 public class ScaleMinMaxTransformation extends DefaultImageTransformation {
 
 	public static final String name = "scale_min_max";
@@ -63,4 +65,34 @@ public class ScaleMinMaxTransformation extends DefaultImageTransformation {
 	public String getName() {
 		return name;
 	}
+
+	public static class Descriptor extends DefaultTransformationDescriptor<ScaleMinMaxTransformation> {
+
+		private final static String idReferenceInput = "reference_input";
+		private final static String idMinPercentile = "min_percentile";
+		private final static String idMaxPercentile = "max_percentile";
+
+		public Descriptor() {
+			super(name, ScaleMinMaxTransformation.class);
+		}
+
+		@Override
+		protected ScaleMinMaxTransformation create() {
+			return new ScaleMinMaxTransformation();
+		}
+
+		@Override
+		protected void readKwargs(ScaleMinMaxTransformation transformation, Map<String, Object> kwargs) {
+			transformation.setReferenceInput((String) kwargs.get(idReferenceInput));
+			transformation.setMinPercentile(toNumber(kwargs.get(idMinPercentile)));
+			transformation.setMaxPercentile(toNumber(kwargs.get(idMaxPercentile)));
+		}
+
+		@Override
+		protected void writeKwargs(ScaleMinMaxTransformation transformation, Map<String, Object> kwargs) {
+			kwargs.put(idMinPercentile, transformation.getMinPercentile());
+			kwargs.put(idMaxPercentile, transformation.getMaxPercentile());
+			kwargs.put(idReferenceInput, transformation.getReferenceInput());
+		}
+	}
 }
@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.transformation;
+
+import java.util.Map;
+
+public class ScaleRangeTransformation extends DefaultImageTransformation {
+
+	public static final String name = "scale_range";
+	private String referenceTensor;
+	private Number minPercentile;
+	private Number maxPercentile;
+
+	public Number getMinPercentile() {
+		return minPercentile;
+	}
+
+	public void setMinPercentile(Number minPercentile) {
+		this.minPercentile = minPercentile;
+	}
+
+	public Number getMaxPercentile() {
+		return maxPercentile;
+	}
+
+	public void setMaxPercentile(Number maxPercentile) {
+		this.maxPercentile = maxPercentile;
+	}
+
+	public String getReferenceTensor() {
+		return referenceTensor;
+	}
+
+	public void setReferenceTensor(String referenceTensor) {
+		this.referenceTensor = referenceTensor;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	public static class Descriptor extends DefaultTransformationDescriptor<ScaleRangeTransformation> {
+
+		private final static String idReferenceTensor = "reference_tensor";
+		private final static String idMinPercentile = "min_percentile";
+		private final static String idMaxPercentile = "max_percentile";
+
+		public Descriptor() {
+			super(name, ScaleRangeTransformation.class);
+		}
+
+		@Override
+		protected ScaleRangeTransformation create() {
+			return new ScaleRangeTransformation();
+		}
+
+		@Override
+		protected void readKwargs(ScaleRangeTransformation transformation, Map<String, Object> kwargs) {
+			transformation.setReferenceTensor((String) kwargs.get(idReferenceTensor));
+			transformation.setMinPercentile(toNumber(kwargs.get(idMinPercentile)));
+			transformation.setMaxPercentile(toNumber(kwargs.get(idMaxPercentile)));
+		}
+
+		@Override
+		protected void writeKwargs(ScaleRangeTransformation transformation, Map<String, Object> kwargs) {
+			kwargs.put(idMinPercentile, transformation.getMinPercentile());
+			kwargs.put(idMaxPercentile, transformation.getMaxPercentile());
+			kwargs.put(idReferenceTensor, transformation.getReferenceTensor());
+		}
+	}
+}
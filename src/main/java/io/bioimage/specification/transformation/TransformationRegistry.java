@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.transformation;
+
+import io.bioimage.specification.TransformationSpecification;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the names of processing steps to their {@link TransformationDescriptor}s.
+ * The shared instance knows all built-in steps and all descriptors found via {@link ServiceLoader}.
+ */
+public class TransformationRegistry {
+
+	private static TransformationRegistry instance;
+
+	private final Map<String, TransformationDescriptor<?>> descriptors = new ConcurrentHashMap<>();
+
+	public static synchronized TransformationRegistry getInstance() {
+		if (instance == null) {
+			TransformationRegistry registry = new TransformationRegistry();
+			registry.registerDefaults();
+			for (TransformationDescriptor<?> descriptor : ServiceLoader.load(TransformationDescriptor.class)) {
+				registry.register(descriptor);
+			}
+			instance = registry;
+		}
+		return instance;
+	}
+
+	public void registerDefaults() {
+		register(new BinarizeTransformation.Descriptor());
+		register(new ClipTransformation.Descriptor());
+		register(new PercentileTransformation.Descriptor());
+		register(new ScaleLinearTransformation.Descriptor());
+		register(new ScaleMinMaxTransformation.Descriptor());
+		register(new ScaleRangeTransformation.Descriptor());
+		register(new SigmoidTransformation.Descriptor());
+		register(new ZeroMeanUnitVarianceTransformation.Descriptor());
+	}
+
+	public void register(TransformationDescriptor<?> descriptor) {
+		descriptors.put(descriptor.getName(), descriptor);
+	}
+
+	public TransformationDescriptor<?> get(String name) {
+		return descriptors.get(name);
+	}
+
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(descriptors.keySet());
+	}
+
+	public TransformationSpecification read(String name, Map<String, Object> kwargs) throws IOException {
+		TransformationDescriptor<?> descriptor = descriptors.get(name);
+		if (descriptor == null) throw new IOException("Could not process transformation " + name);
+		return descriptor.read(kwargs != null ? kwargs : new LinkedHashMap<>());
+	}
+
+	/**
+	 * @return the kwargs of the transformation, empty if its step is unknown
+	 */
+	public Map<String, Object> write(TransformationSpecification transformation) {
+		TransformationDescriptor<?> descriptor = descriptors.get(transformation.getName());
+		if (descriptor == null) return new LinkedHashMap<>();
+		return write(descriptor, transformation);
+	}
+
+	private static <T extends TransformationSpecification> Map<String, Object> write(TransformationDescriptor<T> descriptor, TransformationSpecification transformation) {
+		return descriptor.write(descriptor.getType().cast(transformation));
+	}
+}
@@ -28,6 +28,9 @@
  */
 package io.bioimage.specification.transformation;
 
+import java.util.Collections;
+import java.util.Map;
+
 public class ZeroMeanUnitVarianceTransformation extends DefaultImageTransformation {
 	public static final String name = "zero_mean_unit_variance";
 	private Number mean;
@@ -53,4 +56,31 @@ public class ZeroMeanUnitVarianceTransformation extends DefaultImageTransformati
 	public String getName() {
 		return name;
 	}
+
+	public static class Descriptor extends DefaultTransformationDescriptor<ZeroMeanUnitVarianceTransformation> {
+
+		private final static String idMean = "mean";
+		private final static String idStd = "std";
+
+		public Descriptor() {
+			super(name, ZeroMeanUnitVarianceTransformation.class);
+		}
+
+		@Override
+		protected ZeroMeanUnitVarianceTransformation create() {
+			return new ZeroMeanUnitVarianceTransformation();
+		}
+
+		@Override
+		protected void readKwargs(ZeroMeanUnitVarianceTransformation transformation, Map<String, Object> kwargs) {
+			transformation.setMean(toNumber(kwargs.get(idMean)));
+			transformation.setStd(toNumber(kwargs.get(idStd)));
+		}
+
+		@Override
+		protected void writeKwargs(ZeroMeanUnitVarianceTransformation transformation, Map<String, Object> kwargs) {
+			kwargs.put(idMean, Collections.singletonList(transformation.getMean()));
+			kwargs.put(idStd, Collections.singletonList(transformation.getStd()));
+		}
+	}
 }
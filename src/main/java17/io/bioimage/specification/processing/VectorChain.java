@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.List;
+
+/**
+ * Applies a chain of pointwise operations with the preferred vector shape of the platform.
+ * Like {@link FusedKernel} the data is processed in chunks which stay in the L1 cache.
+ * Affine operations multiply and add separately instead of using fma, so the results
+ * are identical to the scalar kernels.
+ */
+class VectorChain implements PointwiseOperation {
+
+	private static final VectorSpecies<Float> floats = FloatVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> ints = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Short> shorts = VectorSpecies.of(short.class, VectorShape.forBitSize(floats.vectorBitSize() / 2));
+
+	private final PointwiseOperation[] operations;
+
+	VectorChain(List<? extends PointwiseOperation> operations) {
+		this.operations = operations.toArray(new PointwiseOperation[0]);
+	}
+
+	static int lanes() {
+		return floats.length();
+	}
+
+	static boolean canCompile(List<? extends PointwiseOperation> operations) {
+		for (PointwiseOperation operation : operations) {
+			if (!(operation instanceof AffineOperation || operation instanceof ClipOperation || operation instanceof BinarizeOperation)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public float apply(float value) {
+		for (PointwiseOperation operation : operations) {
+			value = operation.apply(value);
+		}
+		return value;
+	}
+
+	@Override
+	public void apply(float[] data, int offset, int length) {
+		for (int start = offset; start < offset + length; start += FusedKernel.chunkLength) {
+			int chunk = Math.min(FusedKernel.chunkLength, offset + length - start);
+			for (PointwiseOperation operation : operations) {
+				apply(operation, data, start, chunk);
+			}
+		}
+	}
+
+	private static void apply(PointwiseOperation operation, float[] data, int offset, int length) {
+		int end = offset + length;
+		int bound = offset + floats.loopBound(length);
+		int i = offset;
+		if (operation instanceof AffineOperation) {
+			float gain = ((AffineOperation) operation).getGain();
+			float add = ((AffineOperation) operation).getOffset();
+			for (; i < bound; i += floats.length()) {
+				FloatVector.fromArray(floats, data, i).mul(gain).add(add).intoArray(data, i);
+			}
+		} else if (operation instanceof ClipOperation) {
+			float min = ((ClipOperation) operation).getMin();
+			float max = ((ClipOperation) operation).getMax();
+			for (; i < bound; i += floats.length()) {
+				FloatVector.fromArray(floats, data, i).max(min).min(max).intoArray(data, i);
+			}
+		} else {
+			float threshold = ((BinarizeOperation) operation).getThreshold();
+			FloatVector zero = FloatVector.zero(floats);
+			FloatVector one = FloatVector.broadcast(floats, 1);
+			for (; i < bound; i += floats.length()) {
+				VectorMask<Float> above = FloatVector.fromArray(floats, data, i).compare(VectorOperators.GT, threshold);
+				zero.blend(one, above).intoArray(data, i);
+			}
+		}
+		operation.apply(data, i, end - i);
+	}
+
+	/**
+	 * @return the number of converted values, the remainder is left to the caller
+	 */
+	static int uint16ToFloat(short[] source, int sourceOffset, float[] target, int targetOffset, int length) {
+		if (shorts.length() != floats.length() || ints.length() != floats.length()) return 0;
+		int bound = floats.loopBound(length);
+		for (int i = 0; i < bound; i += floats.length()) {
+			IntVector values = (IntVector) ShortVector.fromArray(shorts, source, sourceOffset + i).castShape(ints, 0);
+			FloatVector converted = (FloatVector) values.lanewise(VectorOperators.AND, 0xffff).convert(VectorOperators.I2F, 0);
+			converted.intoArray(target, targetOffset + i);
+		}
+		return bound;
+	}
+
+	@Override
+	public String toString() {
+		return "vector" + java.util.Arrays.toString(operations);
+	}
+}
@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import java.util.List;
+
+/**
+ * Entry point to SIMD implementations of {@link AffineOperation}, {@link ClipOperation} and
+ * {@link BinarizeOperation} chains. This is the Java 17+ implementation based on {@code jdk.incubator.vector}.
+ * If the module is not part of the boot layer, the scalar implementation is used.
+ */
+public class VectorKernels {
+
+	private static final boolean supported = checkSupport();
+
+	private static boolean checkSupport() {
+		if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return false;
+		try {
+			return VectorChain.lanes() > 1;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if {@link #compile(List)} returns SIMD kernels on this JVM
+	 */
+	public static boolean isSupported() {
+		return supported;
+	}
+
+	/**
+	 * @return a SIMD kernel for the chain if supported, otherwise the scalar kernel of the {@link KernelCompiler}
+	 */
+	public static PointwiseOperation compile(List<? extends PointwiseOperation> operations) {
+		if (supported && VectorChain.canCompile(operations)) return new VectorChain(operations);
+		return KernelCompiler.compile(operations);
+	}
+
+	/**
+	 * Unlike {@link #compile(List)}, this never generates a class, so it suits chains whose constants change with
+	 * every sample, e.g. after per sample normalization.
+	 *
+	 * @return a SIMD kernel for the chain if supported, otherwise a {@link FusedKernel}
+	 */
+	public static PointwiseOperation fuse(List<? extends PointwiseOperation> operations) {
+		if (supported && VectorChain.canCompile(operations)) return new VectorChain(operations);
+		return new FusedKernel(operations);
+	}
+
+	/**
+	 * Converts unsigned 16 bit values to float.
+	 */
+	public static void uint16ToFloat(short[] source, int sourceOffset, float[] target, int targetOffset, int length) {
+		int done = supported ? VectorChain.uint16ToFloat(source, sourceOffset, target, targetOffset, length) : 0;
+		for (int i = done; i < length; i++) {
+			target[targetOffset + i] = source[sourceOffset + i] & 0xffff;
+		}
+	}
+}
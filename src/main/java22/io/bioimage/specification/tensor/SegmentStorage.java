@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link Storage} backed by a single {@link MemorySegment}.
+ */
+class SegmentStorage implements Storage {
+
+	private static final ValueLayout.OfShort shortLayout = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	private static final ValueLayout.OfInt intLayout = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	private static final ValueLayout.OfLong longLayout = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	private static final ValueLayout.OfFloat floatLayout = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+	private static final ValueLayout.OfDouble doubleLayout = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+	private final MemorySegment segment;
+
+	SegmentStorage(MemorySegment segment) {
+		this.segment = segment;
+	}
+
+	@Override
+	public long byteSize() {
+		return segment.byteSize();
+	}
+
+	@Override
+	public byte getByte(long offset) {
+		return segment.get(ValueLayout.JAVA_BYTE, offset);
+	}
+
+	@Override
+	public void putByte(long offset, byte value) {
+		segment.set(ValueLayout.JAVA_BYTE, offset, value);
+	}
+
+	@Override
+	public short getShort(long offset) {
+		return segment.get(shortLayout, offset);
+	}
+
+	@Override
+	public void putShort(long offset, short value) {
+		segment.set(shortLayout, offset, value);
+	}
+
+	@Override
+	public int getInt(long offset) {
+		return segment.get(intLayout, offset);
+	}
+
+	@Override
+	public void putInt(long offset, int value) {
+		segment.set(intLayout, offset, value);
+	}
+
+	@Override
+	public long getLong(long offset) {
+		return segment.get(longLayout, offset);
+	}
+
+	@Override
+	public void putLong(long offset, long value) {
+		segment.set(longLayout, offset, value);
+	}
+
+	@Override
+	public float getFloat(long offset) {
+		return segment.get(floatLayout, offset);
+	}
+
+	@Override
+	public void putFloat(long offset, float value) {
+		segment.set(floatLayout, offset, value);
+	}
+
+	@Override
+	public double getDouble(long offset) {
+		return segment.get(doubleLayout, offset);
+	}
+
+	@Override
+	public void putDouble(long offset, double value) {
+		segment.set(doubleLayout, offset, value);
+	}
+
+	@Override
+	public void getFloats(long offset, float[] target, int targetOffset, int length) {
+		MemorySegment.copy(segment, floatLayout, offset, target, targetOffset, length);
+	}
+
+	@Override
+	public void putFloats(long offset, float[] source, int sourceOffset, int length) {
+		MemorySegment.copy(source, sourceOffset, segment, floatLayout, offset, length);
+	}
+
+	@Override
+	public ByteBuffer asByteBuffer(long offset, int length) {
+		return segment.asSlice(offset, length).asByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
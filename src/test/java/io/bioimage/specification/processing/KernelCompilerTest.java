@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KernelCompilerTest {
+
+	@Test
+	public void testSameResultAsFusedKernel() {
+		PointwiseOperation[] operations = {
+				new AffineOperation(0.5, -3),
+				new ClipOperation(-2, 40),
+				new SigmoidOperation(),
+				new AffineOperation(2, 0.25),
+				new BinarizeOperation(1.5),
+				new AffineOperation(300, -20),
+				new QuantizeOperation(0, 255)
+		};
+		for (int n = 1; n <= operations.length; n++) {
+			PointwiseOperation[] chain = java.util.Arrays.copyOf(operations, n);
+			PointwiseOperation generated = KernelCompiler.compile(chain);
+			assertTrue(generated.toString().startsWith("generated"));
+			FusedKernel fused = new FusedKernel(chain);
+			float[] expected = randomData(5000);
+			float[] actual = expected.clone();
+			fused.apply(expected, 7, 4000);
+			generated.apply(actual, 7, 4000);
+			assertArrayEquals(expected, actual, 0);
+			for (float value : new float[]{-100, -2, 0, 1.5f, 3, 100, Float.NaN}) {
+				assertEquals(Float.floatToIntBits(fused.apply(value)), Float.floatToIntBits(generated.apply(value)));
+			}
+		}
+	}
+
+	@Test
+	public void testCache() {
+		PointwiseOperation first = KernelCompiler.compile(new AffineOperation(3, 1), new ClipOperation(0, 7));
+		int size = KernelCompiler.cacheSize();
+		PointwiseOperation second = KernelCompiler.compile(new FusedKernel(new AffineOperation(3, 1)), new ClipOperation(0, 7));
+		assertSame(first, second);
+		assertEquals(size, KernelCompiler.cacheSize());
+		assertNotSame(first, KernelCompiler.compile(new AffineOperation(3, 1), new ClipOperation(0, 8)));
+	}
+
+	@Test
+	public void testCacheBounded() {
+		for (int i = 0; i < 3 * KernelCompiler.cacheCapacity; i++) {
+			PointwiseOperation kernel = KernelCompiler.compile(new AffineOperation(1 + i, -i), new ClipOperation(0, i));
+			assertEquals(Math.min(Math.max(0, 2 * (1 + i) - i), i), kernel.apply(2), 0);
+			assertTrue(KernelCompiler.cacheSize() <= KernelCompiler.cacheCapacity);
+		}
+	}
+
+	@Test
+	public void testFallback() {
+		PointwiseOperation kernel = KernelCompiler.compile(new AffineOperation(2, 0), value -> -value);
+		assertTrue(kernel instanceof FusedKernel);
+		assertEquals(-4, kernel.apply(2), 0);
+	}
+
+	private static float[] randomData(int size) {
+		Random random = new Random(3);
+		float[] data = new float[size];
+		for (int i = 0; i < size; i++) data[i] = (random.nextFloat() - 0.3f) * 100;
+		return data;
+	}
+}
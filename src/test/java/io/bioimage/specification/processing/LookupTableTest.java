@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.DefaultInputNodeSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.statistics.Moments;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.transformation.ClipTransformation;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.PercentileTransformation;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class LookupTableTest {
+
+	@Test
+	public void testUint8MatchesFusedKernel() {
+		ScaleLinearTransformation scaleLinear = new ScaleLinearTransformation();
+		scaleLinear.setGain(0.5);
+		scaleLinear.setOffset(-3);
+		ClipTransformation clip = new ClipTransformation();
+		clip.setMin(0);
+		clip.setMax(100);
+		InputNodeSpecification node = createNode("uint8", Arrays.asList(scaleLinear, clip));
+
+		LookupTable table = LookupTable.compile(node, null);
+		assertNotNull(table);
+		assertEquals(256, table.size());
+
+		byte[] source = new byte[256];
+		float[] expected = new float[256];
+		for (int i = 0; i < 256; i++) {
+			source[i] = (byte) i;
+			expected[i] = i;
+		}
+		new FusedKernel(new TransformationCompiler().compile(node.getPreprocessing())).apply(expected, 0, expected.length);
+		float[] actual = new float[256];
+		table.apply(source, 0, actual, 0, source.length);
+		for (int i = 0; i < 256; i++) {
+			assertEquals(Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]));
+		}
+		assertEquals(0, actual[0], 0);
+		assertEquals(100, actual[255], 0);
+	}
+
+	@Test
+	public void testUint16PerDatasetPercentile() {
+		PercentileTransformation percentile = new PercentileTransformation();
+		percentile.setMode(ImageTransformation.Mode.PER_DATASET);
+		percentile.setMinPercentile(1);
+		percentile.setMaxPercentile(99);
+		InputNodeSpecification node = createNode("uint16", Arrays.asList(percentile));
+
+		assertNull(LookupTable.compile(node, null));
+
+		NodeStatistics statistics = new NodeStatistics("input", "byxc", new Moments());
+		statistics.setPercentile(1, new double[]{1000});
+		statistics.setPercentile(99, new double[]{3000});
+		LookupTable table = LookupTable.compile(node, statistics);
+		assertNotNull(table);
+		short[] source = {1000, 2000, (short) 3000, (short) 60000};
+		float[] target = new float[source.length];
+		table.apply(source, 0, target, 0, source.length);
+		assertEquals(0, target[0], 1e-6);
+		assertEquals(0.5, target[1], 1e-6);
+		assertEquals(1, target[2], 1e-6);
+		assertEquals(29.5, target[3], 1e-4);
+	}
+
+	@Test
+	public void testPerSampleIsNotCompiled() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		assertNull(LookupTable.compile(createNode("uint8", Arrays.asList(zeroMean)), null));
+		zeroMean.setMode(ImageTransformation.Mode.FIXED);
+		zeroMean.setMean(10);
+		zeroMean.setStd(5);
+		assertNotNull(LookupTable.compile(createNode("uint8", Arrays.asList(zeroMean)), null));
+		assertNull(LookupTable.compile(createNode("float32", Arrays.asList(zeroMean)), null));
+	}
+
+	private static InputNodeSpecification createNode(String dataType, List<TransformationSpecification> preprocessing) {
+		InputNodeSpecification node = new DefaultInputNodeSpecification();
+		node.setName("input");
+		node.setAxes("byxc");
+		node.setDataType(dataType);
+		node.setPreprocessing(preprocessing);
+		return node;
+	}
+}
@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.DefaultInputNodeSpecification;
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.DefaultOutputNodeSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.ScaleMinMaxTransformation;
+import io.bioimage.specification.transformation.ScaleRangeTransformation;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class StatisticsGraphTest {
+
+	@Test
+	public void testOutputsReferencingInput() {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		InputNodeSpecification input = new DefaultInputNodeSpecification();
+		input.setName("raw");
+		input.setAxes("bcyx");
+		model.addInputNode(input);
+		ScaleRangeTransformation range = new ScaleRangeTransformation();
+		range.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		range.setReferenceTensor("raw");
+		ScaleMinMaxTransformation minMax = new ScaleMinMaxTransformation();
+		minMax.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		minMax.setReferenceInput("raw");
+		model.addOutputNode(createOutput("restored", "bcyx", range));
+		model.addOutputNode(createOutput("denoised", "bcyx", minMax));
+		StatisticsGraph graph = new StatisticsGraph(model);
+		assertEquals(Collections.singleton(new StatisticsGraph.Requirement("raw", "bc")), graph.getRequirements());
+
+		TensorBuffer raw = TensorBuffer.allocate(DataType.FLOAT32, "bcyx", 2, 3, 8, 8);
+		float[] values = new float[(int) raw.getSize()];
+		// sample b, channel c holds values in [10 * (3b + c), 10 * (3b + c) + 6]
+		for (int i = 0; i < values.length; i++) values[i] = 10 * (i / 64) + i % 64 % 7;
+		raw.write(values, 0);
+		StatisticsGraph.Invocation invocation = graph.start(Collections.singletonMap("raw", raw));
+		StatisticsGraph.Requirement requirement = graph.getRequirements().iterator().next();
+		assertSame(invocation.get(requirement), invocation.get(requirement));
+
+		TensorBuffer prediction = TensorBuffer.allocate(DataType.FLOAT32, "bcyx", 2, 3, 8, 8);
+		prediction.write(values, 0);
+		TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, "bcyx", 2, 3, 8, 8);
+		new TensorPostprocessor(model.getOutputs().get(0)).apply(prediction, output, invocation);
+		assertEquals(0, output.getDouble(1, 2, 0, 0), 1e-3);
+		assertEquals(1, output.getDouble(1, 2, 0, 6), 1e-3);
+
+		// a single channel output uses the statistics of the matching batch over all channels of the input
+		TensorBuffer single = TensorBuffer.allocate(DataType.FLOAT32, "byx", 2, 8, 8);
+		single.write(new float[128], 0);
+		single.setFloat(50, 1, 0, 0);
+		StatisticsGraph.Invocation other = new StatisticsGraph(singleChannelModel(input, minMax)).start(Collections.singletonMap("raw", raw));
+		TensorBuffer singleOutput = TensorBuffer.allocate(DataType.FLOAT32, "byx", 2, 8, 8);
+		new TensorPostprocessor(createOutput("mask", "byx", minMax)).apply(single, singleOutput, other);
+		// batch 1 of the input covers [30, 56]
+		assertEquals((50 - 30) / 26., singleOutput.getDouble(1, 0, 0), 1e-3);
+	}
+
+	private static DefaultModelSpecification singleChannelModel(InputNodeSpecification input, ScaleMinMaxTransformation step) {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		model.addInputNode(input);
+		model.addOutputNode(createOutput("mask", "byx", step));
+		return model;
+	}
+
+	private static OutputNodeSpecification createOutput(String name, String axes, ImageTransformation step) {
+		OutputNodeSpecification node = new DefaultOutputNodeSpecification();
+		node.setName(name);
+		node.setAxes(axes);
+		node.setPostprocessing(Collections.singletonList(step));
+		return node;
+	}
+}
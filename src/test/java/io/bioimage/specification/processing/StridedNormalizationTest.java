@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.statistics.Moments;
+import io.bioimage.specification.statistics.StridedReduction;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StridedNormalizationTest {
+
+	@Test
+	public void testPerSampleMomentsChannelLast() {
+		int[] shape = {2, 64, 48, 3};
+		float[] data = createData(shape, "byxc");
+		Moments[] moments = new StridedReduction("byxc", shape, StridedReduction.perSampleAxes("byxc")).moments(data);
+		assertEquals(6, moments.length);
+		checkMoments(data, shape, "byxc", moments);
+	}
+
+	@Test
+	public void testPerSampleMomentsChannelFirst() {
+		int[] shape = {2, 3, 5, 40, 300};
+		float[] data = createData(shape, "bczyx");
+		Moments[] moments = new StridedReduction("bczyx", shape, "zyx").moments(data);
+		assertEquals(6, moments.length);
+		checkMoments(data, shape, "bczyx", moments);
+	}
+
+	@Test
+	public void testZeroMeanUnitVariancePerSample() {
+		int[] shape = {2, 32, 32, 3};
+		float[] data = createData(shape, "byxc");
+		ZeroMeanUnitVarianceTransformation transformation = new ZeroMeanUnitVarianceTransformation();
+		transformation.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		StridedNormalization.zeroMeanUnitVariance(data, shape, "byxc", transformation);
+		Moments[] moments = new StridedReduction("byxc", shape, "yx").moments(data);
+		for (Moments m : moments) {
+			assertEquals(0, m.getMean(), 1e-4);
+			assertEquals(1, m.getStd(), 1e-4);
+		}
+	}
+
+	@Test
+	public void testZeroMeanUnitVarianceFixed() {
+		int[] shape = {1, 4, 4, 1};
+		float[] data = createData(shape, "byxc");
+		float first = data[0];
+		ZeroMeanUnitVarianceTransformation transformation = new ZeroMeanUnitVarianceTransformation();
+		transformation.setMode(ImageTransformation.Mode.FIXED);
+		transformation.setMean(10);
+		transformation.setStd(2);
+		StridedNormalization.zeroMeanUnitVariance(data, shape, "byxc", transformation);
+		assertEquals((first - 10) / (2 + StridedNormalization.eps), data[0], 1e-5);
+	}
+
+	@Test
+	public void testTensor() {
+		int[] shape = {2, 3, 5, 40, 300};
+		float[] data = createData(shape, "bczyx");
+		TensorBuffer tensor = TensorBuffer.allocate(DataType.FLOAT32, "bczyx", shape);
+		tensor.write(data, 0);
+		StridedReduction reduction = new StridedReduction("bczyx", shape, "zyx");
+		Moments[] expected = reduction.moments(data);
+		Moments[] actual = reduction.moments(tensor);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(Double.doubleToLongBits(expected[i].getMean()), Double.doubleToLongBits(actual[i].getMean()));
+			assertEquals(Double.doubleToLongBits(expected[i].getStd()), Double.doubleToLongBits(actual[i].getStd()));
+		}
+
+		ZeroMeanUnitVarianceTransformation transformation = new ZeroMeanUnitVarianceTransformation();
+		transformation.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		StridedNormalization.zeroMeanUnitVariance(data, shape, "bczyx", transformation);
+		StridedNormalization.zeroMeanUnitVariance(tensor, transformation, null);
+		float[] normalized = new float[data.length];
+		tensor.read(normalized, 0);
+		assertArrayEquals(data, normalized, 0);
+	}
+
+	private static void checkMoments(float[] data, int[] shape, String axes, Moments[] moments) {
+		int b = axes.indexOf('b');
+		int c = axes.indexOf('c');
+		double[] sum = new double[shape[b] * shape[c]];
+		long[] count = new long[sum.length];
+		int[] position = new int[shape.length];
+		for (float value : data) {
+			int kept = position[b] * shape[c] + position[c];
+			sum[kept] += value;
+			count[kept]++;
+			increment(position, shape);
+		}
+		for (int kept = 0; kept < sum.length; kept++) {
+			assertEquals(count[kept], moments[kept].getCount());
+			assertEquals(sum[kept] / count[kept], moments[kept].getMean(), 1e-6);
+		}
+	}
+
+	private static float[] createData(int[] shape, String axes) {
+		int size = 1;
+		for (int dim : shape) size *= dim;
+		float[] data = new float[size];
+		Random random = new Random(7);
+		int b = axes.indexOf('b');
+		int c = axes.indexOf('c');
+		int[] position = new int[shape.length];
+		for (int i = 0; i < size; i++) {
+			// every batch and channel gets its own offset and scale
+			data[i] = random.nextFloat() * (1 + position[c]) + 100 * position[b] + 10 * position[c];
+			increment(position, shape);
+		}
+		return data;
+	}
+
+	private static void increment(int[] position, int[] shape) {
+		for (int d = shape.length - 1; d >= 0; d--) {
+			if (++position[d] < shape[d]) return;
+			position[d] = 0;
+		}
+	}
+}
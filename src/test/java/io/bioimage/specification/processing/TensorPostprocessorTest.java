@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.DefaultOutputNodeSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.tensor.BitMask;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.BinarizeTransformation;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import io.bioimage.specification.transformation.SigmoidTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TensorPostprocessorTest {
+
+	@Test
+	public void testQuantizeProbabilities() {
+		ScaleLinearTransformation scale = new ScaleLinearTransformation();
+		scale.setGain(255);
+		scale.setOffset(0);
+		OutputNodeSpecification node = createNode("uint8", Arrays.asList(0, 255), new SigmoidTransformation(), scale);
+		TensorPostprocessor postprocessor = new TensorPostprocessor(node);
+		assertEquals(DataType.UINT8, postprocessor.getOutputType());
+		TensorBuffer output = postprocessor.apply(prediction(-100, 0, 0.01f, 100, Float.NaN));
+		assertEquals(DataType.UINT8, output.getDataType());
+		assertEquals(0, output.getDouble(0, 0), 0);
+		assertEquals(128, output.getDouble(0, 1), 0);
+		assertEquals(128, output.getDouble(0, 2), 0);
+		assertEquals(255, output.getDouble(0, 3), 0);
+		assertEquals(0, output.getDouble(0, 4), 0);
+	}
+
+	@Test
+	public void testSaturation() {
+		TensorBuffer prediction = prediction(-70000, -1.6f, 2.5f, 70000, 1e12f);
+		TensorBuffer uint16 = new TensorPostprocessor(createNode("uint16", null)).apply(prediction);
+		assertEquals(0, uint16.getDouble(0, 0), 0);
+		assertEquals(2, uint16.getDouble(0, 2), 0);
+		assertEquals(65535, uint16.getDouble(0, 3), 0);
+		TensorBuffer int16 = new TensorPostprocessor(createNode("int16", Arrays.asList(-1000, "inf"))).apply(prediction);
+		assertEquals(-1000, int16.getDouble(0, 0), 0);
+		assertEquals(-2, int16.getDouble(0, 1), 0);
+		assertEquals(Short.MAX_VALUE, int16.getDouble(0, 4), 0);
+		TensorBuffer uint32 = new TensorPostprocessor(createNode("uint32", null)).apply(prediction);
+		assertEquals(4294967040., uint32.getDouble(0, 4), 0);
+		TensorBuffer float32 = new TensorPostprocessor(createNode("float32", Arrays.asList(0, 1))).apply(prediction);
+		assertEquals(1, float32.getDouble(0, 2), 0);
+	}
+
+	@Test
+	public void testMask() {
+		BinarizeTransformation binarize = new BinarizeTransformation();
+		binarize.setThreshold(0.5);
+		TensorPostprocessor postprocessor = new TensorPostprocessor(createNode("uint8", null, new SigmoidTransformation(), binarize));
+		assertTrue(postprocessor.isMask());
+		float[] values = new float[1000];
+		for (int i = 0; i < values.length; i++) values[i] = i % 7 - 3;
+		BitMask mask = postprocessor.applyMask(prediction(values));
+		TensorBuffer output = postprocessor.apply(prediction(values));
+		assertEquals(428, mask.count());
+		for (int i = 0; i < values.length; i++) assertEquals(output.getDouble(0, i), mask.get(0, i) ? 1 : 0, 0);
+		// per sample statistics are computed before packing
+		ZeroMeanUnitVarianceTransformation normalize = new ZeroMeanUnitVarianceTransformation();
+		binarize.setThreshold(0.1);
+		BitMask normalized = new TensorPostprocessor(createNode("uint8", null, normalize, binarize)).applyMask(prediction(values));
+		assertEquals(428, normalized.count());
+		assertFalse(new TensorPostprocessor(createNode("uint8", null, new SigmoidTransformation())).isMask());
+	}
+
+	private static TensorBuffer prediction(float... values) {
+		TensorBuffer res = TensorBuffer.allocate(DataType.FLOAT32, "bx", 1, values.length);
+		res.write(values, 0);
+		return res;
+	}
+
+	private static OutputNodeSpecification createNode(String dataType, List<?> dataRange, TransformationSpecification... steps) {
+		OutputNodeSpecification node = new DefaultOutputNodeSpecification();
+		node.setName("output");
+		node.setAxes("bx");
+		node.setDataType(dataType);
+		node.setDataRange(dataRange);
+		node.setPostprocessing(Arrays.asList(steps));
+		return node;
+	}
+}
@@ -0,0 +1,378 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.DefaultInputNodeSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.statistics.AxisPlan;
+import io.bioimage.specification.statistics.Sampling;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ClipTransformation;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import io.bioimage.specification.transformation.ScaleRangeTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TensorPreprocessorTest {
+
+	private static final int[] shape = {2, 40, 30, 3};
+
+	@Test
+	public void testFixedChain() {
+		ScaleLinearTransformation scale = new ScaleLinearTransformation();
+		scale.setGain(1 / 255.);
+		scale.setOffset(-0.5);
+		ClipTransformation clip = new ClipTransformation();
+		clip.setMin(-0.25);
+		clip.setMax(0.25);
+		for (DataType type : new DataType[]{DataType.UINT8, DataType.UINT16, DataType.INT16}) {
+			TensorBuffer input = createInput(type);
+			float[] expected = new float[(int) input.getSize()];
+			input.read(expected, 0);
+			new FusedKernel(new AffineOperation(1 / 255., -0.5), new ClipOperation(-0.25, 0.25)).apply(expected, 0, expected.length);
+			TensorBuffer output = new TensorPreprocessor(createNode(type, scale, clip)).apply(input);
+			assertEquals(DataType.FLOAT32, output.getDataType());
+			assertArrayEquals(expected, read(output), 0);
+		}
+	}
+
+	@Test
+	public void testZeroMeanUnitVariancePerSample() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		ScaleLinearTransformation scale = new ScaleLinearTransformation();
+		scale.setGain(2);
+		scale.setOffset(1);
+		TensorBuffer input = createInput(DataType.UINT16);
+		float[] expected = read(input);
+		StridedNormalization.zeroMeanUnitVariance(expected, shape, "byxc", zeroMean);
+		new AffineOperation(2, 1).apply(expected, 0, expected.length);
+		float[] actual = read(new TensorPreprocessor(createNode(DataType.UINT16, zeroMean, scale)).apply(input));
+		assertArrayEquals(expected, actual, 1e-5f);
+	}
+
+	@Test
+	public void testPerSampleGeneratesNoClasses() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		ScaleLinearTransformation scale = new ScaleLinearTransformation();
+		scale.setGain(2);
+		scale.setOffset(1);
+		TensorPreprocessor preprocessor = new TensorPreprocessor(createNode(DataType.UINT16, zeroMean, scale));
+		preprocessor.apply(createInput(DataType.UINT16, 0));
+		int generated = KernelCompiler.generatedCount();
+		// every sample has different statistics, so different constants
+		for (int seed = 1; seed <= 20; seed++) {
+			TensorBuffer input = createInput(DataType.UINT16, seed);
+			preprocessor.apply(input);
+			preprocessor.view(input).materialize();
+		}
+		assertEquals(generated, KernelCompiler.generatedCount());
+	}
+
+	@Test
+	public void testLazyViewChannelsInnermost() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		TensorPreprocessor preprocessor = new TensorPreprocessor(createNode(DataType.UINT16, zeroMean));
+		TensorBuffer input = createInput(DataType.UINT16);
+		float[] expected = read(preprocessor.apply(input));
+		TransformedTensor view = preprocessor.view(input);
+		// reads starting and ending within rows, pixels and batches
+		Random random = new Random(3);
+		for (int i = 0; i < 50; i++) {
+			int from = random.nextInt(expected.length);
+			int length = random.nextInt(expected.length - from) + 1;
+			float[] actual = new float[length + 2];
+			view.read(from, actual, 2, length);
+			for (int j = 0; j < length; j++) assertEquals(expected[from + j], actual[2 + j], 1e-5f);
+		}
+		// a region of channel 1 and 2 of the second batch
+		TransformedTensor tile = view.region(new int[]{1, 3, 4, 1}, new int[]{1, 5, 6, 2});
+		float[] values = new float[60];
+		tile.read(0, values, 0, 60);
+		for (int y = 0; y < 5; y++) {
+			for (int x = 0; x < 6; x++) {
+				for (int c = 0; c < 2; c++) {
+					int index = ((shape[1] + 3 + y) * shape[2] + 4 + x) * shape[3] + 1 + c;
+					assertEquals(expected[index], values[(y * 6 + x) * 2 + c], 1e-5f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testScaleRangeAfterFixedStep() {
+		ScaleLinearTransformation scale = new ScaleLinearTransformation();
+		scale.setGain(-1);
+		scale.setOffset(0);
+		ScaleRangeTransformation range = new ScaleRangeTransformation();
+		range.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		range.setMinPercentile(0);
+		range.setMaxPercentile(100);
+		TensorBuffer output = new TensorPreprocessor(createNode(DataType.UINT8, scale, range)).apply(createInput(DataType.UINT8));
+		// every batch and channel is scaled to [0, 1] separately
+		for (int b = 0; b < shape[0]; b++) {
+			for (int c = 0; c < shape[3]; c++) {
+				double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+				for (int y = 0; y < shape[1]; y++) {
+					for (int x = 0; x < shape[2]; x++) {
+						min = Math.min(min, output.getDouble(b, y, x, c));
+						max = Math.max(max, output.getDouble(b, y, x, c));
+					}
+				}
+				assertEquals(0, min, 1e-5);
+				assertEquals(1, max, 1e-5);
+			}
+		}
+	}
+
+	@Test
+	public void testLazyView() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		ScaleLinearTransformation scale = new ScaleLinearTransformation();
+		scale.setGain(2);
+		scale.setOffset(1);
+		TensorPreprocessor preprocessor = new TensorPreprocessor(createNode(DataType.UINT16, zeroMean, scale));
+		TensorBuffer input = createInput(DataType.UINT16);
+		TensorBuffer expected = preprocessor.apply(input);
+		TransformedTensor view = preprocessor.view(input);
+		assertArrayEquals(read(expected), read(view.materialize()), 1e-5f);
+		// a tile of the second batch and the last two channels
+		TransformedTensor tile = view.region(new int[]{1, 10, 5, 1}, new int[]{1, 8, 7, 2});
+		assertEquals(expected.getFloat(1, 17, 11, 2), tile.getFloat(0, 7, 6, 1), 1e-5f);
+		TensorBuffer tileOutput = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 1, 8, 7, 2);
+		tile.copyTo(tileOutput);
+		for (int y = 0; y < 8; y++) {
+			for (int x = 0; x < 7; x++) {
+				for (int c = 0; c < 2; c++) {
+					assertEquals(expected.getFloat(1, 10 + y, 5 + x, 1 + c), tileOutput.getFloat(0, y, x, c), 1e-5f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPaddedView() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		TensorPreprocessor preprocessor = new TensorPreprocessor(createNode(DataType.UINT16, zeroMean));
+		TensorBuffer input = createInput(DataType.UINT16);
+		TensorBuffer expected = preprocessor.apply(input);
+		int[] shape = input.getShape();
+		int[] padded = {shape[0], shape[1] + 3, shape[2] + 5, shape[3]};
+		TransformedTensor view = preprocessor.view(input, padded, Padding.REFLECT);
+		TensorBuffer output = view.materialize();
+		assertArrayEquals(padded, output.getShape());
+		for (int y = 0; y < padded[1]; y++) {
+			for (int x = 0; x < padded[2]; x++) {
+				int sourceY = Padding.REFLECT.resolve(y, shape[1]);
+				int sourceX = Padding.REFLECT.resolve(x, shape[2]);
+				assertEquals(expected.getFloat(1, sourceY, sourceX, 2), output.getFloat(1, y, x, 2), 1e-5f);
+			}
+		}
+		// a tile overlapping the top left border, padded with zeros before preprocessing
+		TransformedTensor tile = preprocessor.view(input).padded(new int[]{0, -2, -2, 0}, new int[]{1, 4, 4, shape[3]}, Padding.ZERO, 0);
+		assertEquals(expected.getFloat(0, 1, 1, 0), tile.getFloat(0, 3, 3, 0), 1e-5f);
+		assertEquals(tile.getFloat(0, 0, 3, 0), tile.getFloat(0, 3, 0, 0), 0);
+		TensorBuffer tileOutput = tile.materialize();
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) assertEquals(tile.getFloat(0, y, x, 1), tileOutput.getFloat(0, y, x, 1), 1e-5f);
+		}
+		// and permuted while it is copied
+		TensorBuffer permuted = TensorBuffer.allocate(DataType.FLOAT32, "bcyx", 1, shape[3], 4, 4);
+		tile.copyTo(permuted);
+		for (int c = 0; c < shape[3]; c++) {
+			for (int y = 0; y < 4; y++) {
+				for (int x = 0; x < 4; x++) assertEquals(tile.getFloat(0, y, x, c), permuted.getFloat(0, c, y, x), 1e-5f);
+			}
+		}
+	}
+
+	@Test
+	public void testPermutedOutput() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		TensorPreprocessor preprocessor = new TensorPreprocessor(createNode(DataType.UINT16, zeroMean));
+		TensorBuffer input = createInput(DataType.UINT16);
+		TensorBuffer expected = preprocessor.apply(input);
+		TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, "bcyx", shape[0], shape[3], shape[1], shape[2]);
+		preprocessor.apply(input, output);
+		for (int b = 0; b < shape[0]; b++) {
+			for (int c = 0; c < shape[3]; c++) {
+				for (int y = 0; y < shape[1]; y++) {
+					for (int x = 0; x < shape[2]; x++) assertEquals(expected.getFloat(b, y, x, c), output.getFloat(b, c, y, x), 1e-5f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPermutedChannelsLast() {
+		TensorBuffer image = TensorBuffer.allocate(DataType.UINT16, "xyczt", 150, 90, 3, 1, 1);
+		for (long i = 0; i < image.getSize(); i++) image.set(i, i % 5000);
+		// one kernel per channel, which becomes the innermost axis of the target
+		AtomicInteger calls = new AtomicInteger();
+		PointwiseOperation[] kernels = new PointwiseOperation[3];
+		for (int c = 0; c < kernels.length; c++) {
+			int channel = c;
+			kernels[c] = new PointwiseOperation() {
+				@Override
+				public float apply(float value) {
+					return value + 10000 * channel;
+				}
+
+				@Override
+				public void apply(float[] data, int offset, int length) {
+					calls.incrementAndGet();
+					PointwiseOperation.super.apply(data, offset, length);
+				}
+			};
+		}
+		TransformedTensor view = new TransformedTensor(image, kernels, new AxisPlan("xyczt", image.getShape(), "xyzt"));
+		TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 1, 90, 150, 3);
+		view.copyTo(output);
+		for (int c = 0; c < 3; c++) {
+			for (int y = 0; y < 90; y++) {
+				for (int x = 0; x < 150; x++) assertEquals(image.getFloat(x, y, c, 0, 0) + 10000 * c, output.getFloat(0, y, x, c), 0);
+			}
+		}
+		// once per channel of every block, not once per value
+		assertTrue(calls.get() < image.getSize() / 32);
+	}
+
+	@Test
+	public void testSampledStatistics() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		TensorBuffer input = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 2, 256, 256, 1);
+		Random random = new Random(3);
+		float[] values = new float[(int) input.getSize()];
+		for (int i = 0; i < values.length; i++) values[i] = (float) (random.nextGaussian() * 10 + 100);
+		input.write(values, 0);
+		for (Sampling sampling : new Sampling[]{Sampling.strided(4096), Sampling.random(4096, 7)}) {
+			List<Sampling.Estimate> estimates = new ArrayList<>();
+			sampling.setListener((step, perSample) -> estimates.addAll(Arrays.asList(perSample)));
+			TensorPreprocessor preprocessor = new TensorPreprocessor(createNode(DataType.FLOAT32, zeroMean));
+			preprocessor.setSampling(sampling);
+			TensorBuffer output = preprocessor.apply(input);
+			assertEquals(2, estimates.size());
+			Sampling.Estimate estimate = estimates.get(0);
+			assertEquals(4096, estimate.getCount());
+			assertEquals(65536, estimate.getPopulation());
+			// 16 rows of 256 values; independent values spread the row means like a simple random sample
+			assertEquals(16, estimate.getBlocks());
+			double independent = 10 / Math.sqrt(4096) * Math.sqrt(240 / 255.);
+			assertEquals(independent, estimate.getMeanError(), 0.4 * independent);
+			// the normalized mean is off by the error of the sampled mean, in units of the std
+			float[] result = read(output.select('b', 1));
+			double mean = 0;
+			for (float value : result) mean += value;
+			mean /= result.length;
+			assertEquals(0, mean, 4 * estimate.getMeanError() / 10);
+		}
+	}
+
+	@Test
+	public void testSampledCorrelatedBlocks() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		TensorBuffer input = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 1, 256, 256, 1);
+		Random random = new Random(5);
+		// every row has its own offset, so the values of a sampled row are far from independent
+		float[] values = new float[(int) input.getSize()];
+		for (int y = 0; y < 256; y++) {
+			double row = random.nextGaussian() * 10;
+			for (int x = 0; x < 256; x++) values[y * 256 + x] = (float) (100 + row + random.nextGaussian());
+		}
+		input.write(values, 0);
+		List<Sampling.Estimate> estimates = new ArrayList<>();
+		Sampling sampling = Sampling.strided(4096);
+		sampling.setListener((step, perSample) -> estimates.addAll(Arrays.asList(perSample)));
+		TensorPreprocessor preprocessor = new TensorPreprocessor(createNode(DataType.FLOAT32, zeroMean));
+		preprocessor.setSampling(sampling);
+		preprocessor.apply(input);
+		Sampling.Estimate estimate = estimates.get(0);
+		assertTrue(estimate.getDesignEffect() > 50);
+		// the error of the 16 sampled row means, not of 4096 independent values
+		double rows = 10 / Math.sqrt(16) * Math.sqrt(240 / 255.);
+		assertEquals(rows, estimate.getMeanError(), 0.4 * rows);
+		assertTrue(estimate.getPercentileError(50) > 100 * 0.5 / Math.sqrt(4096) * 5);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDataTypeMismatch() {
+		new TensorPreprocessor(createNode(DataType.UINT8)).apply(createInput(DataType.UINT16));
+	}
+
+	private static InputNodeSpecification createNode(DataType type, TransformationSpecification... steps) {
+		InputNodeSpecification node = new DefaultInputNodeSpecification();
+		node.setName("input");
+		node.setAxes("byxc");
+		node.setDataType(type.getName());
+		List<TransformationSpecification> preprocessing = Arrays.asList(steps);
+		node.setPreprocessing(steps.length > 0 ? preprocessing : Collections.emptyList());
+		return node;
+	}
+
+	private static TensorBuffer createInput(DataType type) {
+		return createInput(type, 5);
+	}
+
+	private static TensorBuffer createInput(DataType type, long seed) {
+		TensorBuffer input = TensorBuffer.allocate(type, "byxc", shape);
+		Random random = new Random(seed);
+		float[] values = new float[(int) input.getSize()];
+		for (int i = 0; i < values.length; i++) values[i] = random.nextInt(type == DataType.UINT8 ? 256 : 20000) + (i % 3) * 10;
+		input.write(values, 0);
+		return input;
+	}
+
+	private static float[] read(TensorBuffer tensor) {
+		float[] res = new float[(int) tensor.getSize()];
+		tensor.read(res, 0);
+		return res;
+	}
+}
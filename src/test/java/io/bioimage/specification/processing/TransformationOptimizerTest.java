@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import io.bioimage.specification.DefaultInputNodeSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.transformation.BinarizeTransformation;
+import io.bioimage.specification.transformation.ClipTransformation;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.ScaleLinearTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransformationOptimizerTest {
+
+	@Test
+	public void testFoldAffine() {
+		List<TransformationSpecification> chain = Arrays.asList(
+				scaleLinear(2, 1),
+				zeroMean(41498.87, 15007.021),
+				clip(-3, 3));
+		TransformationOptimizer.Result result = TransformationOptimizer.optimize(chain);
+		assertEquals(2, result.getTransformations().size());
+		assertTrue(result.getTransformations().get(0) instanceof ScaleLinearTransformation);
+		assertTrue(result.getTransformations().get(1) instanceof ClipTransformation);
+		assertEquals(1, result.getReport().size());
+
+		ScaleLinearTransformation folded = (ScaleLinearTransformation) result.getTransformations().get(0);
+		double gain = folded.getGain().doubleValue();
+		double offset = folded.getOffset().doubleValue();
+		FusedKernel original = new FusedKernel(new TransformationCompiler().compile(chain));
+		FusedKernel optimized = new FusedKernel(new TransformationCompiler().compile(result.getTransformations()));
+		Random random = new Random(3);
+		for (int i = 0; i < 10000; i++) {
+			float value = random.nextFloat() * 65535;
+			double bound = 1e-6 * (Math.abs(value * gain) + Math.abs(offset));
+			assertEquals(original.apply(value), optimized.apply(value), bound);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFixedZeroMeanWithoutStd() {
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.FIXED);
+		zeroMean.setMean(3);
+		TransformationOptimizer.optimize(Arrays.asList(scaleLinear(2, 1), zeroMean));
+	}
+
+	@Test
+	public void testRemoveNoOps() {
+		InputNodeSpecification node = new DefaultInputNodeSpecification();
+		node.setDataRange(Arrays.asList(0, 255));
+		node.setPreprocessing(Arrays.asList(
+				scaleLinear(1, 0),
+				clip(-10, 1000),
+				scaleLinear(0.5, 0),
+				scaleLinear(2, 0)));
+		TransformationOptimizer.Result result = TransformationOptimizer.optimize(node);
+		assertTrue(result.getTransformations().isEmpty());
+		assertEquals(3, result.getReport().size());
+	}
+
+	@Test
+	public void testKeepNarrowingClip() {
+		InputNodeSpecification node = new DefaultInputNodeSpecification();
+		node.setDataRange(Arrays.asList("-inf", "inf"));
+		node.setPreprocessing(Arrays.asList(clip(0, 10), clip(5, 20)));
+		TransformationOptimizer.Result result = TransformationOptimizer.optimize(node);
+		assertEquals(1, result.getTransformations().size());
+		ClipTransformation clip = (ClipTransformation) result.getTransformations().get(0);
+		assertEquals(5, clip.getMin().doubleValue(), 0);
+		assertEquals(10, clip.getMax().doubleValue(), 0);
+	}
+
+	@Test
+	public void testFuseClipBinarize() {
+		BinarizeTransformation binarize = new BinarizeTransformation();
+		binarize.setThreshold(0.5);
+		List<TransformationSpecification> chain = Arrays.asList(clip(0, 1), binarize);
+		TransformationOptimizer.Result result = TransformationOptimizer.optimize(chain);
+		assertEquals(Arrays.asList(binarize), result.getTransformations());
+
+		binarize.setThreshold(2);
+		assertFalse(TransformationOptimizer.optimize(chain).isChanged());
+	}
+
+	private static ScaleLinearTransformation scaleLinear(double gain, double offset) {
+		ScaleLinearTransformation res = new ScaleLinearTransformation();
+		res.setGain(gain);
+		res.setOffset(offset);
+		return res;
+	}
+
+	private static ZeroMeanUnitVarianceTransformation zeroMean(double mean, double std) {
+		ZeroMeanUnitVarianceTransformation res = new ZeroMeanUnitVarianceTransformation();
+		res.setMode(ImageTransformation.Mode.FIXED);
+		res.setMean(mean);
+		res.setStd(std);
+		return res;
+	}
+
+	private static ClipTransformation clip(double min, double max) {
+		ClipTransformation res = new ClipTransformation();
+		res.setMin(min);
+		res.setMax(max);
+		return res;
+	}
+}
@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.processing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class VectorKernelsTest {
+
+	@Test
+	public void testSupportedWhenRequired() {
+		// set by the java17 profile, which runs the tests against the multi-release JAR
+		assumeTrue(Boolean.getBoolean("vector.required"));
+		assertTrue(VectorKernels.isSupported());
+	}
+
+	@Test
+	public void testSameResultAsFusedKernel() {
+		List<PointwiseOperation> operations = Arrays.asList(
+				new AffineOperation(0.5, -3),
+				new ClipOperation(-2, 40),
+				new AffineOperation(2, 0.25),
+				new BinarizeOperation(1.5));
+		for (int n = 1; n <= operations.size(); n++) {
+			List<PointwiseOperation> chain = operations.subList(0, n);
+			float[] expected = new float[3001];
+			Random random = new Random(n);
+			for (int i = 0; i < expected.length; i++) expected[i] = (random.nextFloat() - 0.3f) * 100;
+			expected[17] = Float.NaN;
+			float[] actual = expected.clone();
+			new FusedKernel(chain).apply(expected, 3, 2997);
+			VectorKernels.compile(chain).apply(actual, 3, 2997);
+			assertArrayEquals(expected, actual, 0);
+		}
+	}
+
+	@Test
+	public void testUint16ToFloat() {
+		short[] source = new short[1027];
+		for (int i = 0; i < source.length; i++) source[i] = (short) (i * 64);
+		float[] target = new float[source.length];
+		VectorKernels.uint16ToFloat(source, 2, target, 1, source.length - 2);
+		assertEquals(0, target[0], 0);
+		for (int i = 2; i < source.length; i++) {
+			assertEquals((i * 64) & 0xffff, target[i - 1], 0);
+		}
+	}
+}
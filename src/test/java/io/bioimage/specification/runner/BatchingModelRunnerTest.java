@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.runner;
+
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingModelRunnerTest {
+
+	public static class IdentityProvider implements ModelRunnerProvider {
+
+		@Override
+		public String getName() {
+			return "identity";
+		}
+
+		@Override
+		public boolean supports(ModelSpecification model) {
+			return true;
+		}
+
+		@Override
+		public ModelRunner create(ModelSpecification model) {
+			return new IdentityModelRunner(model);
+		}
+	}
+
+	@Test
+	public void testRegistry() throws IOException {
+		ModelSpecification model = read("/example.0.2.0-csbdeep.model.yaml");
+		assertEquals("identity", ModelRunnerRegistry.getInstance().get(model).getName());
+		assertTrue(ModelRunnerRegistry.getInstance().create(model) instanceof IdentityModelRunner);
+	}
+
+	@Test
+	public void testBatching() throws Exception {
+		ModelSpecification model = read("/example.0.2.0-csbdeep.model.yaml");
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		IdentityModelRunner identity = new IdentityModelRunner(model);
+		try (BatchingModelRunner runner = new BatchingModelRunner(model, inputs -> {
+			batchSizes.add(inputs.get("input").getShape('b'));
+			return identity.run(inputs);
+		}, 4, 1, TimeUnit.SECONDS)) {
+			List<CompletableFuture<Map<String, TensorBuffer>>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) results.add(runner.submit(Collections.singletonMap("input", input(16, i))));
+			// a different shape is not batched with the others
+			CompletableFuture<Map<String, TensorBuffer>> other = runner.submit(Collections.singletonMap("input", input(32, 100)));
+			for (int i = 0; i < 8; i++) {
+				TensorBuffer output = results.get(i).get().get("activation_19/Identity");
+				assertArrayEquals(new int[]{1, 16, 32, 7}, output.getShape());
+				assertEquals(i, output.getFloat(0, 3, 6, 2), 0);
+			}
+			assertEquals(100, other.get().get("activation_19/Identity").getFloat(0, 31, 63, 6), 0);
+			assertEquals(3, batchSizes.size());
+			assertTrue(batchSizes.contains(4));
+		}
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		ModelSpecification model = read("/example.0.2.0-csbdeep.model.yaml");
+		AtomicInteger calls = new AtomicInteger();
+		IdentityModelRunner identity = new IdentityModelRunner(model);
+		try (BatchingModelRunner runner = new BatchingModelRunner(model, inputs -> {
+			calls.incrementAndGet();
+			return identity.run(inputs);
+		}, 16, 10, TimeUnit.MILLISECONDS)) {
+			// a single request runs after the deadline although the batch is not full
+			assertEquals(5, runner.run(Collections.singletonMap("input", input(16, 5))).get("activation_19/Identity").getFloat(0, 0, 0, 0), 0);
+			assertEquals(1, calls.get());
+		}
+	}
+
+	@Test
+	public void testFixedBatchSize() throws Exception {
+		// the n2v example only accepts a batch size of 1
+		ModelSpecification model = read("/example.0.3.1.model.yaml");
+		try (BatchingModelRunner runner = new BatchingModelRunner(model, new IdentityModelRunner(model), 8, 1, TimeUnit.MILLISECONDS)) {
+			assertEquals(1, runner.getMaxBatchSize());
+			assertEquals(3, runner.run(Collections.singletonMap("input", input(16, 3))).get("denoised").getFloat(0, 1, 1, 0), 0);
+		}
+	}
+
+	private static TensorBuffer input(int size, float value) {
+		TensorBuffer res = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 1, size, size, 1);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) res.setFloat(value, 0, y, x, 0);
+		}
+		return res;
+	}
+
+	private static ModelSpecification read(String resource) throws IOException {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		SpecificationReader.read(BatchingModelRunnerTest.class.getResource(resource).getPath(), model);
+		return model;
+	}
+}
@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.runner;
+
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BucketingModelRunnerTest {
+
+	private static final String output = "activation_19/Identity";
+
+	@Test
+	public void testBuckets() throws IOException {
+		ModelSpecification model = read();
+		BucketingModelRunner runner = new BucketingModelRunner(model, new IdentityModelRunner(model), Padding.ZERO);
+		// min 16, step 16: 1, 2, 4, 8, ... steps
+		assertArrayEquals(new int[]{1, 32, 48, 1}, runner.bucket(model.getInputs().get(0), new int[]{1, 17, 33, 1}));
+		assertArrayEquals(new int[]{1, 80, 16, 1}, runner.bucket(model.getInputs().get(0), new int[]{1, 65, 3, 1}));
+		assertArrayEquals(new int[]{3, 16, 16, 1}, runner.bucket(model.getInputs().get(0), new int[]{3, 16, 16, 1}));
+	}
+
+	@Test
+	public void testBatchingDifferentSizes() throws Exception {
+		ModelSpecification model = read();
+		BatchingModelRunner batching = new BatchingModelRunner(model, new IdentityModelRunner(model), 4, 5, TimeUnit.SECONDS);
+		try (BucketingModelRunner runner = new BucketingModelRunner(model, batching, Padding.REFLECT)) {
+			int[][] sizes = {{17, 20}, {30, 25}, {32, 32}, {20, 31}};
+			List<CompletableFuture<Map<String, TensorBuffer>>> results = new ArrayList<>();
+			for (int i = 0; i < sizes.length; i++) {
+				TensorBuffer input = input(sizes[i][0], sizes[i][1], i);
+				results.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						return runner.run(Collections.singletonMap("input", input));
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}));
+			}
+			for (int i = 0; i < sizes.length; i++) {
+				TensorBuffer prediction = results.get(i).get().get(output);
+				assertArrayEquals(new int[]{1, sizes[i][0], 2 * sizes[i][1], 7}, prediction.getShape());
+				assertEquals(i, prediction.getFloat(0, sizes[i][0] - 1, 2 * sizes[i][1] - 1, 6), 0);
+			}
+			// all requests fall into the 32 x 32 bucket and share one batch
+			assertEquals(1, runner.getBucketCounts().size());
+			assertEquals(1, batching.getBatchCount());
+			assertEquals(4, batching.getAverageBatchSize(), 0);
+			assertEquals(4, runner.getRequestCount());
+			long elements = 17 * 20 + 30 * 25 + 32 * 32 + 20 * 31;
+			assertEquals(elements, runner.getElementCount());
+			assertEquals(4 * 32 * 32 - elements, runner.getPaddedElementCount());
+			assertTrue(runner.getPaddingOverhead() > 0);
+		}
+	}
+
+	private static TensorBuffer input(int height, int width, float value) {
+		TensorBuffer res = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 1, height, width, 1);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) res.setFloat(value, 0, y, x, 0);
+		}
+		return res;
+	}
+
+	private static ModelSpecification read() throws IOException {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		SpecificationReader.read(BucketingModelRunnerTest.class.getResource("/example.0.2.0-csbdeep.model.yaml").getPath(), model);
+		return model;
+	}
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.statistics;
+
+import io.bioimage.specification.DefaultInputNodeSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.io.StatisticsSidecar;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DatasetStatisticsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final SampleReader rawReader = file -> {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+		float[] data = new float[buffer.remaining() / 4];
+		buffer.asFloatBuffer().get(data);
+		return new Sample(data, data.length);
+	};
+
+	@Test
+	public void testMoments() {
+		float[] data = randomData(new Random(1), 10000, 1e4f);
+		Moments moments = Moments.of(data, 0, data.length);
+		Moments welford = new Moments();
+		double sum = 0;
+		for (float value : data) {
+			welford.add(value);
+			sum += value;
+		}
+		double mean = sum / data.length;
+		double m2 = 0;
+		for (float value : data) m2 += (value - mean) * (value - mean);
+		assertEquals(data.length, moments.getCount());
+		assertEquals(mean, moments.getMean(), 1e-9);
+		assertEquals(Math.sqrt(m2 / data.length), moments.getStd(), 1e-9);
+		assertEquals(welford.getMean(), moments.getMean(), 1e-9);
+		assertEquals(welford.getStd(), moments.getStd(), 1e-9);
+	}
+
+	@Test
+	public void testDeterministicAcrossParallelism() throws IOException {
+		Path dir = writeDataset(7, 5000);
+		InputNodeSpecification node = createNode();
+
+		DatasetStatistics sequential = new DatasetStatistics(rawReader);
+		sequential.setParallelism(1);
+		NodeStatistics expected = sequential.compute(node, dir, 1, 99.8);
+
+		DatasetStatistics parallel = new DatasetStatistics(rawReader);
+		parallel.setParallelism(4);
+		NodeStatistics actual = parallel.compute(node, dir, 1, 99.8);
+
+		assertEquals(7 * 5000, actual.getMoments()[0].getCount());
+		assertEquals(Double.doubleToLongBits(expected.getMean(0)), Double.doubleToLongBits(actual.getMean(0)));
+		assertEquals(Double.doubleToLongBits(expected.getStd(0)), Double.doubleToLongBits(actual.getStd(0)));
+		assertEquals(expected.getPercentile(99.8)[0], actual.getPercentile(99.8)[0], 0);
+		assertEquals(0.998 * 100, actual.getPercentile(99.8)[0], 0.1);
+		assertEquals(1, actual.getPercentile(1)[0], 0.1);
+	}
+
+	@Test
+	public void testSidecar() throws IOException {
+		Path dir = writeDataset(3, 1000);
+		File modelDir = folder.newFolder("model");
+		InputNodeSpecification node = createNode();
+		AtomicInteger reads = new AtomicInteger();
+		DatasetStatistics statistics = new DatasetStatistics(file -> {
+			reads.incrementAndGet();
+			return rawReader.read(file);
+		});
+
+		NodeStatistics computed = statistics.loadOrCompute(modelDir, node, dir, 50);
+		assertTrue(new File(modelDir, StatisticsSidecar.statisticsFileName).exists());
+		int readsAfterCompute = reads.get();
+
+		NodeStatistics loaded = statistics.loadOrCompute(modelDir, node, dir, 50);
+		assertEquals(readsAfterCompute, reads.get());
+		assertEquals("input", loaded.getNodeName());
+		assertEquals("byxc", loaded.getAxes());
+		assertEquals(computed.getMean(0), loaded.getMean(0), 1e-12);
+		assertEquals(computed.getStd(0), loaded.getStd(0), 1e-12);
+		assertEquals(computed.getPercentile(50)[0], loaded.getPercentile(50)[0], 1e-12);
+
+		List<NodeStatistics> stored = StatisticsSidecar.read(modelDir);
+		assertEquals(1, stored.size());
+	}
+
+	private InputNodeSpecification createNode() {
+		InputNodeSpecification node = new DefaultInputNodeSpecification();
+		node.setName("input");
+		node.setAxes("byxc");
+		return node;
+	}
+
+	private Path writeDataset(int samples, int size) throws IOException {
+		Path dir = folder.newFolder("data").toPath();
+		Random random = new Random(42);
+		for (int i = 0; i < samples; i++) {
+			float[] data = randomData(random, size, 100);
+			ByteBuffer buffer = ByteBuffer.allocate(data.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.asFloatBuffer().put(data);
+			Files.write(dir.resolve("sample" + i + ".raw"), buffer.array());
+		}
+		return dir;
+	}
+
+	private static float[] randomData(Random random, int size, float scale) {
+		float[] data = new float[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = random.nextFloat() * scale;
+		}
+		return data;
+	}
+}
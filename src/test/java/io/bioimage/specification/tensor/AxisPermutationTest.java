@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AxisPermutationTest {
+
+	@Test
+	public void testImageToNode() {
+		// c is contiguous in the image and x in the node, both longer than a block
+		TensorBuffer image = TensorBuffer.allocate(DataType.UINT16, "xyczt", 150, 7, 70, 1, 1);
+		for (long i = 0; i < image.getSize(); i++) image.set(i, i % 60000);
+		AxisPermutation permutation = AxisPermutation.of("xyczt", "bcyx");
+		assertSame(permutation, AxisPermutation.of("xyczt", "bcyx"));
+		assertArrayEquals(new int[]{1, 70, 7, 150}, permutation.targetShape(image.getShape()));
+		TensorBuffer node = TensorBuffer.allocate(DataType.FLOAT32, "bcyx", 1, 70, 7, 150);
+		permutation.copy(image, node);
+		for (int y = 0; y < 7; y++) {
+			for (int x = 0; x < 150; x++) {
+				for (int c = 0; c < 70; c++) assertEquals(image.getDouble(x, y, c, 0, 0), node.getDouble(0, c, y, x), 0);
+			}
+		}
+		// and back, converting to the data type of the image
+		TensorBuffer back = TensorBuffer.allocate(DataType.UINT16, "xyczt", 150, 7, 70, 1, 1);
+		AxisPermutation.of("bcyx", "xyczt").copy(node, back);
+		for (long i = 0; i < image.getSize(); i++) assertEquals(image.get(i), back.get(i), 0);
+	}
+
+	@Test
+	public void testTransform() {
+		TensorBuffer image = TensorBuffer.allocate(DataType.UINT8, "xyc", 5, 4, 3);
+		for (long i = 0; i < image.getSize(); i++) image.set(i, i);
+		for (String axes : new String[]{"cyx", "bcyx"}) {
+			TensorBuffer node = TensorBuffer.allocate(DataType.FLOAT32, axes, AxisPermutation.of("xyc", axes).targetShape(image.getShape()));
+			// adds the channel to every value
+			int channel = axes.indexOf('c');
+			AxisPermutation.of("xyc", axes).copy(image, node, (values, offset, length, position) -> {
+				for (int i = 0; i < length; i++) values[offset + i] += 1000 * position[channel];
+			});
+			for (int c = 0; c < 3; c++) {
+				for (int y = 0; y < 4; y++) {
+					for (int x = 0; x < 5; x++) {
+						double actual = axes.length() == 3 ? node.getDouble(c, y, x) : node.getDouble(0, c, y, x);
+						assertEquals(image.getDouble(x, y, c) + 1000 * c, actual, 0);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPadded() {
+		TensorBuffer image = TensorBuffer.allocate(DataType.UINT16, "xyczt", 150, 7, 70, 1, 1);
+		for (long i = 0; i < image.getSize(); i++) image.set(i, i % 60000);
+		// beyond the image along x and y, in blocks and in rows
+		PaddedTensor padded = new PaddedTensor(image, Padding.REFLECT, 0).region(new int[]{-5, -3, 0, 0, 0}, new int[]{160, 12, 70, 1, 1});
+		TensorBuffer expected = padded.materialize();
+		for (String axes : new String[]{"bcyx", "byxc"}) {
+			AxisPermutation permutation = AxisPermutation.of("xyczt", axes);
+			TensorBuffer node = TensorBuffer.allocate(DataType.FLOAT32, axes, permutation.targetShape(padded.getShape()));
+			TensorBuffer reference = TensorBuffer.allocate(DataType.FLOAT32, axes, permutation.targetShape(padded.getShape()));
+			permutation.copy(padded, node, null);
+			permutation.copy(expected, reference);
+			for (long i = 0; i < node.getSize(); i++) assertEquals(reference.get(i), node.get(i), 0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingAxis() {
+		TensorBuffer image = TensorBuffer.allocate(DataType.UINT8, "xyczt", 5, 4, 1, 2, 1);
+		AxisPermutation.of("xyczt", "byxc").targetShape(image.getShape());
+	}
+}
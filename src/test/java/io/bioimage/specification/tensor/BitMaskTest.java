@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BitMaskTest {
+
+	@Test
+	public void testPackAndCount() {
+		float[] values = new float[200];
+		for (int i = 0; i < values.length; i++) values[i] = i % 3 == 0 ? 1 : 0;
+		BitMask mask = new BitMask("yx", 10, 20);
+		mask.set(0, values, 0, 7, 0.5f);
+		mask.set(7, values, 7, 193, 0.5f);
+		assertEquals(67, mask.count());
+		assertTrue(mask.get(0, 3));
+		assertFalse(mask.get(0, 4));
+		assertTrue(mask.get(9, 18));
+		assertEquals(4, mask.getWords().length);
+	}
+
+	@Test
+	public void testLogic() {
+		BitMask a = new BitMask("x", 130);
+		BitMask b = new BitMask("x", 130);
+		for (int i = 0; i < 130; i++) {
+			a.set(i, i % 2 == 0);
+			b.set(i, i < 65);
+		}
+		assertEquals(33, new BitMask("x", 130).or(a).and(b).count());
+		a.or(b);
+		assertEquals(65 + 32, a.count());
+		a.andNot(b);
+		assertEquals(32, a.count());
+		assertFalse(a.get(64));
+		assertTrue(a.get(66));
+	}
+
+	@Test
+	public void testRunLengths() {
+		BitMask mask = new BitMask("yx", 3, 100);
+		for (long i = 5; i < 140; i++) mask.set(i, true);
+		mask.set(299, true);
+		long[] runs = mask.toRunLengths();
+		assertArrayEquals(new long[]{5, 135, 159, 1}, runs);
+		BitMask decoded = BitMask.fromRunLengths("yx", new int[]{3, 100}, runs);
+		assertArrayEquals(mask.getWords(), decoded.getWords());
+		assertArrayEquals(new long[]{300}, new BitMask("x", 300).toRunLengths());
+		TensorBuffer tensor = mask.toTensor();
+		assertEquals(DataType.UINT8, tensor.getDataType());
+		assertEquals(1, tensor.getDouble(1, 39), 0);
+		assertEquals(0, tensor.getDouble(1, 40), 0);
+	}
+}
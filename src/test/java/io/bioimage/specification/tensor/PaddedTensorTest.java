@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PaddedTensorTest {
+
+	@Test
+	public void testRead() {
+		TensorBuffer source = TensorBuffer.allocate(DataType.INT32, "yx", 5, 7);
+		for (int i = 0; i < 35; i++) source.set(i, i);
+		for (Padding padding : Padding.values()) {
+			PaddedTensor view = new PaddedTensor(source, padding, -1).region(new int[]{-3, -4}, new int[]{11, 16});
+			assertFalse(view.isInside());
+			float[] values = new float[11 * 16];
+			view.read(0, values, 0, values.length);
+			TensorBuffer copy = view.materialize();
+			for (int y = 0; y < 11; y++) {
+				for (int x = 0; x < 16; x++) {
+					int sourceY = padding.resolve(y - 3, 5);
+					int sourceX = padding.resolve(x - 4, 7);
+					double expected = sourceY < 0 || sourceX < 0 ? (padding == Padding.CONSTANT ? -1 : 0) : sourceY * 7 + sourceX;
+					assertEquals(expected, view.getDouble(y, x), 0);
+					assertEquals(expected, values[y * 16 + x], 0);
+					assertEquals(expected, copy.getDouble(y, x), 0);
+				}
+			}
+			// partial rows
+			float[] part = new float[20];
+			view.read(21, part, 0, 20);
+			for (int i = 0; i < 20; i++) assertEquals(values[21 + i], part[i], 0);
+		}
+	}
+
+	@Test
+	public void testInside() {
+		TensorBuffer source = TensorBuffer.allocate(DataType.UINT8, "yx", 4, 4);
+		source.set(5, 9);
+		PaddedTensor view = new PaddedTensor(source, Padding.EDGE, 0).slice('y', 1, 3).slice('x', 1, 2);
+		assertTrue(view.isInside());
+		assertEquals(9, view.toTensor().getDouble(0, 0), 0);
+		assertEquals(9, view.materialize().getDouble(0, 0), 0);
+	}
+}
@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PaddingTest {
+
+	@Test
+	public void testResolve() {
+		assertArrayEquals(new int[]{-1, -1, 0, 1, 2, -1, -1}, resolve(Padding.ZERO));
+		assertArrayEquals(new int[]{0, 0, 0, 1, 2, 2, 2}, resolve(Padding.EDGE));
+		assertArrayEquals(new int[]{2, 1, 0, 1, 2, 1, 0}, resolve(Padding.REFLECT));
+		assertArrayEquals(new int[]{1, 0, 0, 1, 2, 2, 1}, resolve(Padding.MIRROR));
+		assertEquals(0, Padding.REFLECT.resolve(-5, 1));
+	}
+
+	@Test
+	public void testCopy() {
+		TensorBuffer source = TensorBuffer.allocate(DataType.UINT16, "yx", 2, 3);
+		for (int i = 0; i < 6; i++) source.set(i, i + 1);
+		TensorBuffer target = TensorBuffer.allocate(DataType.UINT16, "yx", 4, 5);
+		Padding.MIRROR.copy(source, new int[]{-1, -1}, target, 0);
+		assertEquals(1, target.getDouble(0, 0), 0);
+		assertEquals(3, target.getDouble(1, 4), 0);
+		assertEquals(5, target.getDouble(2, 2), 0);
+		assertEquals(6, target.getDouble(3, 4), 0);
+		Padding.CONSTANT.copy(source, new int[]{0, 0}, target, 7);
+		assertEquals(6, target.getDouble(1, 2), 0);
+		assertEquals(7, target.getDouble(1, 3), 0);
+		assertEquals(7, target.getDouble(3, 0), 0);
+	}
+
+	private static int[] resolve(Padding padding) {
+		int[] res = new int[7];
+		for (int i = 0; i < res.length; i++) res[i] = padding.resolve(i - 2, 3);
+		return res;
+	}
+}
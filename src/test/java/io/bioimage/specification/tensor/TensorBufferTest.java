@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tensor;
+
+import io.bioimage.specification.DefaultInputNodeSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class TensorBufferTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testDataType() {
+		InputNodeSpecification node = new DefaultInputNodeSpecification();
+		node.setDataType("uint16");
+		assertEquals(DataType.UINT16, DataType.of(node));
+		assertEquals(DataType.FLOAT32, DataType.fromString("float"));
+		assertEquals(8, DataType.fromString("float64").getByteSize());
+	}
+
+	@Test
+	public void testAllocateFromNode() {
+		InputNodeSpecification node = new DefaultInputNodeSpecification();
+		node.setAxes("byxc");
+		node.setDataType("float32");
+		TensorBuffer tensor = TensorBuffer.allocate(node, 1, 4, 5, 2);
+		assertEquals(40, tensor.getSize());
+		assertTrue(tensor.getByteBuffer().isDirect());
+		assertEquals(ByteOrder.LITTLE_ENDIAN, tensor.getByteBuffer().order());
+		tensor.setFloat(3, 0, 2, 1, 1);
+		FloatBuffer floats = tensor.asFloatBuffer();
+		assertEquals(3, floats.get(2 * 10 + 1 * 2 + 1), 0);
+	}
+
+	@Test
+	public void testViews() {
+		TensorBuffer tensor = TensorBuffer.allocate(DataType.UINT16, "yx", 4, 6);
+		float[] values = new float[24];
+		for (int i = 0; i < values.length; i++) values[i] = i * 1000;
+		tensor.write(values, 0);
+		assertEquals(23000, tensor.asShortBuffer().get(23) & 0xffff);
+
+		TensorBuffer slice = tensor.slice('x', 2, 5);
+		assertFalse(slice.isContiguous());
+		assertArrayEquals(new int[]{4, 3}, slice.getShape());
+		assertEquals(tensor.getDouble(1, 3), slice.getDouble(1, 1), 0);
+
+		TensorBuffer strided = tensor.stride('y', 2).stride('x', 3);
+		float[] read = new float[4];
+		strided.read(read, 0);
+		assertArrayEquals(new float[]{0, 3000, 12000, 15000}, read, 0);
+
+		TensorBuffer transposed = tensor.permute("xy");
+		assertEquals(tensor.getDouble(2, 5), transposed.getDouble(5, 2), 0);
+		TensorBuffer copy = transposed.copy();
+		assertTrue(copy.isContiguous());
+		assertEquals(6000, copy.getDouble(0, 1), 0);
+
+		TensorBuffer row = tensor.select('y', 3);
+		assertEquals("x", row.getAxes());
+		row.setDouble(65535, 0);
+		assertEquals(65535, tensor.getDouble(3, 0), 0);
+		assertEquals(18000, copy.getDouble(0, 3), 0);
+	}
+
+	@Test
+	public void testConversion() {
+		TensorBuffer source = TensorBuffer.allocate(DataType.FLOAT64, "x", 3);
+		source.write(new float[]{1.5f, 200, 255}, 0);
+		TensorBuffer target = TensorBuffer.allocate(DataType.UINT8, "x", 3);
+		source.copyTo(target);
+		assertEquals(1, target.getDouble(0), 0);
+		assertEquals(255, target.getDouble(2), 0);
+		TensorBuffer big = TensorBuffer.allocate(DataType.UINT64, "x", 1);
+		big.setDouble(0x1p63 + 4096, 0);
+		assertEquals(0x1p63 + 4096, big.getDouble(0), 0);
+	}
+
+	@Test
+	public void testChunkedStorage() {
+		// chunks of 64 bytes, so rows and bulk reads cross chunk boundaries
+		TensorBuffer tensor = TensorBuffer.of(ChunkedStorage.allocate(4 * 300, 6), DataType.FLOAT32, "yx", 10, 30);
+		float[] values = new float[300];
+		for (int i = 0; i < values.length; i++) values[i] = i;
+		tensor.write(values, 0);
+		float[] read = new float[100];
+		tensor.read(95, read, 0, 100);
+		for (int i = 0; i < read.length; i++) assertEquals(95 + i, read[i], 0);
+		assertEquals(47, tensor.getStorage().getFloat(47 * 4), 0);
+		assertEquals(5 * 30 + 7, tensor.slice('y', 5, 10).getDouble(0, 7), 0);
+		// bulk row copies between differently chunked storages
+		TensorBuffer copy = TensorBuffer.of(ChunkedStorage.allocate(4 * 300, 7), DataType.FLOAT32, "yx", 10, 30);
+		tensor.slice('x', 3, 30).copyTo(copy.slice('x', 0, 27));
+		assertEquals(4 * 30 + 3 + 26, copy.getDouble(4, 26), 0);
+		assertEquals(9 * 30 + 3, copy.getDouble(9, 0), 0);
+	}
+
+	@Test
+	public void testStorageCopyAcrossChunks() {
+		Storage source = ChunkedStorage.allocate(1000, 6);
+		for (int i = 0; i < 1000; i++) source.putByte(i, (byte) i);
+		for (Storage target : new Storage[]{ChunkedStorage.allocate(1000, 7), Storages.allocate(1000)}) {
+			source.copyTo(3, target, 50, 900);
+			assertEquals(0, target.getByte(49));
+			for (int i = 0; i < 900; i++) assertEquals((byte) (3 + i), target.getByte(50 + i));
+			assertEquals(0, target.getByte(950));
+		}
+	}
+
+	@Test
+	public void testByteBufferWithinChunk() {
+		// chunks of 64 bytes, i.e. 16 floats
+		TensorBuffer tensor = TensorBuffer.of(ChunkedStorage.allocate(4 * 40, 6), DataType.FLOAT32, "yx", 4, 10);
+		tensor.setDouble(3, 2, 5);
+		assertEquals(3, tensor.slice('y', 2, 3).asFloatBuffer().get(5), 0);
+		try {
+			tensor.getByteBuffer();
+			fail();
+		} catch (UnsupportedOperationException e) {
+			assertTrue(e.getMessage().contains("one piece"));
+		}
+	}
+
+	@Test
+	public void testSegmentStorageWhenRequired() {
+		// set by the java22 profile, which runs the tests against the multi-release JAR
+		assumeTrue(Boolean.getBoolean("segment.required"));
+		assertEquals("SegmentStorage", Storages.allocate(8).getClass().getSimpleName());
+	}
+
+	@Test
+	public void testMapLargerThan2GB() throws IOException {
+		Path file = folder.newFile("volume.raw").toPath();
+		int[] shape = {3, 1 << 15, 1 << 15};
+		TensorBuffer tensor = TensorBuffer.map(file, 0, DataType.UINT8, "zyx", true, shape);
+		assertEquals(3L << 30, tensor.getSize());
+		tensor.setDouble(200, 2, (1 << 15) - 1, (1 << 15) - 1);
+		tensor.setDouble(7, 1, 0, 0);
+		assertEquals(200, tensor.get(tensor.getSize() - 1), 0);
+
+		TensorBuffer reopened = TensorBuffer.map(file, 0, DataType.UINT8, "zyx", false, shape);
+		assertEquals(200, reopened.getDouble(2, (1 << 15) - 1, (1 << 15) - 1), 0);
+		float[] row = new float[2];
+		reopened.read((1L << 30) - 1, row, 0, 2);
+		assertArrayEquals(new float[]{0, 7}, row, 0);
+	}
+}
@@ -0,0 +1,69 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.tensor.TensorPool;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ShapeInferenceTest {
+
+	@Test
+	public void testScaledOutput() throws IOException {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		SpecificationReader.read(getClass().getResource("/example.0.2.0-csbdeep.model.yaml").getPath(), model);
+		ShapeInference inference = new ShapeInference(model);
+		String output = model.getOutputs().get(0).getName();
+		Map<String, int[]> inputShapes = Collections.singletonMap("input", new int[]{1, 64, 48, 1});
+		assertArrayEquals(new int[]{1, 64, 96, 7}, inference.outputShapes(inputShapes).get(output));
+
+		OutputMapping mapping = inference.getMapping(output);
+		assertArrayEquals(new double[]{0, 10, 40, 3}, mapping.toOutput(new int[]{0, 10, 20, 0}), 0);
+		assertArrayEquals(new double[]{0, 10, 20, -3}, mapping.toInput(new int[]{0, 10, 40, 0}), 0);
+
+		TensorPool pool = new TensorPool();
+		TensorBuffer first = inference.allocateOutputs(inputShapes, pool).get(output);
+		assertEquals(DataType.FLOAT32, first.getDataType());
+		pool.release(first);
+		assertEquals(1, pool.size());
+		assertSame(first, inference.allocateOutputs(inputShapes, pool).get(output));
+		assertEquals(0, pool.size());
+	}
+}
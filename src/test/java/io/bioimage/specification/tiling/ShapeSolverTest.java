@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.DefaultInputNodeSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShapeSolverTest {
+
+	@Test
+	public void testRounding() {
+		ShapeSolver solver = new ShapeSolver(createNode());
+		assertArrayEquals(new int[]{1, 32, 48, 3}, solver.ceil(new int[]{1, 17, 40, 3}));
+		assertArrayEquals(new int[]{1, 16, 32, 3}, solver.floor(new int[]{1, 17, 40, 3}));
+		assertArrayEquals(new int[]{1, 16, 16, 3}, solver.ceil(new int[]{1, 1, 1, 1}));
+		// the fixed channel axis cannot grow, and nothing is smaller than the minimum
+		assertNull(solver.ceil(new int[]{1, 16, 16, 4}));
+		assertNull(solver.floor(new int[]{1, 15, 16, 3}));
+		assertArrayEquals(new int[]{1, 16, 16, 3}, solver.floor(new int[]{1, 16, 16, 5}));
+		assertTrue(solver.isValid(new int[]{1, 64, 16, 3}));
+		assertFalse(solver.isValid(new int[]{1, 60, 16, 3}));
+		assertFalse(solver.isValid(new int[]{2, 64, 16, 3}));
+	}
+
+	@Test
+	public void testCache() {
+		ShapeSolver solver = new ShapeSolver(createNode());
+		int[] shape = {1, 100, 100, 3};
+		int[] first = solver.ceil(shape);
+		first[1] = 0;
+		assertArrayEquals(new int[]{1, 112, 112, 3}, solver.ceil(shape));
+		assertEquals(1, solver.cacheSize());
+		solver.floor(shape);
+		assertEquals(2, solver.cacheSize());
+		InputNodeSpecification node = createNode();
+		assertSame(ShapeSolver.of(node), ShapeSolver.of(node));
+	}
+
+	@Test
+	public void testEnumerate() {
+		ShapeSolver solver = new ShapeSolver(createNode());
+		int[] lower = {1, 20, 10, 1};
+		int[] upper = {1, 64, 40, 3};
+		List<int[]> shapes = solver.enumerate(lower, upper);
+		assertEquals(3 * 2, shapes.size());
+		assertEquals(shapes.size(), solver.count(lower, upper));
+		assertArrayEquals(new int[]{1, 32, 16, 3}, shapes.get(0));
+		assertArrayEquals(new int[]{1, 32, 32, 3}, shapes.get(1));
+		assertArrayEquals(new int[]{1, 64, 32, 3}, shapes.get(5));
+		assertTrue(solver.enumerate(lower, new int[]{1, 64, 40, 2}).isEmpty());
+		assertEquals(0, solver.count(lower, new int[]{1, 64, 40, 2}));
+	}
+
+	private static InputNodeSpecification createNode() {
+		InputNodeSpecification node = new DefaultInputNodeSpecification();
+		node.setName("input");
+		node.setAxes("byxc");
+		node.setShapeMin(Arrays.asList(1, 16, 16, 3));
+		node.setShapeStep(Arrays.asList(0, 16, 16, 0));
+		return node;
+	}
+}
@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import io.bioimage.specification.processing.TensorPostprocessor;
+import io.bioimage.specification.processing.TensorPreprocessor;
+import io.bioimage.specification.runner.IdentityModelRunner;
+import io.bioimage.specification.statistics.Moments;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlidingWindowTest {
+
+	@Test
+	public void testEverySliceReadOnce() throws IOException {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		SpecificationReader.read(SlidingWindowTest.class.getResource("/example.0.3.1.model.yaml").getPath(), model);
+		TensorBuffer image = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 1, 150, 24, 1);
+		for (int y = 0; y < 150; y++) {
+			for (int x = 0; x < 24; x++) image.setFloat(30000 + (y * 7919 + x * 104729) % 20000, 0, y, x, 0);
+		}
+		TensorBuffer expected = new TensorPostprocessor(model.getOutputs().get(0)).apply(new TensorPreprocessor(model.getInputs().get(0)).apply(image));
+		// streams along y with a halo of 32 and windows of 80 rows, so every row is part of up to five windows
+		SlidingWindow stream = new SlidingWindow(model, new IdentityModelRunner(model), 'y', 80);
+		stream.setPadding(Padding.REFLECT);
+		stream.setMemoryBudget(1 << 17);
+		assertEquals(32, stream.getHalo());
+		AtomicInteger next = new AtomicInteger();
+		TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, "byxc", stream.outputShape(image.getShape()));
+		stream.run(150, index -> {
+			assertEquals(next.getAndIncrement(), index);
+			return image.slice('y', index, index + 1);
+		}, output);
+		assertEquals(150, stream.getReadCount());
+		for (int y = 0; y < 150; y++) {
+			for (int x = 0; x < 24; x++) assertEquals(expected.getFloat(0, y, x, 0), output.getFloat(0, y, x, 0), 1e-2);
+		}
+	}
+
+	@Test
+	public void testDatasetStatistics() throws IOException {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		SpecificationReader.read(SlidingWindowTest.class.getResource("/example.0.3.1.model.yaml").getPath(), model);
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		model.getInputs().get(0).setPreprocessing(Collections.singletonList(zeroMean));
+		try {
+			new SlidingWindow(model, new IdentityModelRunner(model), 'y', 80);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("per sample statistics over y"));
+		}
+		// statistics of the whole stack instead
+		zeroMean.setMode(ImageTransformation.Mode.PER_DATASET);
+		TensorBuffer image = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 1, 100, 24, 1);
+		float[] values = new float[(int) image.getSize()];
+		for (int i = 0; i < values.length; i++) values[i] = 1000 + (i * 7919) % 5000;
+		image.write(values, 0);
+		NodeStatistics statistics = new NodeStatistics("input", "byxc", Moments.of(values, 0, values.length));
+		TensorBuffer expected = new TensorPostprocessor(model.getOutputs().get(0)).apply(new TensorPreprocessor(model.getInputs().get(0), statistics).apply(image));
+		SlidingWindow stream = new SlidingWindow(model, new IdentityModelRunner(model), 'y', 80, statistics, null);
+		stream.setMemoryBudget(1 << 17);
+		TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, "byxc", stream.outputShape(image.getShape()));
+		stream.run(100, index -> image.slice('y', index, index + 1), output);
+		for (int y = 0; y < 100; y++) {
+			for (int x = 0; x < 24; x++) assertEquals(expected.getFloat(0, y, x, 0), output.getFloat(0, y, x, 0), 1e-2);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWindowWithoutCore() throws IOException {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		SpecificationReader.read(SlidingWindowTest.class.getResource("/example.0.3.1.model.yaml").getPath(), model);
+		new SlidingWindow(model, new IdentityModelRunner(model), 'y', 64);
+	}
+}
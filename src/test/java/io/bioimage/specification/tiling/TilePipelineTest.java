@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import io.bioimage.specification.processing.TensorPostprocessor;
+import io.bioimage.specification.processing.TensorPreprocessor;
+import io.bioimage.specification.runner.IdentityModelRunner;
+import io.bioimage.specification.statistics.Moments;
+import io.bioimage.specification.statistics.NodeStatistics;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.Padding;
+import io.bioimage.specification.tensor.TensorBuffer;
+import io.bioimage.specification.transformation.ImageTransformation;
+import io.bioimage.specification.transformation.ScaleRangeTransformation;
+import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformation;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TilePipelineTest {
+
+	@Test
+	public void testIdentity() throws IOException {
+		DefaultModelSpecification model = read();
+		TensorBuffer image = image();
+		// preprocessing and postprocessing of the whole image without tiling
+		TensorBuffer expected = new TensorPostprocessor(model.getOutputs().get(0)).apply(new TensorPreprocessor(model.getInputs().get(0)).apply(image));
+		for (TileStitcher.Blending blending : TileStitcher.Blending.values()) {
+			TilePipeline pipeline = new TilePipeline(model, new IdentityModelRunner(model));
+			pipeline.setThreads(TilePipeline.Stage.PREPROCESS, 3);
+			pipeline.setThreads(TilePipeline.Stage.INFERENCE, 2);
+			pipeline.setQueueCapacity(2);
+			pipeline.setBlending(blending);
+			TensorBuffer output = pipeline.run(image, 1 << 17);
+			float[] values = new float[(int) output.getSize()];
+			float[] expectedValues = new float[values.length];
+			output.read(values, 0);
+			expected.read(expectedValues, 0);
+			for (int i = 0; i < values.length; i++) assertEquals(expectedValues[i], values[i], 1e-2);
+		}
+	}
+
+	@Test
+	public void testPerSamplePostprocessing() throws IOException {
+		DefaultModelSpecification model = read();
+		ScaleRangeTransformation range = new ScaleRangeTransformation();
+		range.setMode(ImageTransformation.Mode.PER_SAMPLE);
+		range.setMinPercentile(1);
+		range.setMaxPercentile(99);
+		model.getOutputs().get(0).setPostprocessing(Collections.singletonList(range));
+		TensorBuffer image = image();
+		TensorBuffer expected = new TensorPostprocessor(model.getOutputs().get(0)).apply(new TensorPreprocessor(model.getInputs().get(0)).apply(image));
+		for (TileStitcher.Blending blending : TileStitcher.Blending.values()) {
+			TilePipeline pipeline = new TilePipeline(model, new IdentityModelRunner(model));
+			pipeline.setBlending(blending);
+			TensorBuffer output = pipeline.run(image, 1 << 17);
+			// the percentiles of the whole prediction, not of every tile
+			for (int y = 0; y < 300; y += 7) {
+				for (int x = 0; x < 200; x += 3) assertEquals(expected.getFloat(0, y, x, 0), output.getFloat(0, y, x, 0), 1e-4);
+			}
+		}
+	}
+
+	@Test
+	public void testPerDatasetProcessing() throws IOException {
+		DefaultModelSpecification model = read();
+		ZeroMeanUnitVarianceTransformation zeroMean = new ZeroMeanUnitVarianceTransformation();
+		zeroMean.setMode(ImageTransformation.Mode.PER_DATASET);
+		model.getInputs().get(0).setPreprocessing(Collections.singletonList(zeroMean));
+		ScaleRangeTransformation range = new ScaleRangeTransformation();
+		range.setMode(ImageTransformation.Mode.PER_DATASET);
+		range.setMinPercentile(1);
+		range.setMaxPercentile(99);
+		model.getOutputs().get(0).setPostprocessing(Collections.singletonList(range));
+		TensorBuffer image = image();
+		float[] values = new float[(int) image.getSize()];
+		image.read(values, 0);
+		NodeStatistics inputStatistics = new NodeStatistics("input", "byxc", Moments.of(values, 0, values.length));
+		NodeStatistics outputStatistics = new NodeStatistics("denoised", "byxc", new Moments());
+		outputStatistics.setPercentile(1, new double[]{-1.5});
+		outputStatistics.setPercentile(99, new double[]{1.5});
+		TensorBuffer expected = new TensorPostprocessor(model.getOutputs().get(0), outputStatistics)
+				.apply(new TensorPreprocessor(model.getInputs().get(0), inputStatistics).apply(image));
+		TilePipeline pipeline = new TilePipeline(model, new IdentityModelRunner(model), inputStatistics, outputStatistics);
+		// the dataset statistics apply tile by tile
+		assertFalse(pipeline.isPostprocessedWhole());
+		TensorBuffer output = pipeline.run(image, 1 << 17);
+		for (int y = 0; y < 300; y += 7) {
+			for (int x = 0; x < 200; x += 3) assertEquals(expected.getFloat(0, y, x, 0), output.getFloat(0, y, x, 0), 1e-4);
+		}
+	}
+
+	@Test
+	public void testPaddedTile() throws IOException {
+		DefaultModelSpecification model = read();
+		TensorBuffer image = image().slice('y', 0, 30).slice('x', 0, 29);
+		TensorBuffer expected = new TensorPostprocessor(model.getOutputs().get(0)).apply(new TensorPreprocessor(model.getInputs().get(0)).apply(image));
+		TilePipeline pipeline = new TilePipeline(model, new IdentityModelRunner(model));
+		pipeline.setPadding(Padding.REFLECT);
+		// a single tile of 32 x 32 reaching beyond the image
+		TensorBuffer output = pipeline.run(image, Long.MAX_VALUE);
+		for (int y = 0; y < 30; y++) {
+			for (int x = 0; x < 29; x++) assertEquals(expected.getFloat(0, y, x, 0), output.getFloat(0, y, x, 0), 1e-2);
+		}
+	}
+
+	@Test
+	public void testSingleInferenceThread() throws IOException {
+		DefaultModelSpecification model = read();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger calls = new AtomicInteger();
+		IdentityModelRunner identity = new IdentityModelRunner(model);
+		TilePipeline pipeline = new TilePipeline(model, inputs -> {
+			assertEquals(1, running.incrementAndGet());
+			try {
+				Thread.sleep(2);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			calls.incrementAndGet();
+			running.decrementAndGet();
+			return identity.run(inputs);
+		});
+		pipeline.run(image(), 1 << 17);
+		assertTrue(calls.get() > 1);
+	}
+
+	@Test
+	public void testFailure() throws IOException {
+		DefaultModelSpecification model = read();
+		AtomicInteger calls = new AtomicInteger();
+		TilePipeline pipeline = new TilePipeline(model, inputs -> {
+			if (calls.incrementAndGet() == 2) throw new IOException("model failed");
+			return new IdentityModelRunner(model).run(inputs);
+		});
+		try {
+			pipeline.run(image(), 1 << 17);
+			fail();
+		} catch (IOException e) {
+			assertEquals("model failed", e.getMessage());
+		}
+		assertEquals(2, calls.get());
+	}
+
+	private static DefaultModelSpecification read() throws IOException {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		SpecificationReader.read(TilePipelineTest.class.getResource("/example.0.3.1.model.yaml").getPath(), model);
+		return model;
+	}
+
+	private static TensorBuffer image() {
+		TensorBuffer image = TensorBuffer.allocate(DataType.FLOAT32, "byxc", 1, 300, 200, 1);
+		for (int y = 0; y < 300; y++) {
+			for (int x = 0; x < 200; x++) image.setFloat(30000 + (y * 7919 + x * 104729) % 20000, 0, y, x, 0);
+		}
+		return image;
+	}
+}
@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import io.bioimage.specification.tensor.DataType;
+import io.bioimage.specification.tensor.TensorBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TileStitcherTest {
+
+	@Test
+	public void testCrop() throws IOException {
+		TilingPlan plan = plan();
+		TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, plan.getOutputAxes(), plan.getOutputShape());
+		TileStitcher stitcher = new TileStitcher(plan, output);
+		plan.getTiles().parallelStream().forEach(tile -> stitcher.stitch(tile, predict(plan, tile)));
+		stitcher.finish();
+		checkImage(output, 0);
+	}
+
+	@Test
+	public void testBlending() throws IOException {
+		TilingPlan plan = plan();
+		for (TileStitcher.Blending blending : new TileStitcher.Blending[]{TileStitcher.Blending.LINEAR, TileStitcher.Blending.COSINE}) {
+			TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, plan.getOutputAxes(), plan.getOutputShape());
+			output.setFloat(42, 0, 0, 0, 0);
+			TileStitcher stitcher = new TileStitcher(plan, output, blending);
+			plan.getTiles().parallelStream().forEach(tile -> stitcher.stitch(tile, predict(plan, tile)));
+			stitcher.finish();
+			checkImage(output, 1e-3);
+		}
+	}
+
+	@Test
+	public void testBlendingMixesOverlaps() throws IOException {
+		TilingPlan plan = plan();
+		TensorBuffer output = TensorBuffer.allocate(DataType.FLOAT32, plan.getOutputAxes(), plan.getOutputShape());
+		TileStitcher stitcher = new TileStitcher(plan, output, TileStitcher.Blending.LINEAR);
+		for (Tile tile : plan.getTiles()) {
+			TensorBuffer constant = TensorBuffer.allocate(DataType.FLOAT32, plan.getOutputAxes(), plan.getOutputTileShape());
+			float value = tile.getGridPosition()[1];
+			constant.forEachRow((start, stride, length, logicalOffset) -> {
+				for (int i = 0; i < length; i++) constant.set(start + i * stride, value);
+			});
+			stitcher.stitch(tile, constant);
+		}
+		stitcher.finish();
+		// the value changes smoothly from one row of tiles to the next
+		float previous = output.getFloat(0, 0, 10, 0);
+		assertEquals(0, previous, 0);
+		boolean mixed = false;
+		for (int y = 1; y < plan.getOutputShape()[1]; y++) {
+			float value = output.getFloat(0, y, 10, 0);
+			assertTrue(value >= previous - 1e-5 && value - previous < 0.1);
+			mixed |= value != Math.round(value);
+			previous = value;
+		}
+		assertTrue(mixed);
+		assertEquals(plan.getGridShape()[1] - 1, previous, 0);
+	}
+
+	private static TilingPlan plan() throws IOException {
+		DefaultModelSpecification model = new DefaultModelSpecification();
+		SpecificationReader.read(TileStitcherTest.class.getResource("/example.0.3.1.model.yaml").getPath(), model);
+		TilingPlan plan = new TilingPlanner(model.getInputs().get(0), model.getOutputs().get(0)).plan(new int[]{1, 500, 300, 1}, 1 << 20);
+		assertTrue(plan.getGridShape()[1] > 1);
+		return plan;
+	}
+
+	/**
+	 * @return the output of a model which returns its input
+	 */
+	private static TensorBuffer predict(TilingPlan plan, Tile tile) {
+		int[] shape = plan.getOutputTileShape();
+		int[] image = plan.getImageShape();
+		int[] origin = tile.getInputOrigin();
+		TensorBuffer res = TensorBuffer.allocate(DataType.FLOAT32, plan.getOutputAxes(), shape);
+		for (int y = 0; y < shape[1]; y++) {
+			for (int x = 0; x < shape[2]; x++) {
+				int iy = Math.max(0, Math.min(image[1] - 1, origin[1] + y));
+				int ix = Math.max(0, Math.min(image[2] - 1, origin[2] + x));
+				res.setFloat(value(iy, ix), 0, y, x, 0);
+			}
+		}
+		return res;
+	}
+
+	private static float value(int y, int x) {
+		return y * 1000 + x;
+	}
+
+	private static void checkImage(TensorBuffer output, double delta) {
+		int[] shape = output.getShape();
+		for (int y = 0; y < shape[1]; y++) {
+			for (int x = 0; x < shape[2]; x++) {
+				assertEquals(value(y, x), output.getFloat(0, y, x, 0), delta * value(y, x) + delta);
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.tiling;
+
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TilingPlannerTest {
+
+	@Test
+	public void testSingleTile() throws IOException {
+		DefaultModelSpecification model = read("/example.0.3.1.model.yaml");
+		TilingPlan plan = new TilingPlanner(model.getInputs().get(0), model.getOutputs().get(0)).plan(new int[]{1, 250, 301, 1}, Long.MAX_VALUE);
+		assertEquals(1, plan.getTiles().size());
+		// padded to the next multiple of 4
+		assertArrayEquals(new int[]{1, 252, 304, 1}, plan.getTileShape());
+		Tile tile = plan.getTiles().get(0);
+		assertArrayEquals(new int[]{0, -1, -1, 0}, tile.getInputOrigin());
+		assertArrayEquals(new int[]{0, 1, 1, 0}, tile.getOutputCropOrigin());
+		assertArrayEquals(new int[]{1, 250, 301, 1}, tile.getOutputCropShape());
+	}
+
+	@Test
+	public void testMemoryBudget() throws IOException {
+		DefaultModelSpecification model = read("/example.0.3.1.model.yaml");
+		InputNodeSpecification input = model.getInputs().get(0);
+		OutputNodeSpecification output = model.getOutputs().get(0);
+		int[] image = {2, 1000, 700, 1};
+		long budget = 4 << 20;
+		TilingPlan plan = new TilingPlanner(input, output).plan(image, budget);
+		checkPlan(plan, input, 32);
+		// float32 input and output
+		assertTrue(plan.getTileSize() * 8 <= budget);
+		assertEquals(1, plan.getTileShape()[0]);
+		assertTrue(plan.getRedundancy() < 1.5);
+	}
+
+	@Test
+	public void testScaledOutput() throws IOException {
+		DefaultModelSpecification model = read("/example.0.2.0-csbdeep.model.yaml");
+		InputNodeSpecification input = model.getInputs().get(0);
+		OutputNodeSpecification output = model.getOutputs().get(0);
+		int[] image = {1, 500, 400, 1};
+		TilingPlan plan = new TilingPlanner(input, output).plan(image, 8 << 20);
+		checkPlan(plan, input, 96);
+		assertTrue(plan.getTiles().size() > 1);
+		// scale 2 along x, offset 3 on both sides of the channel axis
+		assertArrayEquals(new int[]{1, 500, 800, 7}, plan.getOutputShape());
+		long covered = 0;
+		for (Tile tile : plan.getTiles()) {
+			int[] crop = tile.getOutputCropShape();
+			covered += (long) crop[0] * crop[1] * crop[2] * crop[3];
+			for (int i = 0; i < 4; i++) {
+				assertTrue(tile.getOutputCropOrigin()[i] >= 0);
+				assertTrue(tile.getOutputCropOrigin()[i] + crop[i] <= plan.getOutputTileShape()[i]);
+			}
+		}
+		assertEquals(500 * 800 * 7, covered);
+	}
+
+	private static void checkPlan(TilingPlan plan, InputNodeSpecification input, int halo) {
+		int[] image = plan.getImageShape();
+		int[] tileShape = plan.getTileShape();
+		for (int d = 0; d < tileShape.length; d++) {
+			int min = input.getShapeMin().get(d);
+			int step = input.getShapeStep().get(d);
+			assertTrue(step == 0 ? tileShape[d] == min : tileShape[d] >= min && (tileShape[d] - min) % step == 0);
+		}
+		long cores = 0;
+		for (Tile tile : plan.getTiles()) {
+			int[] origin = tile.getInputOrigin();
+			int[] core = tile.getCoreOrigin();
+			int[] coreShape = tile.getCoreShape();
+			long size = 1;
+			for (int d = 0; d < image.length; d++) {
+				size *= coreShape[d];
+				assertTrue(core[d] >= origin[d] && core[d] + coreShape[d] <= origin[d] + tileShape[d]);
+				// the halo of the spatial axes is inside the tile unless the core touches the image border
+				if (d == 0 || d == 3) continue;
+				if (core[d] > 0) assertTrue(core[d] - origin[d] >= halo);
+				if (core[d] + coreShape[d] < image[d]) assertTrue(origin[d] + tileShape[d] - core[d] - coreShape[d] >= halo);
+			}
+			cores += size;
+		}
+		long imageSize = 1;
+		for (int dim : image) imageSize *= dim;
+		assertEquals(imageSize, cores);
+	}
+
+	private DefaultModelSpecification read(String resource) throws IOException {
+		DefaultModelSpecification specification = new DefaultModelSpecification();
+		SpecificationReader.read(getClass().getResource(resource).getPath(), specification);
+		return specification;
+	}
+}
@@ -0,0 +1,181 @@
+/*-
+ * #%L
+ * Java implementation of the bioimage.io model specification.
+ * %%
+ * Copyright (C) 2020 - 2021 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.bioimage.specification.transformation;
+
+import io.bioimage.specification.DefaultModelSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.TransformationSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import io.bioimage.specification.io.SpecificationWriter;
+import io.bioimage.specification.processing.FusedKernel;
+import io.bioimage.specification.processing.OperationFactory;
+import io.bioimage.specification.processing.PointwiseOperation;
+import io.bioimage.specification.processing.TransformationCompiler;
+import io.bioimage.specification.statistics.NodeStatistics;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransformationRegistryTest {
+
+	private final static String spec = "format_version: 0.3.2\n" +
+			"name: steps\n" +
+			"inputs:\n" +
+			"  - name: input\n" +
+			"    axes: byxc\n" +
+			"    data_type: float32\n" +
+			"    shape: { min: [ 1, 4, 4, 1 ], step: [ 0, 4, 4, 0 ] }\n" +
+			"    preprocessing:\n" +
+			"      - name: invert\n" +
+			"        kwargs: { max: 10 }\n" +
+			"      - name: sigmoid\n" +
+			"outputs:\n" +
+			"  - name: output\n" +
+			"    axes: byxc\n" +
+			"    shape: { reference_input: input, scale: [ 1, 1, 1, 1 ], offset: [ 0, 0, 0, 0 ] }\n" +
+			"    postprocessing:\n" +
+			"      - name: scale_range\n" +
+			"        kwargs: { mode: per_sample, min_percentile: 1, max_percentile: 99.8 }\n";
+
+	@Test
+	public void testReadWriteSteps() throws IOException {
+		DefaultModelSpecification specification = read(spec);
+		InputNodeSpecification input = specification.getInputs().get(0);
+		assertEquals(2, input.getPreprocessing().size());
+		assertTrue(input.getPreprocessing().get(0) instanceof InvertTransformation);
+		assertEquals(10, ((InvertTransformation) input.getPreprocessing().get(0)).getMax().intValue());
+		assertTrue(input.getPreprocessing().get(1) instanceof SigmoidTransformation);
+		ScaleRangeTransformation scaleRange = (ScaleRangeTransformation) specification.getOutputs().get(0).getPostprocessing().get(0);
+		assertEquals(ImageTransformation.Mode.PER_SAMPLE, scaleRange.getMode());
+		assertEquals(99.8, scaleRange.getMaxPercentile().doubleValue(), 0);
+
+		Map<String, Object> written = SpecificationWriter.write(specification);
+		DefaultModelSpecification reread = read(new Yaml().dump(written));
+		assertTrue(reread.getInputs().get(0).getPreprocessing().get(0) instanceof InvertTransformation);
+		assertEquals(1., ((ScaleRangeTransformation) reread.getOutputs().get(0).getPostprocessing().get(0)).getMinPercentile().doubleValue(), 0);
+	}
+
+	@Test
+	public void testWriteMissingReference() {
+		// both steps write their reference kwarg even if it is not set
+		Map<String, Object> scaleRange = TransformationRegistry.getInstance().write(new ScaleRangeTransformation());
+		assertTrue(scaleRange.containsKey("reference_tensor"));
+		assertNull(scaleRange.get("reference_tensor"));
+		Map<String, Object> scaleMinMax = TransformationRegistry.getInstance().write(new ScaleMinMaxTransformation());
+		assertTrue(scaleMinMax.containsKey("reference_input"));
+		assertNull(scaleMinMax.get("reference_input"));
+	}
+
+	@Test
+	public void testThirdPartyKernel() throws IOException {
+		List<TransformationSpecification> preprocessing = read(spec).getInputs().get(0).getPreprocessing();
+		List<PointwiseOperation> operations = new TransformationCompiler().compile(preprocessing);
+		assertNotNull(operations);
+		float[] data = {10, 9, 0};
+		new FusedKernel(operations).apply(data, 0, data.length);
+		assertEquals(0.5, data[0], 1e-6);
+		assertEquals(1 / (1 + Math.exp(-1)), data[1], 1e-6);
+		assertEquals(1 / (1 + Math.exp(-10)), data[2], 1e-6);
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownStep() throws IOException {
+		read(spec.replace("sigmoid", "unknown_step"));
+	}
+
+	private static DefaultModelSpecification read(String yaml) throws IOException {
+		DefaultModelSpecification specification = new DefaultModelSpecification();
+		SpecificationReader.read(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)), specification);
+		return specification;
+	}
+
+	public static class InvertTransformation extends DefaultImageTransformation {
+
+		private Number max;
+
+		public Number getMax() {
+			return max;
+		}
+
+		public void setMax(Number max) {
+			this.max = max;
+		}
+
+		@Override
+		public String getName() {
+			return "invert";
+		}
+	}
+
+	public static class InvertDescriptor extends DefaultTransformationDescriptor<InvertTransformation> {
+
+		public InvertDescriptor() {
+			super("invert", InvertTransformation.class);
+		}
+
+		@Override
+		protected InvertTransformation create() {
+			return new InvertTransformation();
+		}
+
+		@Override
+		protected void readKwargs(InvertTransformation transformation, Map<String, Object> kwargs) {
+			transformation.setMax(toNumber(kwargs.get("max")));
+		}
+
+		@Override
+		protected void writeKwargs(InvertTransformation transformation, Map<String, Object> kwargs) {
+			kwargs.put("max", transformation.getMax());
+		}
+	}
+
+	public static class InvertOperationFactory implements OperationFactory<InvertTransformation> {
+
+		@Override
+		public Class<InvertTransformation> getType() {
+			return InvertTransformation.class;
+		}
+
+		@Override
+		public PointwiseOperation create(InvertTransformation transformation, NodeStatistics datasetStatistics) {
+			float max = transformation.getMax().floatValue();
+			return value -> max - value;
+		}
+	}
+}